@@ -0,0 +1,130 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import cl.ucn.disc.isof.fivet.domain.service.FetchSpec;
+import com.avaje.ebean.Ebean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks de las consultas de controles con la mayoria de los controles eliminados (soft delete), antes y despues
+ * de archivarlos con {@link EbeanBackendService#archivarEliminados(long)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArchivoBenchmark {
+
+    /**
+     * Controles eliminados archivados (false: en su tabla)
+     */
+    @Param({"false", "true"})
+    public boolean archivado;
+
+    /**
+     * Cantidad de pacientes
+     */
+    @Param({"10000"})
+    public int tamanio;
+
+    /**
+     * Semilla del set de datos
+     */
+    private static final long SEMILLA = 42;
+
+    /**
+     * Uno de cada tantos controles se mantiene vigente
+     */
+    private static final int VIGENTES = 10;
+
+    /**
+     * Backend
+     */
+    private EbeanBackendService backendService;
+
+    /**
+     * Veterinarios del set de datos
+     */
+    private List<Persona> veterinarios;
+
+    /**
+     * Crea el backend, carga el set de datos, elimina la mayoria de los controles y los archiva.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        backendService = new EbeanBackendService(ConfiguracionBackend.builder()
+                .database("h2")
+                .directorioArchivo(Files.createTempDirectory("archivo"))
+                .build());
+        backendService.initialize();
+
+        final GeneradorDatos generador = new GeneradorDatos(SEMILLA, tamanio);
+        generador.cargar(backendService);
+
+        veterinarios = new ArrayList<>();
+        for (int i = 0; i < generador.getVeterinarios(); i++) {
+            veterinarios.add(backendService.getPersona(generador.veterinario(i).getRut()));
+        }
+
+        Ebean.createSqlUpdate("update control set deleted = true, when_modified = :fecha where mod(id, :vigentes) <> 0")
+                .setParameter("fecha", new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)))
+                .setParameter("vigentes", VIGENTES)
+                .execute();
+        Ebean.getServerCacheManager().clearAll();
+
+        if (archivado) {
+            backendService.archivarEliminados(TimeUnit.HOURS.toMillis(1));
+        }
+    }
+
+    /**
+     * Cierra el backend.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        backendService.shutdown();
+    }
+
+    @Benchmark
+    public List<Control> getControlesVeterinario() {
+        return backendService.getControlesVeterinario(veterinario().getRut());
+    }
+
+    @Benchmark
+    public Paciente getPacienteControles() {
+        return backendService.getPaciente(1 + ThreadLocalRandom.current().nextInt(tamanio), FetchSpec.CONTROLES);
+    }
+
+    /**
+     * @return un veterinario al azar.
+     */
+    private Persona veterinario() {
+        return veterinarios.get(ThreadLocalRandom.current().nextInt(veterinarios.size()));
+    }
+
+}
@@ -0,0 +1,159 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import cl.ucn.disc.isof.fivet.domain.service.BackendService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks de las operaciones del {@link BackendService} sobre {@link EbeanBackendService}, para cada base de
+ * datos y tamanio del set de datos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BackendServiceBenchmark {
+
+    /**
+     * Base de datos (ver ebean.properties).
+     * WARN: hsql no soporta ENCRYPT
+     */
+    @Param({"h2", "sqlite"})
+    public String database;
+
+    /**
+     * Cantidad de pacientes
+     */
+    @Param({"1000", "10000"})
+    public int tamanio;
+
+    /**
+     * Semilla del set de datos
+     */
+    private static final long SEMILLA = 42;
+
+    /**
+     * Backend
+     */
+    private BackendService backendService;
+
+    /**
+     * Generador del set de datos
+     */
+    private GeneradorDatos generador;
+
+    /**
+     * Veterinarios del set de datos
+     */
+    private List<Persona> veterinarios;
+
+    /**
+     * Crea el backend y carga el set de datos.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+
+        backendService = new EbeanBackendService(database);
+        backendService.initialize();
+
+        generador = new GeneradorDatos(SEMILLA, tamanio);
+        generador.cargar(backendService);
+
+        veterinarios = new ArrayList<>();
+        for (int i = 0; i < generador.getVeterinarios(); i++) {
+            veterinarios.add(backendService.getPersona(generador.veterinario(i).getRut()));
+        }
+    }
+
+    /**
+     * Cierra el backend.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        backendService.shutdown();
+    }
+
+    @Benchmark
+    public Persona getPersonaPorRut() {
+        return backendService.getPersona(veterinario().getRut());
+    }
+
+    @Benchmark
+    public Persona getPersonaPorMail() {
+        return backendService.getPersona(veterinario().getMail());
+    }
+
+    @Benchmark
+    public List<Paciente> getPacientes() {
+        return backendService.getPacientes();
+    }
+
+    @Benchmark
+    public List<Paciente> getPacientesPagina() {
+        return backendService.getPacientes(ThreadLocalRandom.current().nextInt(tamanio / 20), 20);
+    }
+
+    @Benchmark
+    public Paciente getPaciente() {
+        return backendService.getPaciente(numero());
+    }
+
+    @Benchmark
+    public List<Control> getControlesVeterinario() {
+        return backendService.getControlesVeterinario(veterinario().getRut());
+    }
+
+    @Benchmark
+    public List<Paciente> getPacientesPorNombre() {
+        return backendService.getPacientesPorNombre(generador.paciente(numero()).getNombre().substring(0, 3));
+    }
+
+    @Benchmark
+    public void agregarControl() {
+        // Algunos pacientes del set de datos no tienen controles
+        int numero;
+        List<Control> controles;
+        do {
+            numero = numero();
+            controles = generador.controles(numero, veterinarios);
+        } while (controles.isEmpty());
+
+        backendService.agregarControl(controles.get(0), numero);
+    }
+
+    /**
+     * @return un veterinario al azar.
+     */
+    private Persona veterinario() {
+        return veterinarios.get(ThreadLocalRandom.current().nextInt(veterinarios.size()));
+    }
+
+    /**
+     * @return un numero de ficha al azar.
+     */
+    private int numero() {
+        return 1 + ThreadLocalRandom.current().nextInt(tamanio);
+    }
+
+}
@@ -0,0 +1,49 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.avaje.ebean.config.EncryptKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo de obtener la clave de una columna encriptada, que ebean pide en cada lectura y escritura de la columna:
+ * derivandola en cada llamada versus desde el {@link GestorClaves}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GestorClavesBenchmark {
+
+    private final FuenteClaves fuenteClaves = FuenteClaves.derivada();
+
+    private final GestorClaves gestorClaves = new GestorClaves(fuenteClaves);
+
+    /**
+     * Tabla y columna (no constantes, para que no se pliegue la concatenacion)
+     */
+    private String tabla = "persona";
+    private String columna = "password";
+
+    @Benchmark
+    public String derivada() {
+        final EncryptKey clave = () -> fuenteClaves.getClave(tabla, columna);
+        return clave.getStringValue();
+    }
+
+    @Benchmark
+    public String gestorClaves() {
+        return gestorClaves.getEncryptKey(tabla, columna).getStringValue();
+    }
+
+}
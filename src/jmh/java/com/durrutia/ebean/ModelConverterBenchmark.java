@@ -0,0 +1,299 @@
+package com.durrutia.ebean;
+
+import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import org.apache.commons.lang3.SystemUtils;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializacion de un paciente con sus controles: {@link ModelConverter} versus el toString() original de
+ * {@link BaseModel} (ReflectionToStringBuilder con JsonToStringStyle, que no serializa los controles).
+ * Las asignaciones de memoria se miden con: gradle jmh -Pjmh="-prof gc ModelConverterBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelConverterBenchmark {
+
+    /**
+     * Controles del paciente
+     */
+    @Param({"0", "10"})
+    public int controles;
+
+    /**
+     * Paciente a serializar
+     */
+    private Paciente paciente;
+
+    /**
+     * Destino que descarta la salida (mide la serializacion sin construir el String)
+     */
+    private final Writer nulo = new Writer() {
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Setup
+    public void setup() {
+
+        final Persona veterinario = Persona.builder()
+                .rut("17725104-6")
+                .nombre("Alfredo Henriquez")
+                .mail("ahenriquez@sodired.cl")
+                .password("123456")
+                .tipo(Persona.Tipo.VETERINARIO)
+                .build();
+
+        final List<Control> lista = new ArrayList<>();
+        for (int i = 0; i < controles; i++) {
+            lista.add(Control.builder()
+                    .fecha(new Date(1477958400000L + i * 86400000L))
+                    .proxControl(new Date(1477958400000L + (i + 30) * 86400000L))
+                    .temperatura(38.5)
+                    .peso(12.3)
+                    .diagnostico("Control sano " + i)
+                    .nota("Sin observaciones")
+                    .veterinario(veterinario)
+                    .build());
+        }
+
+        paciente = Paciente.builder()
+                .numero(1)
+                .nombre("Firulais")
+                .fechaNacimiento(new Date(1262304000000L))
+                .raza("Quiltro")
+                .sexo(Paciente.Sexo.MACHO)
+                .color("Cafe")
+                .Controles(lista)
+                .build();
+    }
+
+    @Benchmark
+    public String toStringOriginal() {
+        return reflectionToString(paciente);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return ModelConverter.toJson(paciente);
+    }
+
+    @Benchmark
+    public Writer toJsonStreaming() {
+        ModelConverter.toJson(paciente, nulo);
+        return nulo;
+    }
+
+    /**
+     * json style
+     */
+    private static final ToStringStyle jsonToStringStyle = new JsonToStringStyle();
+
+    /**
+     * @return el toString() original de BaseModel.
+     */
+    private static String reflectionToString(final BaseModel model) {
+
+        final ReflectionToStringBuilder builder = new ReflectionToStringBuilder(model, jsonToStringStyle) {
+
+            /**
+             * Returns whether or not to append the given <code>Field</code>.
+             * <ul>
+             * <li>Transient fields are appended only if {@link #isAppendTransients()} returns <code>true</code>.
+             * <li>Static fields are appended only if {@link #isAppendStatics()} returns <code>true</code>.
+             * <li>Inner class fields are not appended.</li>
+             * </ul>
+             *
+             * @param field The Field to test.
+             * @return Whether or not to append the given <code>Field</code>.
+             */
+            @Override
+            protected boolean accept(Field field) {
+
+                if (!super.accept(field)) {
+                    return false;
+                }
+
+                final String name = field.getName();
+
+                if (name.startsWith("_")) {
+                    return false;
+                }
+
+                if (name.startsWith("when")) {
+                    return false;
+                }
+
+                if (name.startsWith("log")) {
+                    return false;
+                }
+
+                return true;
+            }
+
+        };
+
+        return builder.toString();
+    }
+
+
+    /**
+     * <p>
+     * <code>ToStringStyle</code> that outputs with JSON format.
+     * </p>
+     * <p>
+     * <p>
+     * This is an inner class rather than using
+     * <code>StandardToStringStyle</code> to ensure its immutability.
+     * </p>
+     */
+    private static final class JsonToStringStyle extends ToStringStyle {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The summary size text start <code>'&gt;'</code>.
+         */
+        private String FIELD_NAME_PREFIX = "\"";
+
+        /**
+         * Indenting of inner lines.
+         */
+        private int indent = 2;
+
+        /**
+         * Current indenting.
+         */
+        private int spaces = 2;
+
+
+        /**
+         * <p>
+         * Constructor.
+         * </p>
+         * <p>
+         * <p>
+         * Use the static constant rather than instantiating.
+         * </p>
+         */
+        JsonToStringStyle() {
+            super();
+
+            resetIndent();
+
+            this.setUseClassName(false);
+            this.setUseIdentityHashCode(false);
+
+            this.setFieldNameValueSeparator(":");
+
+            this.setNullText("null");
+
+            this.setSummaryObjectStartText("\"<");
+            this.setSummaryObjectEndText(">\"");
+
+            this.setSizeStartText("\"<size=");
+            this.setSizeEndText(">\"");
+        }
+
+        /**
+         * Resets the fields responsible for the line breaks and indenting.
+         * Must be invoked after changing the {@link #spaces} value.
+         */
+        private void resetIndent() {
+
+            this.setArrayStart("[" + SystemUtils.LINE_SEPARATOR + spacer(spaces));
+            this.setArrayEnd(SystemUtils.LINE_SEPARATOR + spacer(spaces - indent) + "]");
+
+            this.setArraySeparator("," + SystemUtils.LINE_SEPARATOR + spacer(spaces));
+
+            this.setFieldSeparator("," + SystemUtils.LINE_SEPARATOR + spacer(spaces));
+
+            this.setContentStart("{" + SystemUtils.LINE_SEPARATOR + spacer(spaces));
+            this.setContentEnd(SystemUtils.LINE_SEPARATOR + spacer(spaces - indent) + "}");
+
+        }
+
+        /**
+         * Creates a StringBuilder responsible for the indenting.
+         *
+         * @param spaces how far to indent
+         * @return a StringBuilder with {spaces} leading space characters.
+         */
+        private StringBuilder spacer(int spaces) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < spaces; i++) {
+                sb.append(" ");
+            }
+            return sb;
+        }
+
+
+        @Override
+        protected void appendDetail(StringBuffer buffer, String fieldName, Object value) {
+
+            spaces += indent;
+            resetIndent();
+
+            if (value instanceof BaseModel) {
+                super.appendDetail(buffer, fieldName, ((BaseModel) value).getId());
+            } else {
+                super.appendDetail(buffer, fieldName, value);
+            }
+
+            spaces -= indent;
+            resetIndent();
+
+        }
+
+        @Override
+        protected void appendFieldStart(StringBuffer buffer, String fieldName) {
+
+            if (fieldName == null) {
+                throw new UnsupportedOperationException(
+                        "Field names are mandatory when using JsonToStringStyle");
+            }
+
+            super.appendFieldStart(buffer, FIELD_NAME_PREFIX + fieldName + FIELD_NAME_PREFIX);
+        }
+
+    }
+
+}
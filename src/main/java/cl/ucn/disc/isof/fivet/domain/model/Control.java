@@ -1,5 +1,7 @@
 package cl.ucn.disc.isof.fivet.domain.model;
 
+import com.avaje.ebean.annotation.Cache;
+import com.avaje.ebean.annotation.Index;
 import com.durrutia.ebean.BaseModel;
 import lombok.*;
 import org.hibernate.validator.constraints.NotEmpty;
@@ -8,7 +10,10 @@ import javax.persistence.*;
 import java.util.Date;
 
 /**
- * Clase que representa a un control veterinario
+ * Clase que representa a un control veterinario.
+ * <p>
+ * El indice (veterinario, fecha) resuelve los controles de un veterinario en un rango de fechas ya ordenados por
+ * fecha, el de proxControl las citas de un periodo.
  *
  * @author Tomás I. Alegre Sepúlveda
  * @version 20161026
@@ -16,6 +21,8 @@ import java.util.Date;
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
+@Cache(enableQueryCache = true)
+@Index(columnNames = {"veterinario_id", "fecha"})
 @Entity
 @Table
 public class Control extends BaseModel{
@@ -35,6 +42,7 @@ public class Control extends BaseModel{
     @Getter
     @Setter
     @NotEmpty
+    @Index
     private Date proxControl;
     /**
      * Temperatura
@@ -0,0 +1,35 @@
+package cl.ucn.disc.isof.fivet.domain.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.Date;
+
+/**
+ * Vista de solo lectura de un {@link Control} para los listados: solo las columnas que se muestran.
+ */
+@Value
+@Builder
+public class ControlResumen {
+
+    /**
+     * Fecha
+     */
+    Date fecha;
+
+    /**
+     * Proximo Control
+     */
+    Date proxControl;
+
+    /**
+     * Diagnostico
+     */
+    String diagnostico;
+
+    /**
+     * Nombre del veterinario
+     */
+    String nombreVeterinario;
+
+}
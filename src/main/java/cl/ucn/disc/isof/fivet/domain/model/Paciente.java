@@ -1,6 +1,9 @@
 package cl.ucn.disc.isof.fivet.domain.model;
 
+import cl.ucn.disc.isof.fivet.domain.search.Normalizador;
+import com.avaje.ebean.annotation.Cache;
 import com.avaje.ebean.annotation.EnumValue;
+import com.avaje.ebean.annotation.Index;
 import com.durrutia.ebean.BaseModel;
 import lombok.*;
 
@@ -17,15 +20,16 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
+@Cache(enableQueryCache = true)
 @Entity
 @Table
 public class Paciente extends BaseModel {
 
     /**
-     * Numero de la ficha
+     * Numero de la ficha (unico)
      */
     @Getter
-    @Column
+    @Column(unique = true)
     private Integer numero;
 
     /**
@@ -36,6 +40,13 @@ public class Paciente extends BaseModel {
     @Column
     private String nombre;
 
+    /**
+     * Nombre normalizado (minusculas, sin tildes) para las busquedas por prefijo
+     */
+    @Index
+    @Column
+    private String nombreBusqueda;
+
     /**
      * Fecha de nacimiento
      */
@@ -55,6 +66,7 @@ public class Paciente extends BaseModel {
     /**
      * Sexo
      */
+    @Getter
     private Sexo sexo;
 
     /**
@@ -86,6 +98,17 @@ public class Paciente extends BaseModel {
     @OrderBy("fecha")
     private List<Control> Controles;
 
+    /**
+     * Mantiene sincronizado el nombre de busqueda con el nombre.
+     */
+    @PrePersist
+    @PreUpdate
+    public void normalizarNombre() {
+
+        this.nombreBusqueda = Normalizador.normalizar(this.nombre);
+
+    }
+
     /**
      * Agrega el controles en paciente.
      *
@@ -0,0 +1,38 @@
+package cl.ucn.disc.isof.fivet.domain.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Vista de solo lectura de un {@link Paciente} para los listados: solo las columnas que se muestran.
+ */
+@Value
+@Builder
+public class PacienteResumen {
+
+    /**
+     * Numero de la ficha
+     */
+    Integer numero;
+
+    /**
+     * Nombre del paciente
+     */
+    String nombre;
+
+    /**
+     * Raza
+     */
+    String raza;
+
+    /**
+     * Sexo
+     */
+    Paciente.Sexo sexo;
+
+    /**
+     * Color
+     */
+    String color;
+
+}
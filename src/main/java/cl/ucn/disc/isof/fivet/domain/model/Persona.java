@@ -1,5 +1,6 @@
 package cl.ucn.disc.isof.fivet.domain.model;
 
+import com.avaje.ebean.annotation.Cache;
 import com.avaje.ebean.annotation.Encrypted;
 import com.avaje.ebean.annotation.EnumValue;
 import com.durrutia.ebean.BaseModel;
@@ -17,16 +18,17 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
+@Cache(enableQueryCache = true)
 @Entity
 @Table
 public class Persona extends BaseModel {
 
     /**
-     * RUT
+     * RUT (unico)
      */
     @Getter
     @NotEmpty
-    @Column(nullable = false)
+    @Column(nullable = false, unique = true)
     private String rut;
 
     /**
@@ -74,11 +76,11 @@ public class Persona extends BaseModel {
     }
 
     /**
-     * Mail
+     * Mail (unico)
      */
     @Getter
     @Setter
-    @Column
+    @Column(unique = true)
     @NotEmpty
     private String mail;
 
@@ -0,0 +1,194 @@
+package cl.ucn.disc.isof.fivet.domain.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Indice invertido en memoria para busqueda de texto completo: para cada termino (ver {@link Tokenizador})
+ * mantiene los documentos que lo contienen y su frecuencia. Los resultados se ordenan por relevancia (BM25).
+ *
+ * Thread-safe.
+ */
+public final class IndiceInvertido {
+
+    /**
+     * Saturacion de la frecuencia del termino (BM25)
+     */
+    private static final double K1 = 1.2;
+
+    /**
+     * Normalizacion por largo del documento (BM25)
+     */
+    private static final double B = 0.75;
+
+    /**
+     * termino -> (id -> frecuencia del termino en el documento)
+     */
+    private final Map<String, Map<Long, Integer>> postings = new HashMap<>();
+
+    /**
+     * id -> terminos distintos del documento (para poder eliminarlo)
+     */
+    private final Map<Long, String[]> documentos = new HashMap<>();
+
+    /**
+     * id -> cantidad de terminos del documento
+     */
+    private final Map<Long, Integer> largos = new HashMap<>();
+
+    /**
+     * Suma de los largos de todos los documentos
+     */
+    private long largoTotal;
+
+    /**
+     * Lock
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Agrega (o reemplaza) un documento.
+     *
+     * @param id     del documento.
+     * @param textos del documento, los null se ignoran.
+     */
+    public void agregar(final Long id, final String... textos) {
+
+        final Map<String, Integer> frecuencias = new HashMap<>();
+        int largo = 0;
+        for (final String texto : textos) {
+            for (final String termino : Tokenizador.terminos(texto)) {
+                frecuencias.merge(termino, 1, Integer::sum);
+                largo++;
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            eliminarSinLock(id);
+            if (largo == 0) {
+                return;
+            }
+
+            for (final Map.Entry<String, Integer> entry : frecuencias.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).put(id, entry.getValue());
+            }
+            documentos.put(id, frecuencias.keySet().toArray(new String[frecuencias.size()]));
+            largos.put(id, largo);
+            largoTotal += largo;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Elimina un documento del indice.
+     *
+     * @param id del documento.
+     */
+    public void eliminar(final Long id) {
+
+        lock.writeLock().lock();
+        try {
+            eliminarSinLock(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Elimina todo el contenido del indice.
+     */
+    public void limpiar() {
+
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            documentos.clear();
+            largos.clear();
+            largoTotal = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param consulta texto a buscar.
+     * @param maximo   cantidad maxima de resultados.
+     * @return los ids de los documentos que contienen al menos un termino de la consulta, del mas al menos relevante.
+     */
+    public List<Long> buscar(final String consulta, final int maximo) {
+
+        final Map<Long, Double> puntajes = new HashMap<>();
+
+        lock.readLock().lock();
+        try {
+            final int total = documentos.size();
+            if (total == 0) {
+                return new ArrayList<>();
+            }
+            final double largoPromedio = (double) largoTotal / total;
+
+            for (final String termino : new LinkedHashSet<>(Tokenizador.terminos(consulta))) {
+
+                final Map<Long, Integer> docs = postings.get(termino);
+                if (docs == null) {
+                    continue;
+                }
+
+                final double idf = Math.log(1 + (total - docs.size() + 0.5) / (docs.size() + 0.5));
+                for (final Map.Entry<Long, Integer> entry : docs.entrySet()) {
+                    final double tf = entry.getValue();
+                    final double norma = K1 * (1 - B + B * largos.get(entry.getKey()) / largoPromedio);
+                    puntajes.merge(entry.getKey(), idf * tf * (K1 + 1) / (tf + norma), Double::sum);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        final List<Map.Entry<Long, Double>> ordenados = new ArrayList<>(puntajes.entrySet());
+        ordenados.sort(Map.Entry.<Long, Double>comparingByValue().reversed());
+
+        final List<Long> ids = new ArrayList<>(Math.min(maximo, ordenados.size()));
+        for (int i = 0; i < ordenados.size() && i < maximo; i++) {
+            ids.add(ordenados.get(i).getKey());
+        }
+        return ids;
+    }
+
+    /**
+     * @return la cantidad de documentos indexados.
+     */
+    public int size() {
+
+        lock.readLock().lock();
+        try {
+            return documentos.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void eliminarSinLock(final Long id) {
+
+        final String[] terminos = documentos.remove(id);
+        if (terminos == null) {
+            return;
+        }
+
+        for (final String termino : terminos) {
+            final Map<Long, Integer> docs = postings.get(termino);
+            if (docs != null && docs.remove(id) != null && docs.isEmpty()) {
+                postings.remove(termino);
+            }
+        }
+        largoTotal -= largos.remove(id);
+    }
+
+}
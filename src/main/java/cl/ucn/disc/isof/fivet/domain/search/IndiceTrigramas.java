@@ -0,0 +1,155 @@
+package cl.ucn.disc.isof.fivet.domain.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Indice en memoria de trigramas para busquedas por substring: para cada trigrama mantiene los ids que lo
+ * contienen. Una busqueda intersecta los ids de los trigramas del texto buscado, obteniendo un conjunto reducido
+ * de candidatos que luego se verifica contra la base de datos.
+ *
+ * Thread-safe.
+ */
+public final class IndiceTrigramas {
+
+    /**
+     * trigrama -> ids
+     */
+    private final Map<String, Set<Long>> postings = new HashMap<>();
+
+    /**
+     * id -> texto normalizado indexado (para poder eliminarlo)
+     */
+    private final Map<Long, String> textos = new HashMap<>();
+
+    /**
+     * Lock
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Agrega (o reemplaza) el texto de un id.
+     *
+     * @param id    del elemento.
+     * @param texto sin normalizar.
+     */
+    public void agregar(final Long id, final String texto) {
+
+        final String normalizado = Normalizador.normalizar(texto);
+
+        lock.writeLock().lock();
+        try {
+            eliminarSinLock(id);
+            if (normalizado == null) {
+                return;
+            }
+
+            textos.put(id, normalizado);
+            for (final String trigrama : Normalizador.trigramas(normalizado)) {
+                postings.computeIfAbsent(trigrama, k -> new HashSet<>()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Elimina un id del indice.
+     *
+     * @param id a eliminar.
+     */
+    public void eliminar(final Long id) {
+
+        lock.writeLock().lock();
+        try {
+            eliminarSinLock(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Elimina todo el contenido del indice.
+     */
+    public void limpiar() {
+
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            textos.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param texto buscado, sin normalizar.
+     * @return los ids candidatos a contener el texto, o null si el texto es muy corto para usar el indice.
+     */
+    public Set<Long> candidatos(final String texto) {
+
+        final Set<String> trigramas = Normalizador.trigramas(Normalizador.normalizar(texto));
+        if (trigramas.isEmpty()) {
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            // Se intersecta partiendo por el trigrama menos frecuente
+            final List<Set<Long>> listas = new ArrayList<>(trigramas.size());
+            for (final String trigrama : trigramas) {
+                final Set<Long> ids = postings.get(trigrama);
+                if (ids == null) {
+                    return Collections.emptySet();
+                }
+                listas.add(ids);
+            }
+            listas.sort(Comparator.comparingInt(Set::size));
+
+            final Set<Long> candidatos = new HashSet<>(listas.get(0));
+            for (int i = 1; i < listas.size() && !candidatos.isEmpty(); i++) {
+                candidatos.retainAll(listas.get(i));
+            }
+            return candidatos;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return la cantidad de elementos indexados.
+     */
+    public int size() {
+
+        lock.readLock().lock();
+        try {
+            return textos.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void eliminarSinLock(final Long id) {
+
+        final String anterior = textos.remove(id);
+        if (anterior == null) {
+            return;
+        }
+
+        for (final String trigrama : Normalizador.trigramas(anterior)) {
+            final Set<Long> ids = postings.get(trigrama);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                postings.remove(trigrama);
+            }
+        }
+    }
+
+}
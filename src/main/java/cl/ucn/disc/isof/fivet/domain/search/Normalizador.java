@@ -0,0 +1,65 @@
+package cl.ucn.disc.isof.fivet.domain.search;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizacion de textos para las busquedas: minusculas, sin tildes ni dieresis y con los espacios colapsados,
+ * de esta forma "Pepé", "PEPE" y "pepe " son equivalentes.
+ */
+public final class Normalizador {
+
+    /**
+     * Marcas diacriticas que quedan separadas despues de la descomposicion NFD
+     */
+    private static final Pattern DIACRITICOS = Pattern.compile("\\p{M}+");
+
+    /**
+     * Secuencias de espacios
+     */
+    private static final Pattern ESPACIOS = Pattern.compile("\\s+");
+
+    /**
+     * Largo de los n-gramas del indice
+     */
+    public static final int LARGO_TRIGRAMA = 3;
+
+    private Normalizador() {
+        // Nothing here
+    }
+
+    /**
+     * @param texto a normalizar.
+     * @return el texto normalizado, null si el texto es null.
+     */
+    public static String normalizar(final String texto) {
+
+        if (texto == null) {
+            return null;
+        }
+
+        final String sinDiacriticos = DIACRITICOS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        return ESPACIOS.matcher(sinDiacriticos.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    /**
+     * @param normalizado texto ya normalizado.
+     * @return los trigramas distintos del texto, vacio si el texto tiene menos de {@link #LARGO_TRIGRAMA} caracteres.
+     */
+    public static Set<String> trigramas(final String normalizado) {
+
+        final Set<String> trigramas = new LinkedHashSet<>();
+        if (normalizado == null) {
+            return trigramas;
+        }
+
+        for (int i = 0; i + LARGO_TRIGRAMA <= normalizado.length(); i++) {
+            trigramas.add(normalizado.substring(i, i + LARGO_TRIGRAMA));
+        }
+        return trigramas;
+    }
+
+}
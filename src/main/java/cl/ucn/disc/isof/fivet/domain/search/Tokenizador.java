@@ -0,0 +1,77 @@
+package cl.ucn.disc.isof.fivet.domain.search;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Separa un texto en español en terminos para el {@link IndiceInvertido}: normaliza (ver {@link Normalizador}),
+ * separa por caracteres no alfanumericos, descarta las palabras vacias y reduce los plurales a su singular.
+ */
+public final class Tokenizador {
+
+    /**
+     * Separadores de palabras
+     */
+    private static final Pattern SEPARADORES = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /**
+     * Palabras vacias (ya normalizadas)
+     */
+    private static final Set<String> PALABRAS_VACIAS = ImmutableSet.of(
+            "a", "al", "ante", "con", "de", "del", "desde", "e", "el", "en", "entre", "es", "esta", "este",
+            "hay", "la", "las", "le", "les", "lo", "los", "mas", "muy", "ni", "no", "o", "para", "pero", "por",
+            "que", "se", "si", "sin", "sobre", "su", "sus", "tras", "u", "un", "una", "unas", "unos", "y", "ya");
+
+    private Tokenizador() {
+        // Nothing here
+    }
+
+    /**
+     * @param texto a separar.
+     * @return los terminos del texto, en orden y con repeticiones.
+     */
+    public static List<String> terminos(final String texto) {
+
+        final List<String> terminos = new ArrayList<>();
+
+        final String normalizado = Normalizador.normalizar(texto);
+        if (normalizado == null || normalizado.isEmpty()) {
+            return terminos;
+        }
+
+        for (final String palabra : SEPARADORES.split(normalizado)) {
+            if (palabra.isEmpty() || PALABRAS_VACIAS.contains(palabra)) {
+                continue;
+            }
+            terminos.add(raiz(palabra));
+        }
+        return terminos;
+    }
+
+    /**
+     * Reduccion liviana del plural: "fracturas" -> "fractura", "inflamaciones" -> "inflamacion". La "e" final se
+     * elimina ademas del plural, de forma que el singular y el plural de las palabras terminadas en "e" tengan la misma
+     * raiz: "fiebre" y "fiebres" -> "fiebr".
+     *
+     * @param palabra normalizada.
+     * @return la raiz de la palabra.
+     */
+    static String raiz(final String palabra) {
+
+        String raiz = palabra;
+        if (raiz.length() > 4 && raiz.endsWith("es")) {
+            raiz = raiz.substring(0, raiz.length() - 2);
+        } else if (raiz.length() > 3 && raiz.endsWith("s")) {
+            raiz = raiz.substring(0, raiz.length() - 1);
+        }
+        if (raiz.length() > 3 && raiz.endsWith("e")) {
+            raiz = raiz.substring(0, raiz.length() - 1);
+        }
+        return raiz;
+    }
+
+}
@@ -0,0 +1,133 @@
+package cl.ucn.disc.isof.fivet.domain.service;
+
+import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.ControlResumen;
+import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.PacienteResumen;
+import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import com.durrutia.ebean.BaseModel;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Version asincrona del {@link BackendService}: cada operacion se ejecuta en otro hilo y retorna de inmediato un
+ * {@link CompletableFuture}, de forma que las consultas independientes (ej: persona, paciente y controles de una misma
+ * pagina) se realicen en paralelo.
+ * <p>
+ * Si el backend no puede recibir mas trabajo el future termina con una
+ * {@link java.util.concurrent.RejectedExecutionException}.
+ */
+public interface AsyncBackendService extends AutoCloseable {
+
+    /**
+     * @see BackendService#getPersona(String, FetchSpec...)
+     */
+    CompletableFuture<Persona> getPersona(final String rutEmail, final FetchSpec... fetch);
+
+    /**
+     * @see BackendService#getPacientes(FetchSpec...)
+     */
+    CompletableFuture<List<Paciente>> getPacientes(final FetchSpec... fetch);
+
+    /**
+     * @see BackendService#getPacientes(int, int, FetchSpec...)
+     */
+    CompletableFuture<List<Paciente>> getPacientes(final int pagina, final int tamanio, final FetchSpec... fetch);
+
+    /**
+     * @see BackendService#getPacientesDesde(Integer, int, FetchSpec...)
+     */
+    CompletableFuture<List<Paciente>> getPacientesDesde(final Integer numeroDesde, final int cantidad, final FetchSpec... fetch);
+
+    /**
+     * @see BackendService#getPacientesResumen(int, int)
+     */
+    CompletableFuture<List<PacienteResumen>> getPacientesResumen(final int pagina, final int tamanio);
+
+    /**
+     * @see BackendService#getControlesResumen(Integer)
+     */
+    CompletableFuture<List<ControlResumen>> getControlesResumen(final Integer numeroPaciente);
+
+    /**
+     * @see BackendService#forEachPaciente(Consumer)
+     */
+    CompletableFuture<Void> forEachPaciente(final Consumer<Paciente> consumer);
+
+    /**
+     * @see BackendService#forEachControl(Consumer)
+     */
+    CompletableFuture<Void> forEachControl(final Consumer<Control> consumer);
+
+    /**
+     * @see BackendService#getPaciente(Integer, FetchSpec...)
+     */
+    CompletableFuture<Paciente> getPaciente(final Integer numeroPaciente, final FetchSpec... fetch);
+
+    /**
+     * @see BackendService#getControlesVeterinario(String, FetchSpec...)
+     */
+    CompletableFuture<List<Control>> getControlesVeterinario(final String rutVeterinario, final FetchSpec... fetch);
+
+    /**
+     * @see BackendService#getControlesVeterinario(String, Date, Date, int, int, FetchSpec...)
+     */
+    CompletableFuture<List<Control>> getControlesVeterinario(final String rutVeterinario, final Date desde,
+                                                             final Date hasta, final int pagina, final int tamanio,
+                                                             final FetchSpec... fetch);
+
+    /**
+     * @see BackendService#getProximosControles(String, Date, Date, int, int, FetchSpec...)
+     */
+    CompletableFuture<List<Control>> getProximosControles(final String rutVeterinario, final Date desde,
+                                                          final Date hasta, final int pagina, final int tamanio,
+                                                          final FetchSpec... fetch);
+
+    /**
+     * @see BackendService#getPacientesPorNombre(String, FetchSpec...)
+     */
+    CompletableFuture<List<Paciente>> getPacientesPorNombre(final String nombre, final FetchSpec... fetch);
+
+    /**
+     * @see BackendService#buscarPacientesPorNombre(String, FetchSpec...)
+     */
+    CompletableFuture<List<Paciente>> buscarPacientesPorNombre(final String texto, final FetchSpec... fetch);
+
+    /**
+     * @see BackendService#buscarControles(String, int, FetchSpec...)
+     */
+    CompletableFuture<List<Control>> buscarControles(final String texto, final int maximo, final FetchSpec... fetch);
+
+    /**
+     * @see BackendService#getCambios(Class, CursorCambios, int)
+     */
+    <T extends BaseModel> CompletableFuture<PaginaCambios<T>> getCambios(final Class<T> tipo, final CursorCambios desde,
+                                                                        final int cantidad);
+
+    /**
+     * @see BackendService#agregarControl(Control, Integer)
+     */
+    CompletableFuture<Void> agregarControl(final Control control, final Integer numeroPaciente);
+
+    /**
+     * @see BackendService#agregarControles(Map)
+     */
+    CompletableFuture<Void> agregarControles(final Map<Integer, List<Control>> controles);
+
+    /**
+     * @see BackendService#insertPacientes(Collection)
+     */
+    CompletableFuture<Void> insertPacientes(final Collection<Paciente> pacientes);
+
+    /**
+     * Deja de recibir operaciones y espera las pendientes. No cierra el {@link BackendService}.
+     */
+    @Override
+    void close();
+
+}
@@ -1,10 +1,17 @@
 package cl.ucn.disc.isof.fivet.domain.service;
 
 import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.ControlResumen;
 import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.PacienteResumen;
 import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import com.durrutia.ebean.BaseModel;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Interface que representa las operaciones de acceso al backend.
@@ -15,40 +22,164 @@ public interface BackendService {
      * Obtiene una persona desde el backend dado su rut o correo electronico.
      *
      * @param rutEmail
+     * @param fetch    asociaciones a cargar junto a la persona.
      * @return the Persona
      */
-    Persona getPersona(final String rutEmail);
+    Persona getPersona(final String rutEmail, final FetchSpec... fetch);
 
     /**
      * Obtiene el listado de los pacientes.
      *
+     * @param fetch asociaciones a cargar junto a los pacientes.
      * @return the {@link List} of {@link Paciente}
      */
-    List<Paciente> getPacientes();
+    List<Paciente> getPacientes(final FetchSpec... fetch);
+
+    /**
+     * Obtiene una pagina del listado de los pacientes, ordenado por numero de ficha.
+     *
+     * @param pagina  a obtener, partiendo desde 0.
+     * @param tamanio de la pagina (cantidad maxima de pacientes).
+     * @param fetch   asociaciones a cargar junto a los pacientes.
+     * @return the {@link List} of {@link Paciente}.
+     */
+    List<Paciente> getPacientes(final int pagina, final int tamanio, final FetchSpec... fetch);
+
+    /**
+     * Obtiene los pacientes que siguen a un numero de ficha (paginacion por cursor), ordenados por numero.
+     * A diferencia de {@link #getPacientes(int, int)} el costo no depende de que tan lejos este la pagina.
+     *
+     * @param numeroDesde ultimo numero de ficha recibido, null para partir desde el inicio.
+     * @param cantidad    maxima de pacientes a retornar.
+     * @param fetch       asociaciones a cargar junto a los pacientes.
+     * @return the {@link List} of {@link Paciente}.
+     */
+    List<Paciente> getPacientesDesde(final Integer numeroDesde, final int cantidad, final FetchSpec... fetch);
+
+    /**
+     * Obtiene una pagina del listado resumido de los pacientes (solo las columnas del listado), ordenado por
+     * numero de ficha.
+     *
+     * @param pagina  a obtener, partiendo desde 0.
+     * @param tamanio de la pagina.
+     * @return the {@link List} of {@link PacienteResumen}.
+     */
+    List<PacienteResumen> getPacientesResumen(final int pagina, final int tamanio);
+
+    /**
+     * Obtiene el listado resumido de los controles de un {@link Paciente}, ordenado por fecha de control.
+     *
+     * @param numeroPaciente de ficha.
+     * @return the {@link List} of {@link ControlResumen}.
+     */
+    List<ControlResumen> getControlesResumen(final Integer numeroPaciente);
+
+    /**
+     * Recorre todos los pacientes, de a uno, sin mantener el listado completo en memoria.
+     *
+     * @param consumer a invocar por cada {@link Paciente}, en orden de insercion.
+     */
+    void forEachPaciente(final Consumer<Paciente> consumer);
+
+    /**
+     * Recorre todos los controles, de a uno, sin mantener el listado completo en memoria.
+     *
+     * @param consumer a invocar por cada {@link Control}, en orden de insercion.
+     */
+    void forEachControl(final Consumer<Control> consumer);
 
     /**
      * Obtiene un {@link Paciente} a partir de su numero de ficha.
      *
      * @param numeroPaciente de ficha.
+     * @param fetch          asociaciones a cargar junto al paciente.
      * @return the {@link Paciente}.
      */
-    Paciente getPaciente(final Integer numeroPaciente);
+    Paciente getPaciente(final Integer numeroPaciente, final FetchSpec... fetch);
 
     /**
      * Obtiene todos los controles realizados por un veterinario ordenado por fecha de control.
      *
      * @param rutVeterinario del que realizo el control.
+     * @param fetch          asociaciones a cargar junto a los controles.
+     * @return the {@link List} of {@link Control}.
+     */
+    List<Control> getControlesVeterinario(final String rutVeterinario, final FetchSpec... fetch);
+
+    /**
+     * Obtiene una pagina de los controles realizados por un veterinario en un rango de fechas, ordenados por fecha.
+     *
+     * @param rutVeterinario del que realizo el control.
+     * @param desde          fecha inicial del rango (incluida).
+     * @param hasta          fecha final del rango (excluida).
+     * @param pagina         a obtener, partiendo desde 0.
+     * @param tamanio        de la pagina (cantidad maxima de controles).
+     * @param fetch          asociaciones a cargar junto a los controles.
      * @return the {@link List} of {@link Control}.
      */
-    List<Control> getControlesVeterinario(final String rutVeterinario);
+    List<Control> getControlesVeterinario(final String rutVeterinario, final Date desde, final Date hasta,
+                                          final int pagina, final int tamanio, final FetchSpec... fetch);
+
+    /**
+     * Obtiene una pagina de los controles cuyo proximo control cae en un rango de fechas (ej: las citas de la
+     * semana), ordenados por fecha del proximo control.
+     *
+     * @param rutVeterinario del que realizo el control, null para los de todos los veterinarios.
+     * @param desde          fecha inicial del rango (incluida).
+     * @param hasta          fecha final del rango (excluida).
+     * @param pagina         a obtener, partiendo desde 0.
+     * @param tamanio        de la pagina (cantidad maxima de controles).
+     * @param fetch          asociaciones a cargar junto a los controles.
+     * @return the {@link List} of {@link Control}.
+     */
+    List<Control> getProximosControles(final String rutVeterinario, final Date desde, final Date hasta,
+                                       final int pagina, final int tamanio, final FetchSpec... fetch);
 
     /**
      * Obtiene todos los {@link Paciente} que poseen un match en su nombre.
      *
      * @param nombre a buscar, ejemplo: "pep" que puede retornar pepe, pepa, pepilla, etc..
+     * @param fetch  asociaciones a cargar junto a los pacientes.
      * @return the {@link List} of {@link Paciente}.
      */
-    List<Paciente> getPacientesPorNombre(final String nombre);
+    List<Paciente> getPacientesPorNombre(final String nombre, final FetchSpec... fetch);
+
+    /**
+     * Obtiene todos los {@link Paciente} que contienen el texto en cualquier parte de su nombre, sin considerar
+     * mayusculas ni tildes.
+     *
+     * @param texto a buscar, ejemplo: "pil" que puede retornar pepilla, Pílaro, etc..
+     * @param fetch asociaciones a cargar junto a los pacientes.
+     * @return the {@link List} of {@link Paciente} ordenado por nombre.
+     */
+    List<Paciente> buscarPacientesPorNombre(final String texto, final FetchSpec... fetch);
+
+    /**
+     * Busqueda de texto completo en el diagnostico y la nota de todos los {@link Control}.
+     *
+     * @param texto  a buscar, ejemplo: "fractura pata" (sin considerar mayusculas, tildes ni plurales).
+     * @param maximo cantidad de controles a retornar.
+     * @param fetch  asociaciones a cargar junto a los controles.
+     * @return the {@link List} of {@link Control} ordenado del mas al menos relevante.
+     */
+    List<Control> buscarControles(final String texto, final int maximo, final FetchSpec... fetch);
+
+    /**
+     * Obtiene los cambios (inserciones, actualizaciones y eliminaciones) de una entidad posteriores a un cursor, en
+     * orden de modificacion, para sincronizar copias externas sin releer la tabla completa.
+     * <p>
+     * Los eliminados se mantienen en el feed durante la retencion del archivo de eliminados de la implementacion, que
+     * es el atraso maximo de un cursor: un cursor anterior al ultimo archivo se rechaza y el cliente debe sincronizar
+     * desde el inicio (null).
+     *
+     * @param tipo     de la entidad: {@link Persona}, {@link Paciente} o {@link Control}.
+     * @param desde    cursor del ultimo cambio recibido, null para partir desde el inicio.
+     * @param cantidad maxima de cambios a retornar.
+     * @param <T>      tipo de la entidad.
+     * @return the {@link PaginaCambios} con los cambios y el cursor siguiente.
+     * @throws IllegalArgumentException si el cursor es anterior al ultimo archivo de eliminados de la entidad.
+     */
+    <T extends BaseModel> PaginaCambios<T> getCambios(final Class<T> tipo, final CursorCambios desde, final int cantidad);
 
     /**
      * Agrega un {@link Control} a un {@link Paciente} identificado por el numeroPaciente.
@@ -59,6 +190,21 @@ public interface BackendService {
      */
     void agregarControl(final Control control, final Integer numeroPaciente);
 
+    /**
+     * Agrega de forma masiva los {@link Control} a sus {@link Paciente}, usando lotes (batch).
+     *
+     * @param controles a agregar, agrupados por numero de ficha del paciente.
+     * @throws RuntimeException en caso de no encontrar alguno de los pacientes.
+     */
+    void agregarControles(final Map<Integer, List<Control>> controles);
+
+    /**
+     * Inserta de forma masiva los {@link Paciente}, usando lotes (batch).
+     *
+     * @param pacientes a insertar.
+     */
+    void insertPacientes(final Collection<Paciente> pacientes);
+
     /**
      * Inicializa el backend.
      */
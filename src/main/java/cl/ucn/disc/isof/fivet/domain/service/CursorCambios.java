@@ -0,0 +1,74 @@
+package cl.ucn.disc.isof.fivet.domain.service;
+
+import com.durrutia.ebean.BaseModel;
+import com.google.common.base.Preconditions;
+import lombok.Value;
+
+/**
+ * Posicion en el feed de cambios de una entidad: la fecha de modificacion y el id del ultimo cambio recibido. El id
+ * desempata los cambios con la misma fecha de modificacion.
+ * <p>
+ * Los clientes lo mantienen como texto ({@link #toString()} / {@link #of(String)}) entre sincronizaciones.
+ */
+@Value
+public class CursorCambios {
+
+    /**
+     * Cursor del inicio del feed (todos los cambios)
+     */
+    public static final CursorCambios INICIO = new CursorCambios(0, 0);
+
+    /**
+     * Separador de la representacion textual
+     */
+    private static final char SEPARADOR = ':';
+
+    /**
+     * Fecha de modificacion (ms desde epoch)
+     */
+    long whenModified;
+
+    /**
+     * Id del modelo
+     */
+    long id;
+
+    /**
+     * @param modelo ultimo cambio recibido.
+     * @return el cursor que sigue al modelo.
+     */
+    public static CursorCambios of(final BaseModel modelo) {
+
+        Preconditions.checkNotNull(modelo, "Modelo null");
+        Preconditions.checkArgument(modelo.getWhenModified() != null && modelo.getId() != null,
+                "Modelo sin persistir: %s", modelo.getClass().getSimpleName());
+        return new CursorCambios(modelo.getWhenModified().getTime(), modelo.getId());
+    }
+
+    /**
+     * @param cursor en texto, ej: "1480000000000:42".
+     * @return el cursor.
+     * @throws IllegalArgumentException si el texto no es un cursor.
+     */
+    public static CursorCambios of(final String cursor) {
+
+        Preconditions.checkNotNull(cursor, "Cursor null");
+        final int separador = cursor.indexOf(SEPARADOR);
+        Preconditions.checkArgument(separador > 0, "Cursor invalido: %s", cursor);
+        try {
+            return new CursorCambios(Long.parseLong(cursor.substring(0, separador)),
+                    Long.parseLong(cursor.substring(separador + 1)));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Cursor invalido: " + cursor, ex);
+        }
+    }
+
+    /**
+     * @return el cursor en texto, legible por {@link #of(String)}.
+     */
+    @Override
+    public String toString() {
+        return this.whenModified + String.valueOf(SEPARADOR) + this.id;
+    }
+
+}
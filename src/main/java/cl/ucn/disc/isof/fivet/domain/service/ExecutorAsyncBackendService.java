@@ -0,0 +1,341 @@
+package cl.ucn.disc.isof.fivet.domain.service;
+
+import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.ControlResumen;
+import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.PacienteResumen;
+import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import com.durrutia.ebean.BaseModel;
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link AsyncBackendService} que ejecuta las operaciones de un {@link BackendService} en un executor acotado: a lo
+ * mas <i>concurrencia</i> operaciones en ejecucion (idealmente el maximo de conexiones del pool) y <i>cola</i> en
+ * espera, el resto se rechaza.
+ */
+@Slf4j
+public final class ExecutorAsyncBackendService implements AsyncBackendService {
+
+    /**
+     * Tiempo maximo de espera de las operaciones pendientes al cerrar
+     */
+    private static final long CIERRE_SEGUNDOS = 30;
+
+    /**
+     * Tiempo (segundos) tras el cual se termina un hilo ocioso del pool
+     */
+    private static final long HILO_OCIOSO_SEGUNDOS = 60;
+
+    /**
+     * Backend sincrono
+     */
+    private final BackendService backendService;
+
+    /**
+     * Executor de las operaciones
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Operaciones en ejecucion (solo cuando el executor no limita sus hilos, ej: virtual threads)
+     */
+    private final Semaphore permisos;
+
+    /**
+     * Maximo de operaciones en ejecucion o en espera (solo junto a los permisos)
+     */
+    private final int maxPendientes;
+
+    /**
+     * Operaciones en ejecucion o en espera
+     */
+    private final AtomicInteger pendientes = new AtomicInteger();
+
+    /**
+     * Backend sobre un pool de hilos de tamanio fijo.
+     *
+     * @param backendService sincrono.
+     * @param concurrencia   hilos del pool (operaciones en paralelo).
+     * @param cola           operaciones en espera de un hilo.
+     */
+    public ExecutorAsyncBackendService(final BackendService backendService, final int concurrencia, final int cola) {
+
+        Preconditions.checkArgument(concurrencia > 0, "Concurrencia invalida: %s", concurrencia);
+        Preconditions.checkArgument(cola >= 0, "Cola invalida: %s", cola);
+
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(concurrencia, concurrencia,
+                HILO_OCIOSO_SEGUNDOS, TimeUnit.SECONDS,
+                cola == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(cola),
+                hilos(), new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+
+        this.backendService = Preconditions.checkNotNull(backendService, "Backend null");
+        this.executor = pool;
+        this.permisos = null;
+        this.maxPendientes = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Backend sobre un executor que crea un hilo por operacion (ej: virtual threads), la concurrencia se limita con
+     * permisos.
+     *
+     * @param backendService sincrono.
+     * @param executor       de las operaciones, se cierra junto a este backend.
+     * @param concurrencia   operaciones en paralelo.
+     * @param cola           operaciones en espera de un permiso.
+     */
+    public ExecutorAsyncBackendService(final BackendService backendService, final ExecutorService executor,
+                                       final int concurrencia, final int cola) {
+
+        Preconditions.checkArgument(concurrencia > 0, "Concurrencia invalida: %s", concurrencia);
+        Preconditions.checkArgument(cola >= 0, "Cola invalida: %s", cola);
+
+        this.backendService = Preconditions.checkNotNull(backendService, "Backend null");
+        this.executor = Preconditions.checkNotNull(executor, "Executor null");
+        this.permisos = new Semaphore(concurrencia);
+        this.maxPendientes = concurrencia + cola;
+    }
+
+    /**
+     * Backend sobre virtual threads si la JVM los soporta (JDK 21+), si no sobre un pool de hilos.
+     *
+     * @param backendService sincrono.
+     * @param concurrencia   operaciones en paralelo.
+     * @param cola           operaciones en espera.
+     * @return el backend asincrono.
+     */
+    public static ExecutorAsyncBackendService of(final BackendService backendService, final int concurrencia, final int cola) {
+
+        final Optional<ExecutorService> virtualThreads = virtualThreads();
+        if (virtualThreads.isPresent()) {
+            log.debug("Using virtual threads, concurrency: {}.", concurrencia);
+            return new ExecutorAsyncBackendService(backendService, virtualThreads.get(), concurrencia, cola);
+        }
+
+        log.debug("Using a thread pool, concurrency: {}.", concurrencia);
+        return new ExecutorAsyncBackendService(backendService, concurrencia, cola);
+    }
+
+    /**
+     * @return un executor de virtual threads, si la JVM los soporta.
+     */
+    static Optional<ExecutorService> virtualThreads() {
+        try {
+            return Optional.of((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+        } catch (ReflectiveOperationException ex) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return la cantidad de operaciones en ejecucion o en espera.
+     */
+    public int getPendientes() {
+        return this.pendientes.get();
+    }
+
+    @Override
+    public CompletableFuture<Persona> getPersona(final String rutEmail, final FetchSpec... fetch) {
+        return ejecutar(() -> this.backendService.getPersona(rutEmail, fetch));
+    }
+
+    @Override
+    public CompletableFuture<List<Paciente>> getPacientes(final FetchSpec... fetch) {
+        return ejecutar(() -> this.backendService.getPacientes(fetch));
+    }
+
+    @Override
+    public CompletableFuture<List<Paciente>> getPacientes(final int pagina, final int tamanio, final FetchSpec... fetch) {
+        return ejecutar(() -> this.backendService.getPacientes(pagina, tamanio, fetch));
+    }
+
+    @Override
+    public CompletableFuture<List<Paciente>> getPacientesDesde(final Integer numeroDesde, final int cantidad, final FetchSpec... fetch) {
+        return ejecutar(() -> this.backendService.getPacientesDesde(numeroDesde, cantidad, fetch));
+    }
+
+    @Override
+    public CompletableFuture<List<PacienteResumen>> getPacientesResumen(final int pagina, final int tamanio) {
+        return ejecutar(() -> this.backendService.getPacientesResumen(pagina, tamanio));
+    }
+
+    @Override
+    public CompletableFuture<List<ControlResumen>> getControlesResumen(final Integer numeroPaciente) {
+        return ejecutar(() -> this.backendService.getControlesResumen(numeroPaciente));
+    }
+
+    @Override
+    public CompletableFuture<Void> forEachPaciente(final Consumer<Paciente> consumer) {
+        return ejecutar(() -> this.backendService.forEachPaciente(consumer));
+    }
+
+    @Override
+    public CompletableFuture<Void> forEachControl(final Consumer<Control> consumer) {
+        return ejecutar(() -> this.backendService.forEachControl(consumer));
+    }
+
+    @Override
+    public CompletableFuture<Paciente> getPaciente(final Integer numeroPaciente, final FetchSpec... fetch) {
+        return ejecutar(() -> this.backendService.getPaciente(numeroPaciente, fetch));
+    }
+
+    @Override
+    public CompletableFuture<List<Control>> getControlesVeterinario(final String rutVeterinario, final FetchSpec... fetch) {
+        return ejecutar(() -> this.backendService.getControlesVeterinario(rutVeterinario, fetch));
+    }
+
+    @Override
+    public CompletableFuture<List<Control>> getControlesVeterinario(final String rutVeterinario, final Date desde,
+                                                                    final Date hasta, final int pagina,
+                                                                    final int tamanio, final FetchSpec... fetch) {
+        return ejecutar(() -> this.backendService.getControlesVeterinario(rutVeterinario, desde, hasta, pagina, tamanio, fetch));
+    }
+
+    @Override
+    public CompletableFuture<List<Control>> getProximosControles(final String rutVeterinario, final Date desde,
+                                                                 final Date hasta, final int pagina,
+                                                                 final int tamanio, final FetchSpec... fetch) {
+        return ejecutar(() -> this.backendService.getProximosControles(rutVeterinario, desde, hasta, pagina, tamanio, fetch));
+    }
+
+    @Override
+    public CompletableFuture<List<Paciente>> getPacientesPorNombre(final String nombre, final FetchSpec... fetch) {
+        return ejecutar(() -> this.backendService.getPacientesPorNombre(nombre, fetch));
+    }
+
+    @Override
+    public CompletableFuture<List<Paciente>> buscarPacientesPorNombre(final String texto, final FetchSpec... fetch) {
+        return ejecutar(() -> this.backendService.buscarPacientesPorNombre(texto, fetch));
+    }
+
+    @Override
+    public CompletableFuture<List<Control>> buscarControles(final String texto, final int maximo, final FetchSpec... fetch) {
+        return ejecutar(() -> this.backendService.buscarControles(texto, maximo, fetch));
+    }
+
+    @Override
+    public <T extends BaseModel> CompletableFuture<PaginaCambios<T>> getCambios(final Class<T> tipo,
+                                                                               final CursorCambios desde,
+                                                                               final int cantidad) {
+        return ejecutar(() -> this.backendService.getCambios(tipo, desde, cantidad));
+    }
+
+    @Override
+    public CompletableFuture<Void> agregarControl(final Control control, final Integer numeroPaciente) {
+        return ejecutar(() -> this.backendService.agregarControl(control, numeroPaciente));
+    }
+
+    @Override
+    public CompletableFuture<Void> agregarControles(final Map<Integer, List<Control>> controles) {
+        return ejecutar(() -> this.backendService.agregarControles(controles));
+    }
+
+    @Override
+    public CompletableFuture<Void> insertPacientes(final Collection<Paciente> pacientes) {
+        return ejecutar(() -> this.backendService.insertPacientes(pacientes));
+    }
+
+    @Override
+    public void close() {
+
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(CIERRE_SEGUNDOS, TimeUnit.SECONDS)) {
+                log.warn("Async backend closed with {} pending operations.", this.pendientes.get());
+                this.executor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            this.executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ejecuta una operacion sin resultado.
+     */
+    private CompletableFuture<Void> ejecutar(final Runnable operacion) {
+        return ejecutar(() -> {
+            operacion.run();
+            return null;
+        });
+    }
+
+    /**
+     * Ejecuta la operacion en el executor.
+     *
+     * @return el future con el resultado, o con la excepcion de la operacion o del rechazo.
+     */
+    private <T> CompletableFuture<T> ejecutar(final Supplier<T> operacion) {
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        if (this.pendientes.incrementAndGet() > this.maxPendientes) {
+            this.pendientes.decrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException("Backend saturado: " + this.maxPendientes + " operaciones pendientes"));
+            return future;
+        }
+
+        try {
+            this.executor.execute(() -> {
+                try {
+                    if (this.permisos != null) {
+                        this.permisos.acquire();
+                    }
+                    try {
+                        future.complete(operacion.get());
+                    } finally {
+                        if (this.permisos != null) {
+                            this.permisos.release();
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    future.completeExceptionally(ex);
+                } catch (Throwable ex) {
+                    future.completeExceptionally(ex);
+                } finally {
+                    this.pendientes.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            this.pendientes.decrementAndGet();
+            future.completeExceptionally(ex);
+        }
+
+        return future;
+    }
+
+    /**
+     * @return la fabrica de hilos del pool (daemon, con nombre).
+     */
+    private static ThreadFactory hilos() {
+
+        final AtomicInteger contador = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, "backend-async-" + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
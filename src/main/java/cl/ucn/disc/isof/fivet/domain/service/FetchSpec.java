@@ -0,0 +1,90 @@
+package cl.ucn.disc.isof.fivet.domain.service;
+
+import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import com.avaje.ebean.FetchConfig;
+import com.avaje.ebean.Query;
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Asociaciones que se pueden solicitar cargar junto al resultado de una consulta del {@link BackendService},
+ * evitando la carga perezosa (una consulta por fila) al recorrer el resultado.
+ */
+public enum FetchSpec {
+
+    /**
+     * {@link Control#getVeterinario()}
+     */
+    VETERINARIO(Control.class, "veterinario", false),
+
+    /**
+     * {@link Persona#getPacientes()}
+     */
+    PACIENTES(Persona.class, "pacientes", true),
+
+    /**
+     * {@link Paciente#getControles()}
+     */
+    CONTROLES(Paciente.class, "Controles", true),
+
+    /**
+     * {@link Paciente#getControles()} junto al {@link Control#getVeterinario()} de cada control.
+     */
+    CONTROLES_VETERINARIO(Paciente.class, "Controles.veterinario", true);
+
+    /**
+     * Tipo de la entidad raiz de la consulta
+     */
+    @Getter
+    private final Class<?> tipo;
+
+    /**
+     * Ruta de la asociacion a cargar
+     */
+    @Getter
+    private final String path;
+
+    /**
+     * true si la asociacion es (o esta dentro de) una coleccion (ToMany)
+     */
+    @Getter
+    private final boolean coleccion;
+
+    FetchSpec(final Class<?> tipo, final String path, final boolean coleccion) {
+        this.tipo = tipo;
+        this.path = path;
+        this.coleccion = coleccion;
+    }
+
+    /**
+     * Agrega a la consulta las asociaciones solicitadas: las asociaciones simples (ToOne) se cargan en el mismo join
+     * y las colecciones (ToMany) en una segunda consulta, evitando el producto cartesiano.
+     * @param query consulta de la entidad
+     * @param clazz tipo de la entidad
+     * @param fetch asociaciones a cargar
+     * @return la consulta
+     */
+    public static <T> Query<T> aplicar(final Query<T> query, final Class<T> clazz, final FetchSpec... fetch) {
+
+        for (final FetchSpec spec : fetch) {
+
+            Preconditions.checkArgument(spec.getTipo().equals(clazz),
+                    "FetchSpec %s no aplica a %s", spec, clazz.getSimpleName());
+
+            if (spec.isColeccion()) {
+                final String coleccion = StringUtils.substringBefore(spec.getPath(), ".");
+                query.fetch(coleccion, new FetchConfig().query());
+                if (coleccion.equals(spec.getPath())) {
+                    continue;
+                }
+            }
+            query.fetch(spec.getPath());
+        }
+
+        return query;
+    }
+
+}
@@ -0,0 +1,384 @@
+package cl.ucn.disc.isof.fivet.domain.service;
+
+import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.ControlResumen;
+import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.PacienteResumen;
+import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import cl.ucn.disc.isof.fivet.domain.service.metricas.MetricaOperacion;
+import cl.ucn.disc.isof.fivet.domain.service.metricas.RegistroMetricas;
+import com.durrutia.ebean.BaseModel;
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * {@link BackendService} que registra, por operacion, las llamadas, errores, filas retornadas (o escritas) y el
+ * histograma de latencias en un {@link RegistroMetricas}. El registro no usa locks ni crea objetos por llamada
+ * (salvo en los recorridos, que cuentan las filas entregadas al consumer).
+ */
+public final class InstrumentedBackendService implements BackendService {
+
+    /**
+     * Backend
+     */
+    private final BackendService backendService;
+
+    /**
+     * Metricas de las operaciones
+     */
+    @Getter
+    private final RegistroMetricas registro;
+
+    /**
+     * Metricas de cada operacion, con el nombre del metodo (getPacientesPagina: getPacientes paginado,
+     * getControlesVeterinarioRango: getControlesVeterinario por rango de fechas)
+     */
+    private final MetricaOperacion getPersona;
+
+    private final MetricaOperacion getPacientes;
+
+    private final MetricaOperacion getPacientesPagina;
+
+    private final MetricaOperacion getPacientesDesde;
+
+    private final MetricaOperacion getPacientesResumen;
+
+    private final MetricaOperacion getControlesResumen;
+
+    private final MetricaOperacion getPaciente;
+
+    private final MetricaOperacion getControlesVeterinario;
+
+    private final MetricaOperacion getControlesVeterinarioRango;
+
+    private final MetricaOperacion getProximosControles;
+
+    private final MetricaOperacion getPacientesPorNombre;
+
+    private final MetricaOperacion buscarPacientesPorNombre;
+
+    private final MetricaOperacion buscarControles;
+
+    private final MetricaOperacion getCambios;
+
+    private final MetricaOperacion forEachPaciente;
+
+    private final MetricaOperacion forEachControl;
+
+    private final MetricaOperacion agregarControl;
+
+    private final MetricaOperacion agregarControles;
+
+    private final MetricaOperacion insertPacientes;
+
+    /**
+     * @param backendService a instrumentar.
+     */
+    public InstrumentedBackendService(final BackendService backendService) {
+        this(backendService, new RegistroMetricas());
+    }
+
+    /**
+     * @param backendService a instrumentar.
+     * @param registro       de las metricas.
+     */
+    public InstrumentedBackendService(final BackendService backendService, final RegistroMetricas registro) {
+
+        this.backendService = Preconditions.checkNotNull(backendService, "Backend null");
+        this.registro = Preconditions.checkNotNull(registro, "Registro null");
+
+        this.getPersona = registro.get("getPersona");
+        this.getPacientes = registro.get("getPacientes");
+        this.getPacientesPagina = registro.get("getPacientesPagina");
+        this.getPacientesDesde = registro.get("getPacientesDesde");
+        this.getPacientesResumen = registro.get("getPacientesResumen");
+        this.getControlesResumen = registro.get("getControlesResumen");
+        this.getPaciente = registro.get("getPaciente");
+        this.getControlesVeterinario = registro.get("getControlesVeterinario");
+        this.getControlesVeterinarioRango = registro.get("getControlesVeterinarioRango");
+        this.getProximosControles = registro.get("getProximosControles");
+        this.getPacientesPorNombre = registro.get("getPacientesPorNombre");
+        this.buscarPacientesPorNombre = registro.get("buscarPacientesPorNombre");
+        this.buscarControles = registro.get("buscarControles");
+        this.getCambios = registro.get("getCambios");
+        this.forEachPaciente = registro.get("forEachPaciente");
+        this.forEachControl = registro.get("forEachControl");
+        this.agregarControl = registro.get("agregarControl");
+        this.agregarControles = registro.get("agregarControles");
+        this.insertPacientes = registro.get("insertPacientes");
+    }
+
+    @Override
+    public Persona getPersona(final String rutEmail, final FetchSpec... fetch) {
+        final long inicio = System.nanoTime();
+        try {
+            final Persona resultado = this.backendService.getPersona(rutEmail, fetch);
+            this.getPersona.registrar(inicio, resultado == null ? 0 : 1);
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.getPersona.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Paciente> getPacientes(final FetchSpec... fetch) {
+        final long inicio = System.nanoTime();
+        try {
+            final List<Paciente> resultado = this.backendService.getPacientes(fetch);
+            this.getPacientes.registrar(inicio, resultado.size());
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.getPacientes.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Paciente> getPacientes(final int pagina, final int tamanio, final FetchSpec... fetch) {
+        final long inicio = System.nanoTime();
+        try {
+            final List<Paciente> resultado = this.backendService.getPacientes(pagina, tamanio, fetch);
+            this.getPacientesPagina.registrar(inicio, resultado.size());
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.getPacientesPagina.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Paciente> getPacientesDesde(final Integer numeroDesde, final int cantidad, final FetchSpec... fetch) {
+        final long inicio = System.nanoTime();
+        try {
+            final List<Paciente> resultado = this.backendService.getPacientesDesde(numeroDesde, cantidad, fetch);
+            this.getPacientesDesde.registrar(inicio, resultado.size());
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.getPacientesDesde.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<PacienteResumen> getPacientesResumen(final int pagina, final int tamanio) {
+        final long inicio = System.nanoTime();
+        try {
+            final List<PacienteResumen> resultado = this.backendService.getPacientesResumen(pagina, tamanio);
+            this.getPacientesResumen.registrar(inicio, resultado.size());
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.getPacientesResumen.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<ControlResumen> getControlesResumen(final Integer numeroPaciente) {
+        final long inicio = System.nanoTime();
+        try {
+            final List<ControlResumen> resultado = this.backendService.getControlesResumen(numeroPaciente);
+            this.getControlesResumen.registrar(inicio, resultado.size());
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.getControlesResumen.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Paciente getPaciente(final Integer numeroPaciente, final FetchSpec... fetch) {
+        final long inicio = System.nanoTime();
+        try {
+            final Paciente resultado = this.backendService.getPaciente(numeroPaciente, fetch);
+            this.getPaciente.registrar(inicio, resultado == null ? 0 : 1);
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.getPaciente.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Control> getControlesVeterinario(final String rutVeterinario, final FetchSpec... fetch) {
+        final long inicio = System.nanoTime();
+        try {
+            final List<Control> resultado = this.backendService.getControlesVeterinario(rutVeterinario, fetch);
+            this.getControlesVeterinario.registrar(inicio, resultado.size());
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.getControlesVeterinario.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Control> getControlesVeterinario(final String rutVeterinario, final Date desde, final Date hasta,
+                                                 final int pagina, final int tamanio, final FetchSpec... fetch) {
+        final long inicio = System.nanoTime();
+        try {
+            final List<Control> resultado = this.backendService.getControlesVeterinario(rutVeterinario, desde, hasta,
+                    pagina, tamanio, fetch);
+            this.getControlesVeterinarioRango.registrar(inicio, resultado.size());
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.getControlesVeterinarioRango.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Control> getProximosControles(final String rutVeterinario, final Date desde, final Date hasta,
+                                              final int pagina, final int tamanio, final FetchSpec... fetch) {
+        final long inicio = System.nanoTime();
+        try {
+            final List<Control> resultado = this.backendService.getProximosControles(rutVeterinario, desde, hasta,
+                    pagina, tamanio, fetch);
+            this.getProximosControles.registrar(inicio, resultado.size());
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.getProximosControles.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Paciente> getPacientesPorNombre(final String nombre, final FetchSpec... fetch) {
+        final long inicio = System.nanoTime();
+        try {
+            final List<Paciente> resultado = this.backendService.getPacientesPorNombre(nombre, fetch);
+            this.getPacientesPorNombre.registrar(inicio, resultado.size());
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.getPacientesPorNombre.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Paciente> buscarPacientesPorNombre(final String texto, final FetchSpec... fetch) {
+        final long inicio = System.nanoTime();
+        try {
+            final List<Paciente> resultado = this.backendService.buscarPacientesPorNombre(texto, fetch);
+            this.buscarPacientesPorNombre.registrar(inicio, resultado.size());
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.buscarPacientesPorNombre.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Control> buscarControles(final String texto, final int maximo, final FetchSpec... fetch) {
+        final long inicio = System.nanoTime();
+        try {
+            final List<Control> resultado = this.backendService.buscarControles(texto, maximo, fetch);
+            this.buscarControles.registrar(inicio, resultado.size());
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.buscarControles.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public <T extends BaseModel> PaginaCambios<T> getCambios(final Class<T> tipo, final CursorCambios desde,
+                                                             final int cantidad) {
+        final long inicio = System.nanoTime();
+        try {
+            final PaginaCambios<T> resultado = this.backendService.getCambios(tipo, desde, cantidad);
+            this.getCambios.registrar(inicio, resultado.getCambios().size());
+            return resultado;
+        } catch (RuntimeException | Error ex) {
+            this.getCambios.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void forEachPaciente(final Consumer<Paciente> consumer) {
+        Preconditions.checkNotNull(consumer, "Consumer null");
+        final long[] filas = new long[1];
+        final long inicio = System.nanoTime();
+        try {
+            this.backendService.forEachPaciente(bean -> {
+                filas[0]++;
+                consumer.accept(bean);
+            });
+            this.forEachPaciente.registrar(inicio, filas[0]);
+        } catch (RuntimeException | Error ex) {
+            this.forEachPaciente.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void forEachControl(final Consumer<Control> consumer) {
+        Preconditions.checkNotNull(consumer, "Consumer null");
+        final long[] filas = new long[1];
+        final long inicio = System.nanoTime();
+        try {
+            this.backendService.forEachControl(bean -> {
+                filas[0]++;
+                consumer.accept(bean);
+            });
+            this.forEachControl.registrar(inicio, filas[0]);
+        } catch (RuntimeException | Error ex) {
+            this.forEachControl.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void agregarControl(final Control control, final Integer numeroPaciente) {
+        final long inicio = System.nanoTime();
+        try {
+            this.backendService.agregarControl(control, numeroPaciente);
+            this.agregarControl.registrar(inicio, 1);
+        } catch (RuntimeException | Error ex) {
+            this.agregarControl.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void agregarControles(final Map<Integer, List<Control>> controles) {
+        final long inicio = System.nanoTime();
+        try {
+            this.backendService.agregarControles(controles);
+            this.agregarControles.registrar(inicio, controles.values().stream().mapToLong(List::size).sum());
+        } catch (RuntimeException | Error ex) {
+            this.agregarControles.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void insertPacientes(final Collection<Paciente> pacientes) {
+        final long inicio = System.nanoTime();
+        try {
+            this.backendService.insertPacientes(pacientes);
+            this.insertPacientes.registrar(inicio, pacientes.size());
+        } catch (RuntimeException | Error ex) {
+            this.insertPacientes.registrarError(inicio);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void initialize() {
+        this.backendService.initialize();
+    }
+
+    @Override
+    public void shutdown() {
+        this.backendService.shutdown();
+    }
+
+}
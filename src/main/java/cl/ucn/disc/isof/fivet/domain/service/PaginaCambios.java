@@ -0,0 +1,53 @@
+package cl.ucn.disc.isof.fivet.domain.service;
+
+import com.durrutia.ebean.BaseModel;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Pagina del feed de cambios de una entidad: los modelos insertados, actualizados o eliminados (soft delete) despues
+ * del cursor, en orden de modificacion.
+ *
+ * @param <T> tipo de la entidad.
+ */
+@Value
+public class PaginaCambios<T extends BaseModel> {
+
+    /**
+     * Tipo de cambio de un modelo
+     */
+    public enum Tipo {
+        INSERTADO,
+        ACTUALIZADO,
+        ELIMINADO,
+    }
+
+    /**
+     * Modelos modificados, en orden de modificacion (y de id)
+     */
+    List<T> cambios;
+
+    /**
+     * Cursor de la siguiente pagina (el mismo de la consulta si no hubo cambios)
+     */
+    CursorCambios siguiente;
+
+    /**
+     * true si quedan cambios despues de esta pagina
+     */
+    boolean pendientes;
+
+    /**
+     * @param modelo del feed.
+     * @return el tipo del ultimo cambio del modelo, segun su version (ebean inserta con la version 1).
+     */
+    public static Tipo tipo(final BaseModel modelo) {
+
+        if (modelo.isDeleted()) {
+            return Tipo.ELIMINADO;
+        }
+        return modelo.getVersion() != null && modelo.getVersion() == 1 ? Tipo.INSERTADO : Tipo.ACTUALIZADO;
+    }
+
+}
@@ -0,0 +1,104 @@
+package cl.ucn.disc.isof.fivet.domain.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Agrupa las llamadas concurrentes con la misma clave: la primera ejecuta la operacion y las que llegan mientras
+ * esta en curso esperan y reciben su mismo resultado (o excepcion). Nada se guarda una vez terminada la operacion,
+ * por lo que las claves en curso estan acotadas por la cantidad de hilos que llaman.
+ *
+ * Thread-safe.
+ *
+ * @param <K> clave de la operacion.
+ * @param <V> resultado de la operacion.
+ */
+final class SingleFlight<K, V> {
+
+    /**
+     * Operaciones en curso
+     */
+    private final ConcurrentMap<K, CompletableFuture<V>> enCurso = new ConcurrentHashMap<>();
+
+    /**
+     * Llamadas recibidas
+     */
+    private final LongAdder llamadas = new LongAdder();
+
+    /**
+     * Llamadas que esperaron una operacion en curso (sin ejecutar la suya)
+     */
+    private final LongAdder agrupadas = new LongAdder();
+
+    /**
+     * @param clave     de la operacion.
+     * @param operacion a ejecutar si no hay otra en curso con la misma clave.
+     * @return el resultado de la operacion.
+     */
+    V ejecutar(final K clave, final Supplier<V> operacion) {
+
+        this.llamadas.increment();
+
+        final CompletableFuture<V> propia = new CompletableFuture<>();
+        final CompletableFuture<V> existente = this.enCurso.putIfAbsent(clave, propia);
+        if (existente != null) {
+            this.agrupadas.increment();
+            return esperar(existente);
+        }
+
+        try {
+            final V valor = operacion.get();
+            propia.complete(valor);
+            return valor;
+        } catch (RuntimeException | Error ex) {
+            propia.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            this.enCurso.remove(clave, propia);
+        }
+    }
+
+    /**
+     * @return el resultado de la operacion en curso, relanzando su excepcion.
+     */
+    private static <V> V esperar(final CompletableFuture<V> future) {
+
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * @return la cantidad de llamadas recibidas.
+     */
+    long getLlamadas() {
+        return this.llamadas.sum();
+    }
+
+    /**
+     * @return la cantidad de llamadas que reutilizaron una operacion en curso.
+     */
+    long getAgrupadas() {
+        return this.agrupadas.sum();
+    }
+
+    /**
+     * @return la cantidad de operaciones en curso.
+     */
+    int getEnCurso() {
+        return this.enCurso.size();
+    }
+
+}
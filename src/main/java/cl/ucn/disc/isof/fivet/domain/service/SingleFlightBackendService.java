@@ -0,0 +1,285 @@
+package cl.ucn.disc.isof.fivet.domain.service;
+
+import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.ControlResumen;
+import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.PacienteResumen;
+import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import com.avaje.ebean.Ebean;
+import com.durrutia.ebean.BaseModel;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * {@link BackendService} que agrupa las lecturas concurrentes identicas (misma clave y mismas asociaciones) de
+ * personas, pacientes y controles por veterinario: mientras una consulta esta en curso, las llamadas iguales esperan
+ * los ids que esta encuentra en vez de buscar por la clave en la base de datos. Cada llamada agrupada carga luego sus
+ * propios beans por id (cache de beans de la entidad), por lo que ninguna comparte instancias con otra. Las lecturas
+ * dentro de una transaccion ({@link Ebean#currentTransaction()}) no se agrupan. El resto de las operaciones se
+ * delegan sin cambios.
+ * <p>
+ * Las llamadas agrupadas cargan sus beans del servidor ebean por defecto, que debe ser el del backend decorado.
+ * <p>
+ * WARN: no garantiza leer lo propio escrito: una llamada que llega justo despues de su commit puede unirse a una
+ * consulta iniciada antes de este y recibir los ids anteriores. Las lecturas que deben ver una escritura recien
+ * hecha deben hacerse directamente sobre el backend.
+ */
+public final class SingleFlightBackendService implements BackendService {
+
+    /**
+     * Backend
+     */
+    private final BackendService backendService;
+
+    /**
+     * Lecturas de personas por rut o email (id de la persona)
+     */
+    private final SingleFlight<List<Object>, List<Long>> personas = new SingleFlight<>();
+
+    /**
+     * Lecturas de pacientes por numero (id del paciente)
+     */
+    private final SingleFlight<List<Object>, List<Long>> pacientes = new SingleFlight<>();
+
+    /**
+     * Lecturas de controles por rut del veterinario (ids de los controles, en orden)
+     */
+    private final SingleFlight<List<Object>, List<Long>> controlesVeterinario = new SingleFlight<>();
+
+    /**
+     * @param backendService a decorar.
+     */
+    public SingleFlightBackendService(final BackendService backendService) {
+        this.backendService = Preconditions.checkNotNull(backendService, "Backend null");
+    }
+
+    /**
+     * @return la clave de una lectura: el valor buscado y las asociaciones a cargar.
+     */
+    private static List<Object> clave(final Object valor, final FetchSpec... fetch) {
+
+        final Object[] clave = new Object[fetch.length + 1];
+        clave[0] = valor;
+        System.arraycopy(fetch, 0, clave, 1, fetch.length);
+        return Arrays.asList(clave);
+    }
+
+    /**
+     * Ejecuta una lectura agrupada: la llamada que ejecuta la lectura recibe sus beans y las agrupadas cargan los
+     * suyos por los ids encontrados, en el mismo orden.
+     * @param lecturas lecturas en curso del tipo.
+     * @param clave    de la lectura.
+     * @param clazz    tipo de la entidad.
+     * @param lectura  a ejecutar sobre el backend.
+     * @param fetch    asociaciones a cargar.
+     * @return los beans de la llamada.
+     */
+    private static <T extends BaseModel> List<T> leer(final SingleFlight<List<Object>, List<Long>> lecturas,
+                                                      final List<Object> clave, final Class<T> clazz,
+                                                      final Supplier<List<T>> lectura, final FetchSpec... fetch) {
+
+        final List<List<T>> propios = new ArrayList<>(1);
+        final List<Long> ids = lecturas.ejecutar(clave, () -> {
+            final List<T> beans = lectura.get();
+            propios.add(beans);
+            return beans.stream().map(BaseModel::getId).collect(Collectors.toList());
+        });
+        if (!propios.isEmpty()) {
+            return propios.get(0);
+        }
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Orden de la lectura (los eliminados despues de esta no vuelven)
+        final Map<?, T> beans = FetchSpec.aplicar(Ebean.find(clazz), clazz, fetch).where().idIn(ids).findMap();
+        final List<T> resultado = new ArrayList<>(ids.size());
+        for (final Long id : ids) {
+            final T bean = beans.get(id);
+            if (bean != null) {
+                resultado.add(bean);
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * @return el unico bean de la lista o null si esta vacia.
+     */
+    private static <T> T unico(final List<T> beans) {
+        return beans.isEmpty() ? null : beans.get(0);
+    }
+
+    /**
+     * @return la lista con el bean, vacia si es null.
+     */
+    private static <T> List<T> lista(final T bean) {
+        final List<T> beans = new ArrayList<>(1);
+        if (bean != null) {
+            beans.add(bean);
+        }
+        return beans;
+    }
+
+    @Override
+    public Persona getPersona(final String rutEmail, final FetchSpec... fetch) {
+        Preconditions.checkNotNull(rutEmail, "Rut o email null");
+        if (Ebean.currentTransaction() != null) {
+            return this.backendService.getPersona(rutEmail, fetch);
+        }
+        return unico(leer(this.personas, clave(rutEmail, fetch), Persona.class,
+                () -> lista(this.backendService.getPersona(rutEmail, fetch)), fetch));
+    }
+
+    @Override
+    public Paciente getPaciente(final Integer numeroPaciente, final FetchSpec... fetch) {
+        Preconditions.checkNotNull(numeroPaciente, "Numero de paciente null");
+        if (Ebean.currentTransaction() != null) {
+            return this.backendService.getPaciente(numeroPaciente, fetch);
+        }
+        return unico(leer(this.pacientes, clave(numeroPaciente, fetch), Paciente.class,
+                () -> lista(this.backendService.getPaciente(numeroPaciente, fetch)), fetch));
+    }
+
+    @Override
+    public List<Control> getControlesVeterinario(final String rutVeterinario, final FetchSpec... fetch) {
+        Preconditions.checkNotNull(rutVeterinario, "Rut veterinario null");
+        if (Ebean.currentTransaction() != null) {
+            return this.backendService.getControlesVeterinario(rutVeterinario, fetch);
+        }
+        return leer(this.controlesVeterinario, clave(rutVeterinario, fetch), Control.class,
+                () -> this.backendService.getControlesVeterinario(rutVeterinario, fetch), fetch);
+    }
+
+    /**
+     * @return la cantidad de lecturas recibidas (de las operaciones agrupables).
+     */
+    public long getLlamadas() {
+        return this.personas.getLlamadas() + this.pacientes.getLlamadas() + this.controlesVeterinario.getLlamadas();
+    }
+
+    /**
+     * @return la cantidad de lecturas que reutilizaron una consulta en curso.
+     */
+    public long getLlamadasAgrupadas() {
+        return this.personas.getAgrupadas() + this.pacientes.getAgrupadas() + this.controlesVeterinario.getAgrupadas();
+    }
+
+    /**
+     * @return la fraccion (0 a 1) de lecturas que no buscaron por la clave en la base de datos.
+     */
+    public double getTasaAgrupamiento() {
+        final long llamadas = getLlamadas();
+        return llamadas == 0 ? 0 : (double) getLlamadasAgrupadas() / llamadas;
+    }
+
+    /**
+     * @return la cantidad de consultas en curso.
+     */
+    public int getConsultasEnCurso() {
+        return this.personas.getEnCurso() + this.pacientes.getEnCurso() + this.controlesVeterinario.getEnCurso();
+    }
+
+    @Override
+    public List<Paciente> getPacientes(final FetchSpec... fetch) {
+        return this.backendService.getPacientes(fetch);
+    }
+
+    @Override
+    public List<Paciente> getPacientes(final int pagina, final int tamanio, final FetchSpec... fetch) {
+        return this.backendService.getPacientes(pagina, tamanio, fetch);
+    }
+
+    @Override
+    public List<Paciente> getPacientesDesde(final Integer numeroDesde, final int cantidad, final FetchSpec... fetch) {
+        return this.backendService.getPacientesDesde(numeroDesde, cantidad, fetch);
+    }
+
+    @Override
+    public List<PacienteResumen> getPacientesResumen(final int pagina, final int tamanio) {
+        return this.backendService.getPacientesResumen(pagina, tamanio);
+    }
+
+    @Override
+    public List<ControlResumen> getControlesResumen(final Integer numeroPaciente) {
+        return this.backendService.getControlesResumen(numeroPaciente);
+    }
+
+    @Override
+    public void forEachPaciente(final Consumer<Paciente> consumer) {
+        this.backendService.forEachPaciente(consumer);
+    }
+
+    @Override
+    public void forEachControl(final Consumer<Control> consumer) {
+        this.backendService.forEachControl(consumer);
+    }
+
+    @Override
+    public List<Paciente> getPacientesPorNombre(final String nombre, final FetchSpec... fetch) {
+        return this.backendService.getPacientesPorNombre(nombre, fetch);
+    }
+
+    @Override
+    public List<Paciente> buscarPacientesPorNombre(final String texto, final FetchSpec... fetch) {
+        return this.backendService.buscarPacientesPorNombre(texto, fetch);
+    }
+
+    @Override
+    public List<Control> getControlesVeterinario(final String rutVeterinario, final Date desde, final Date hasta,
+                                                 final int pagina, final int tamanio, final FetchSpec... fetch) {
+        return this.backendService.getControlesVeterinario(rutVeterinario, desde, hasta, pagina, tamanio, fetch);
+    }
+
+    @Override
+    public List<Control> getProximosControles(final String rutVeterinario, final Date desde, final Date hasta,
+                                              final int pagina, final int tamanio, final FetchSpec... fetch) {
+        return this.backendService.getProximosControles(rutVeterinario, desde, hasta, pagina, tamanio, fetch);
+    }
+
+    @Override
+    public List<Control> buscarControles(final String texto, final int maximo, final FetchSpec... fetch) {
+        return this.backendService.buscarControles(texto, maximo, fetch);
+    }
+
+    @Override
+    public <T extends BaseModel> PaginaCambios<T> getCambios(final Class<T> tipo, final CursorCambios desde,
+                                                             final int cantidad) {
+        return this.backendService.getCambios(tipo, desde, cantidad);
+    }
+
+    @Override
+    public void agregarControl(final Control control, final Integer numeroPaciente) {
+        this.backendService.agregarControl(control, numeroPaciente);
+    }
+
+    @Override
+    public void agregarControles(final Map<Integer, List<Control>> controles) {
+        this.backendService.agregarControles(controles);
+    }
+
+    @Override
+    public void insertPacientes(final Collection<Paciente> pacientes) {
+        this.backendService.insertPacientes(pacientes);
+    }
+
+    @Override
+    public void initialize() {
+        this.backendService.initialize();
+    }
+
+    @Override
+    public void shutdown() {
+        this.backendService.shutdown();
+    }
+
+}
@@ -0,0 +1,73 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.avaje.ebean.Transaction;
+import com.avaje.ebean.TransactionCallbackAdapter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Acciones a ejecutar despues del commit de una transaccion, en el orden en que se registraron. Si la transaccion se
+ * revierte o su commit falla las acciones se descartan.
+ * <p>
+ * Los controladores de persistencia (postInsert, postUpdate, ..) se ejecutan antes del commit: los cambios a las
+ * estructuras en memoria (ej: los indices de busqueda) se registran aqui para que una transaccion revertida no los
+ * deje aplicados. Se ejecutan en el hilo que hace el commit, antes de que este retorne.
+ * <p>
+ * Ebean (8.1) llama a postCommit incluso cuando el commit falla (al ejecutar el lote pendiente o en la base de
+ * datos): antes de aplicar las acciones se verifica el commit en la conexion de la transaccion
+ * ({@link DataSourceCommits#isConfirmado(java.sql.Connection)}). Con una conexion que no es del backend el resultado
+ * es desconocido y las acciones se aplican.
+ */
+@Slf4j
+final class AccionesPostCommit extends TransactionCallbackAdapter {
+
+    /**
+     * Clave de las acciones en la transaccion
+     */
+    private static final String CLAVE = AccionesPostCommit.class.getName();
+
+    /**
+     * Transaccion de las acciones
+     */
+    private final Transaction transaction;
+
+    /**
+     * Acciones pendientes
+     */
+    private final List<Runnable> acciones = new ArrayList<>();
+
+    private AccionesPostCommit(final Transaction transaction) {
+        // Una por transaccion, ver registrar
+        this.transaction = transaction;
+    }
+
+    /**
+     * Registra una accion a ejecutar despues del commit de la transaccion.
+     *
+     * @param transaction en curso.
+     * @param accion      a ejecutar.
+     */
+    static void registrar(final Transaction transaction, final Runnable accion) {
+
+        AccionesPostCommit postCommit = (AccionesPostCommit) transaction.getUserObject(CLAVE);
+        if (postCommit == null) {
+            postCommit = new AccionesPostCommit(transaction);
+            transaction.putUserObject(CLAVE, postCommit);
+            transaction.register(postCommit);
+        }
+        postCommit.acciones.add(accion);
+    }
+
+    @Override
+    public void postCommit() {
+
+        if (!DataSourceCommits.isConfirmado(this.transaction.getConnection())) {
+            log.debug("Commit failed, discarding {} post-commit actions.", this.acciones.size());
+            return;
+        }
+        this.acciones.forEach(Runnable::run);
+    }
+
+}
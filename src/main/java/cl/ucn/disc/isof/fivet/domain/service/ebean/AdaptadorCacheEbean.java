@@ -0,0 +1,119 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.avaje.ebean.BackgroundExecutor;
+import com.avaje.ebean.cache.ServerCache;
+import com.avaje.ebean.cache.ServerCacheFactory;
+import com.avaje.ebean.cache.ServerCacheManager;
+import com.avaje.ebean.cache.ServerCacheOptions;
+import com.avaje.ebean.config.ServerConfig;
+import com.avaje.ebeaninternal.server.cache.DefaultServerCache;
+import com.avaje.ebeaninternal.server.cache.DefaultServerCacheManager;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches L2 locales de ebean: el manager y los caches que ebean crea por defecto, construidos aqui porque ebean
+ * considera remoto (no local) a todo cache de un plugin y aplica sus invalidaciones en segundo plano despues del
+ * commit, de forma que una lectura justo despues de una escritura podia ver el valor anterior.
+ * <p>
+ * WARN: unica clase que depende de clases internas de ebean (com.avaje.ebeaninternal), verificada con ebean 8.1.1:
+ * {@link DefaultServerCacheManager#DefaultServerCacheManager(boolean, ServerCacheFactory, ServerCacheOptions,
+ * ServerCacheOptions)}, {@link DefaultServerCache#DefaultServerCache(String, ServerCacheOptions)} y
+ * {@link DefaultServerCache#periodicTrim(BackgroundExecutor)}. Revisar al actualizar ebean.
+ */
+@Slf4j
+final class AdaptadorCacheEbean {
+
+    /**
+     * Caches creados antes de iniciar la expulsion periodica
+     */
+    private final List<DefaultServerCache> pendientes = new ArrayList<>();
+
+    /**
+     * Ejecutor de la expulsion periodica, null hasta {@link #iniciarExpulsion(BackgroundExecutor)}
+     */
+    private BackgroundExecutor expulsion;
+
+    /**
+     * @param fabrica      de los caches.
+     * @param serverConfig con las opciones por defecto de los caches (como las usa ebean).
+     * @return el manager de los caches L2, local: las invalidaciones se aplican durante el commit.
+     */
+    static ServerCacheManager crearManager(final ServerCacheFactory fabrica, final ServerConfig serverConfig) {
+
+        final ServerCacheOptions opcionesBeans = new ServerCacheOptions();
+        opcionesBeans.setMaxSize(serverConfig.getCacheMaxSize());
+        opcionesBeans.setMaxIdleSecs(serverConfig.getCacheMaxIdleTime());
+        opcionesBeans.setMaxSecsToLive(serverConfig.getCacheMaxTimeToLive());
+
+        final ServerCacheOptions opcionesConsultas = new ServerCacheOptions();
+        opcionesConsultas.setMaxSize(serverConfig.getQueryCacheMaxSize());
+        opcionesConsultas.setMaxIdleSecs(serverConfig.getQueryCacheMaxIdleTime());
+        opcionesConsultas.setMaxSecsToLive(serverConfig.getQueryCacheMaxTimeToLive());
+
+        return new DefaultServerCacheManager(true, fabrica, opcionesBeans, opcionesConsultas);
+    }
+
+    /**
+     * @param nombre   del cache.
+     * @param opciones de tamanio y tiempo de vida.
+     * @return el cache de ebean, con expulsion periodica por tamanio y tiempo de vida una vez iniciada.
+     */
+    synchronized ServerCache crear(final String nombre, final ServerCacheOptions opciones) {
+
+        final DefaultServerCache cache = new DefaultServerCache(nombre, opciones);
+        if (this.expulsion == null) {
+            this.pendientes.add(cache);
+        } else {
+            cache.periodicTrim(this.expulsion);
+        }
+        return cache;
+    }
+
+    /**
+     * Inicia la expulsion periodica de los caches en el ejecutor del servidor, que la detiene al cerrarse.
+     *
+     * @param executor del servidor ebean.
+     */
+    synchronized void iniciarExpulsion(final BackgroundExecutor executor) {
+
+        this.expulsion = new EjecutorExpulsion(executor);
+        this.pendientes.forEach(cache -> cache.periodicTrim(this.expulsion));
+        this.pendientes.clear();
+    }
+
+    /**
+     * {@link BackgroundExecutor} de la expulsion periodica: los errores se registran en el log sin detener las
+     * ejecuciones siguientes.
+     */
+    private static final class EjecutorExpulsion implements BackgroundExecutor {
+
+        private final BackgroundExecutor executor;
+
+        EjecutorExpulsion(final BackgroundExecutor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(final Runnable runnable) {
+            this.executor.execute(() -> ejecutar(runnable));
+        }
+
+        @Override
+        public void executePeriodically(final Runnable runnable, final long delay, final TimeUnit unit) {
+            this.executor.executePeriodically(() -> ejecutar(runnable), delay, unit);
+        }
+
+        private static void ejecutar(final Runnable runnable) {
+            try {
+                runnable.run();
+            } catch (RuntimeException ex) {
+                log.warn("Error trimming cache", ex);
+            }
+        }
+    }
+
+}
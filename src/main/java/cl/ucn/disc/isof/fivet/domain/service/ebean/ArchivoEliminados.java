@@ -0,0 +1,474 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.ExpressionList;
+import com.avaje.ebean.SqlQuery;
+import com.avaje.ebean.SqlRow;
+import com.avaje.ebean.SqlUpdate;
+import com.avaje.ebean.Transaction;
+import com.avaje.ebean.annotation.Encrypted;
+import com.avaje.ebean.cache.ServerCacheManager;
+import com.avaje.ebean.plugin.BeanType;
+import com.avaje.ebean.plugin.Property;
+import com.avaje.ebean.text.json.EJson;
+import com.durrutia.ebean.BaseModel;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archivo de las filas eliminadas (soft delete): las mueve desde su tabla a un archivo comprimido por entidad
+ * (&lt;tabla&gt;.json.gz, un modelo JSON por linea), de forma que las consultas no recorran las filas eliminadas.
+ * <ul>
+ * <li>Cada ejecucion agrega un miembro gzip al archivo (GZIPInputStream los lee como un solo flujo).</li>
+ * <li>El archivo se escribe antes de borrar las filas: si el borrado falla las filas quedan en la tabla (y pueden
+ * quedar repetidas en el archivo, la lectura entrega la ultima version de cada id).</li>
+ * <li>Las columnas {@link Encrypted} no se archivan.</li>
+ * <li>Las relaciones (filas de las tablas intermedias) de una fila archivada se archivan y eliminan junto a ella,
+ * en el archivo de su tabla (&lt;tabla&gt;.json.gz, las columnas de una fila por linea). Las filas referenciadas
+ * desde otra tabla (ej: el veterinario de un control) se archivan cuando dejan de estarlo.</li>
+ * <li>El limite (fecha de modificacion) de la ultima ejecucion que archivo filas se guarda por tabla
+ * (&lt;tabla&gt;.limite): el feed de cambios ya no tiene los eliminados anteriores a el.</li>
+ * <li>Tras el commit de cada lote se eliminan del cache L2 los beans archivados, sus colecciones y las colecciones
+ * de sus duenios en las tablas intermedias, y se limpia el cache de consultas de la entidad.</li>
+ * </ul>
+ */
+@Slf4j
+final class ArchivoEliminados {
+
+    /**
+     * Extension de los archivos
+     */
+    private static final String EXTENSION = ".json.gz";
+
+    /**
+     * Extension de los archivos con el limite del ultimo archivo de cada tabla
+     */
+    private static final String EXTENSION_LIMITE = ".limite";
+
+    /**
+     * EBean server
+     */
+    private final EbeanServer ebeanServer;
+
+    /**
+     * Directorio de los archivos
+     */
+    private final Path directorio;
+
+    /**
+     * Cantidad de filas por lote (y por transaccion)
+     */
+    private final int tamanioLote;
+
+    /**
+     * @param ebeanServer del backend.
+     * @param directorio  de los archivos.
+     * @param tamanioLote cantidad de filas por transaccion.
+     */
+    ArchivoEliminados(final EbeanServer ebeanServer, final Path directorio, final int tamanioLote) {
+        this.ebeanServer = ebeanServer;
+        this.directorio = directorio;
+        this.tamanioLote = tamanioLote;
+    }
+
+    /**
+     * Archiva las filas eliminadas antes del limite.
+     *
+     * @param tipo         de la entidad.
+     * @param limite       fecha de modificacion (eliminacion) maxima.
+     * @param restriccion  SQL sobre la tabla que deben cumplir las filas a archivar (ej: sin referencias), o null.
+     * @param intermedias  tablas intermedias cuyas filas se archivan y eliminan junto a la fila.
+     * @return la cantidad de filas archivadas.
+     */
+    <T extends BaseModel> int archivar(final Class<T> tipo, final Timestamp limite, final String restriccion,
+                                       final List<Intermedia> intermedias) {
+
+        final BeanType<T> beanType = this.ebeanServer.getPluginApi().getBeanType(tipo);
+        final String propiedades = propiedades(beanType);
+        final Path archivo = archivo(tipo);
+
+        int total = 0;
+        Long ultimo = 0L;
+        while (true) {
+
+            final Transaction transaction = this.ebeanServer.beginTransaction();
+            try {
+                final ExpressionList<T> where = this.ebeanServer.find(tipo)
+                        .setIncludeSoftDeletes()
+                        .select(propiedades)
+                        .where()
+                        .eq("deleted", true)
+                        .lt("whenModified", limite)
+                        .gt("id", ultimo);
+                if (restriccion != null) {
+                    where.raw(restriccion);
+                }
+
+                final List<T> filas = where
+                        .orderBy().asc("id")
+                        .setMaxRows(this.tamanioLote)
+                        .findList();
+
+                if (filas.isEmpty()) {
+                    break;
+                }
+
+                escribir(archivo, filas);
+
+                final List<Long> ids = filas.stream().map(BaseModel::getId).collect(Collectors.toList());
+                for (final Intermedia intermedia : intermedias) {
+                    final Set<Long> duenios = archivarRelaciones(intermedia, ids, transaction);
+                    AccionesPostCommit.registrar(transaction, () -> desalojar(intermedia, duenios));
+                }
+                borrar(beanType.getBaseTable(), "id", ids, transaction);
+                AccionesPostCommit.registrar(transaction, () -> desalojar(beanType, ids));
+                if (total == 0) {
+                    // Antes del primer borrado: si falla, no se borra nada
+                    guardarLimite(beanType.getBaseTable(), limite.getTime());
+                }
+                transaction.commit();
+
+                total += filas.size();
+                ultimo = ids.get(ids.size() - 1);
+
+            } finally {
+                transaction.end();
+            }
+        }
+
+        if (total > 0) {
+            log.info("Archived {} deleted {} in {}.", total, tipo.getSimpleName(), archivo);
+        }
+        return total;
+    }
+
+    /**
+     * Recorre los modelos archivados, la ultima version de cada id, en orden de archivo.
+     *
+     * @param tipo     de la entidad.
+     * @param consumer a invocar por cada modelo.
+     */
+    <T extends BaseModel> void forEach(final Class<T> tipo, final Consumer<T> consumer) {
+
+        final Path archivo = archivo(tipo);
+        if (!Files.exists(archivo)) {
+            return;
+        }
+
+        // Un reintento tras un borrado fallido puede repetir filas: se mantiene la ultima
+        final Map<Long, T> modelos = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(archivo)), StandardCharsets.UTF_8))) {
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                final T modelo = this.ebeanServer.json().toBean(tipo, linea);
+                modelos.remove(modelo.getId());
+                modelos.put(modelo.getId(), modelo);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("No se puede leer " + archivo, ex);
+        }
+        modelos.values().forEach(consumer);
+    }
+
+    /**
+     * Recorre las relaciones archivadas de una tabla intermedia (columna -> id), sin repetir, en orden de archivo.
+     *
+     * @param tabla    intermedia.
+     * @param consumer a invocar por cada fila archivada.
+     */
+    void forEachRelacion(final String tabla, final Consumer<Map<String, Object>> consumer) {
+
+        final Path archivo = archivo(tabla);
+        if (!Files.exists(archivo)) {
+            return;
+        }
+
+        // Un reintento tras un borrado fallido puede repetir filas
+        final Set<Map<String, Object>> relaciones = new LinkedHashSet<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(archivo)), StandardCharsets.UTF_8))) {
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                relaciones.add(EJson.parseObject(linea));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("No se puede leer " + archivo, ex);
+        }
+        relaciones.forEach(consumer);
+    }
+
+    /**
+     * @param tipo de la entidad.
+     * @return la fecha (ms) de modificacion limite de la ultima ejecucion que archivo filas de la entidad, 0 si no se
+     * han archivado filas: los eliminados anteriores ya no estan en la tabla.
+     */
+    long getLimite(final Class<?> tipo) {
+        return leerLimite(archivoLimite(this.ebeanServer.getPluginApi().getBeanType(tipo).getBaseTable()));
+    }
+
+    /**
+     * Guarda el limite de la ejecucion, si es posterior al guardado.
+     */
+    private void guardarLimite(final String tabla, final long limite) {
+
+        final Path archivo = archivoLimite(tabla);
+        if (limite <= leerLimite(archivo)) {
+            return;
+        }
+        try {
+            Files.createDirectories(this.directorio);
+            final Path temporal = Files.createTempFile(this.directorio, tabla, EXTENSION_LIMITE);
+            Files.write(temporal, Long.toString(limite).getBytes(StandardCharsets.UTF_8));
+            Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("No se puede escribir " + archivo, ex);
+        }
+    }
+
+    /**
+     * @return el limite guardado en el archivo, 0 si no existe.
+     */
+    private static long leerLimite(final Path archivo) {
+
+        if (!Files.exists(archivo)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(archivo), StandardCharsets.UTF_8).trim());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("No se puede leer " + archivo, ex);
+        }
+    }
+
+    /**
+     * @return el archivo del limite de la tabla.
+     */
+    private Path archivoLimite(final String tabla) {
+        return this.directorio.resolve(tabla + EXTENSION_LIMITE);
+    }
+
+    /**
+     * @return el archivo de la entidad.
+     */
+    Path archivo(final Class<?> tipo) {
+        return archivo(this.ebeanServer.getPluginApi().getBeanType(tipo).getBaseTable());
+    }
+
+    /**
+     * @return el archivo de la tabla.
+     */
+    private Path archivo(final String tabla) {
+        return this.directorio.resolve(tabla + EXTENSION);
+    }
+
+    /**
+     * Archiva y borra las filas de la tabla intermedia cuya columna esta en los ids.
+     *
+     * @return los ids de los duenios de las filas archivadas.
+     */
+    private Set<Long> archivarRelaciones(final Intermedia intermedia, final List<Long> ids,
+                                         final Transaction transaction) {
+
+        final SqlQuery select = this.ebeanServer.createSqlQuery("select * from " + intermedia.tabla
+                + " where " + intermedia.columna + " in (" + parametros(ids) + ")");
+        for (int i = 0; i < ids.size(); i++) {
+            select.setParameter(i + 1, ids.get(i));
+        }
+
+        final List<Map<String, Object>> relaciones = new ArrayList<>();
+        final Set<Long> duenios = new LinkedHashSet<>();
+        for (final SqlRow fila : select.findList()) {
+            final Map<String, Object> relacion = new LinkedHashMap<>();
+            fila.forEach((nombre, valor) -> relacion.put(nombre.toLowerCase(), valor));
+            relaciones.add(relacion);
+            duenios.add(((Number) relacion.get(intermedia.columnaDuenio)).longValue());
+        }
+
+        if (!relaciones.isEmpty()) {
+            escribir(archivo(intermedia.tabla), relaciones);
+            borrar(intermedia.tabla, intermedia.columna, ids, transaction);
+        }
+        return duenios;
+    }
+
+    /**
+     * Elimina del cache L2 los beans archivados y sus colecciones, y limpia el cache de consultas de la entidad.
+     */
+    private void desalojar(final BeanType<?> beanType, final List<Long> ids) {
+
+        final ServerCacheManager caches = this.ebeanServer.getServerCacheManager();
+        final Class<?> tipo = beanType.getBeanType();
+        for (final Long id : ids) {
+            caches.getBeanCache(tipo).remove(id);
+            for (final Property property : beanType.allProperties()) {
+                if (property.isMany()) {
+                    caches.getCollectionIdsCache(tipo, property.getName()).remove(id);
+                }
+            }
+        }
+        caches.getQueryCache(tipo).clear();
+    }
+
+    /**
+     * Elimina del cache L2 la coleccion (y el bean) de los duenios de las relaciones archivadas.
+     */
+    private void desalojar(final Intermedia intermedia, final Set<Long> duenios) {
+
+        final ServerCacheManager caches = this.ebeanServer.getServerCacheManager();
+        for (final Long duenio : duenios) {
+            caches.getCollectionIdsCache(intermedia.duenio, intermedia.coleccion).remove(duenio);
+            caches.getBeanCache(intermedia.duenio).remove(duenio);
+        }
+    }
+
+    /**
+     * Agrega las filas (modelos o filas de una tabla intermedia) al archivo, en un nuevo miembro gzip.
+     */
+    private void escribir(final Path archivo, final List<?> filas) {
+
+        try {
+            Files.createDirectories(this.directorio);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(
+                    archivo, StandardOpenOption.CREATE, StandardOpenOption.APPEND)), StandardCharsets.UTF_8));
+                 JsonGenerator generator = this.ebeanServer.json().createGenerator(writer)) {
+                for (final Object fila : filas) {
+                    if (fila instanceof BaseModel) {
+                        this.ebeanServer.json().toJson(fila, generator);
+                    } else {
+                        EJson.write(fila, generator);
+                    }
+                    generator.writeRaw('\n');
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("No se puede escribir " + archivo, ex);
+        }
+    }
+
+    /**
+     * Borra las filas de la tabla cuya columna esta en los ids.
+     */
+    private void borrar(final String tabla, final String columna, final List<Long> ids, final Transaction transaction) {
+
+        final SqlUpdate delete = this.ebeanServer.createSqlUpdate(
+                "delete from " + tabla + " where " + columna + " in (" + parametros(ids) + ")");
+        for (int i = 0; i < ids.size(); i++) {
+            delete.setParameter(i + 1, ids.get(i));
+        }
+        this.ebeanServer.execute(delete, transaction);
+    }
+
+    /**
+     * @return los parametros (?) de un in con los ids.
+     */
+    private static String parametros(final List<Long> ids) {
+        return String.join(",", Collections.nCopies(ids.size(), "?"));
+    }
+
+    /**
+     * @return las propiedades archivadas de la entidad: todas salvo las colecciones y las encriptadas.
+     */
+    private static String propiedades(final BeanType<?> beanType) {
+
+        final List<String> propiedades = new ArrayList<>();
+        for (final Property property : beanType.allProperties()) {
+            if (!property.isMany() && !encriptada(beanType.getBeanType(), property.getName())) {
+                propiedades.add(property.getName());
+            }
+        }
+        Preconditions.checkState(!propiedades.isEmpty(), "Sin propiedades: %s", beanType.getName());
+        return String.join(",", propiedades);
+    }
+
+    /**
+     * @return true si el campo (de la clase o sus superclases) es {@link Encrypted}.
+     */
+    private static boolean encriptada(final Class<?> clazz, final String nombre) {
+
+        for (Class<?> type = clazz; type != null && type != Object.class; type = type.getSuperclass()) {
+            try {
+                final Field field = type.getDeclaredField(nombre);
+                return field.isAnnotationPresent(Encrypted.class);
+            } catch (NoSuchFieldException ex) {
+                // En la superclase
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tabla intermedia de una coleccion ManyToMany cuyas filas se archivan junto a la entidad.
+     */
+    static final class Intermedia {
+
+        /**
+         * Tabla intermedia
+         */
+        private final String tabla;
+
+        /**
+         * Columna hacia la entidad archivada
+         */
+        private final String columna;
+
+        /**
+         * Columna hacia el duenio de la coleccion
+         */
+        private final String columnaDuenio;
+
+        /**
+         * Tipo del duenio de la coleccion
+         */
+        private final Class<?> duenio;
+
+        /**
+         * Propiedad de la coleccion en el duenio
+         */
+        private final String coleccion;
+
+        /**
+         * @param tabla         intermedia.
+         * @param columna       hacia la entidad archivada.
+         * @param columnaDuenio hacia el duenio de la coleccion.
+         * @param duenio        tipo del duenio de la coleccion.
+         * @param coleccion     propiedad de la coleccion en el duenio.
+         */
+        Intermedia(final String tabla, final String columna, final String columnaDuenio, final Class<?> duenio,
+                   final String coleccion) {
+            this.tabla = tabla;
+            this.columna = columna;
+            this.columnaDuenio = columnaDuenio;
+            this.duenio = duenio;
+            this.coleccion = coleccion;
+        }
+    }
+
+}
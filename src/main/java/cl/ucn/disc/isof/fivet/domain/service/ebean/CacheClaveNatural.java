@@ -0,0 +1,106 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache acotado (LRU + tiempo de vida) de clave natural (rut, mail, numero de ficha) a id de la entidad.
+ * El bean se obtiene luego por id, desde el cache de beans de la entidad ({@link com.avaje.ebean.annotation.Cache} en
+ * Persona y Paciente, con las politicas de {@link FabricaCache}); si la entidad no tiene cache de beans, la busqueda
+ * por id va a la base de datos.
+ *
+ * Thread-safe.
+ */
+final class CacheClaveNatural {
+
+    /**
+     * clave natural -> id
+     */
+    private final Cache<Object, Long> cache;
+
+    /**
+     * Invalidaciones explicitas (por escrituras o por entradas obsoletas detectadas al leer)
+     */
+    private final LongAdder invalidaciones = new LongAdder();
+
+    /**
+     * @param maximo      cantidad maxima de claves.
+     * @param ttlSegundos tiempo de vida de cada clave.
+     */
+    CacheClaveNatural(final long maximo, final long ttlSegundos) {
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximo)
+                .expireAfterWrite(ttlSegundos, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param clave natural.
+     * @return el id asociado a la clave, null si no esta en cache.
+     */
+    Long get(final Object clave) {
+        return this.cache.getIfPresent(clave);
+    }
+
+    /**
+     * @param clave natural.
+     * @param id    de la entidad.
+     */
+    void put(final Object clave, final Long id) {
+        this.cache.put(clave, id);
+    }
+
+    /**
+     * @param clave a invalidar.
+     */
+    void invalidar(final Object clave) {
+        this.cache.invalidate(clave);
+        this.invalidaciones.increment();
+    }
+
+    /**
+     * Invalida todas las claves asociadas a un id.
+     *
+     * @param id de la entidad.
+     */
+    void invalidarId(final Long id) {
+        if (this.cache.asMap().values().removeIf(id::equals)) {
+            this.invalidaciones.increment();
+        }
+    }
+
+    /**
+     * Invalida todas las claves.
+     */
+    void limpiar() {
+        this.cache.invalidateAll();
+    }
+
+    /**
+     * @return las estadisticas de aciertos, fallos y expulsiones (por tamanio o tiempo de vida).
+     */
+    CacheStats getEstadisticas() {
+        return this.cache.stats();
+    }
+
+    /**
+     * @return la cantidad de invalidaciones explicitas.
+     */
+    long getInvalidaciones() {
+        return this.invalidaciones.sum();
+    }
+
+    /**
+     * @return la cantidad de claves en cache.
+     */
+    long size() {
+        return this.cache.size();
+    }
+
+}
@@ -0,0 +1,60 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.avaje.ebean.event.BeanPersistAdapter;
+import com.avaje.ebean.event.BeanPersistRequest;
+import com.durrutia.ebean.BaseModel;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Invalida las entradas de un {@link CacheClaveNatural} cuando cambia la clave natural de una entidad o cuando
+ * esta es eliminada (incluye el soft delete).
+ */
+final class CacheClaveNaturalController extends BeanPersistAdapter {
+
+    /**
+     * Tipo de la entidad
+     */
+    private final Class<? extends BaseModel> clazz;
+
+    /**
+     * Cache a invalidar
+     */
+    private final CacheClaveNatural cache;
+
+    /**
+     * Propiedades que forman claves naturales
+     */
+    private final Set<String> claves;
+
+    CacheClaveNaturalController(final Class<? extends BaseModel> clazz, final CacheClaveNatural cache, final String... claves) {
+        this.clazz = clazz;
+        this.cache = cache;
+        this.claves = new HashSet<>(Arrays.asList(claves));
+    }
+
+    @Override
+    public boolean isRegisterFor(final Class<?> cls) {
+        return this.clazz.equals(cls);
+    }
+
+    @Override
+    public void postUpdate(final BeanPersistRequest<?> request) {
+
+        final BaseModel bean = (BaseModel) request.getBean();
+        final Set<String> actualizadas = request.getUpdatedProperties();
+
+        if (bean.isDeleted() || actualizadas == null || !Collections.disjoint(actualizadas, this.claves)) {
+            this.cache.invalidarId(bean.getId());
+        }
+    }
+
+    @Override
+    public void postDelete(final BeanPersistRequest<?> request) {
+        this.cache.invalidarId(((BaseModel) request.getBean()).getId());
+    }
+
+}
@@ -0,0 +1,326 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import org.avaje.datasource.DataSourceConfig;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Configuracion del {@link EbeanBackendService}: base de datos, pool de conexiones y cache de sentencias.
+ * <p>
+ * Los valores del pool que quedan en null mantienen lo definido para la base de datos en ebean.properties
+ * (datasource.&lt;database&gt;.*), o el valor por defecto de ebean si tampoco esta ahi.
+ * <p>
+ * Las politicas de cache definidas reemplazan a las por defecto ({@link #POLITICAS_CACHE_DEFECTO}) y a las
+ * anotaciones del modelo.
+ */
+@Builder
+@Getter
+@ToString(exclude = "fuenteClaves")
+public final class ConfiguracionBackend {
+
+    /**
+     * Tamanio por defecto de los lotes de insercion masiva
+     */
+    public static final int TAMANIO_LOTE_DEFECTO = 100;
+
+    /**
+     * Cantidad maxima por defecto de beans en cache de cada entidad
+     */
+    public static final int MAX_BEANS_DEFECTO = 500;
+
+    /**
+     * Cantidad por defecto de consultas lentas que se mantienen
+     */
+    public static final int CAPACIDAD_CONSULTAS_LENTAS_DEFECTO = 100;
+
+    /**
+     * Retraso por defecto (ms) del feed de cambios
+     */
+    public static final long RETRASO_CAMBIOS_DEFECTO_MILLIS = 1000;
+
+    /**
+     * Politicas de cache por defecto. Los controles se insertan constantemente y cada insercion invalidaria todas las
+     * consultas de controles en cache: solo se mantiene su cache de beans
+     */
+    public static final Map<Class<?>, PoliticaCache> POLITICAS_CACHE_DEFECTO = ImmutableMap.of(
+            Persona.class, PoliticaCache.builder().maxBeans(MAX_BEANS_DEFECTO).build(),
+            Paciente.class, PoliticaCache.builder().maxBeans(MAX_BEANS_DEFECTO).build(),
+            Control.class, PoliticaCache.builder().maxBeans(MAX_BEANS_DEFECTO).cacheConsultas(false).build());
+
+    /**
+     * Nombre de la base de datos en ebean.properties
+     */
+    private final String database;
+
+    /**
+     * Cantidad de filas por lote (y por transaccion) en las inserciones masivas
+     */
+    private final Integer tamanioLote;
+
+    /**
+     * Conexiones que el pool mantiene abiertas aunque esten ociosas
+     */
+    private final Integer minConexiones;
+
+    /**
+     * Maximo de conexiones del pool
+     */
+    private final Integer maxConexiones;
+
+    /**
+     * Tiempo maximo (ms) de espera por una conexion cuando el pool esta completo
+     */
+    private final Integer esperaConexionMillis;
+
+    /**
+     * Tiempo (segundos) tras el cual se cierra una conexion ociosa sobre el minimo
+     */
+    private final Integer inactividadMaximaSegundos;
+
+    /**
+     * Sentencias preparadas en cache por conexion
+     */
+    private final Integer cacheSentencias;
+
+    /**
+     * Minutos tras los cuales una conexion no devuelta al pool se considera una fuga (y se registra en el log)
+     */
+    private final Integer fugaMinutos;
+
+    /**
+     * Captura el stack trace de quien toma cada conexion, para identificar el origen de las fugas
+     */
+    private final Boolean capturarStackTrace;
+
+    /**
+     * Origen de las claves de las columnas encriptadas (null: {@link FuenteClaves#derivada()})
+     */
+    private final FuenteClaves fuenteClaves;
+
+    /**
+     * Intentos (incluido el primero) de las escrituras que fallan por conflicto con otra transaccion
+     */
+    private final Integer intentosEscritura;
+
+    /**
+     * Espera (ms) antes del primer reintento de una escritura, se duplica en cada reintento
+     */
+    private final Long esperaReintentoMillis;
+
+    /**
+     * Espera maxima (ms) entre reintentos de una escritura
+     */
+    private final Long esperaReintentoMaximaMillis;
+
+    /**
+     * Tiempo (ms) sobre el cual una sentencia SQL se registra como consulta lenta (null: no se registran)
+     */
+    private final Integer umbralConsultaLentaMillis;
+
+    /**
+     * Consultas lentas que se mantienen (las mas recientes)
+     */
+    private final Integer capacidadConsultasLentas;
+
+    /**
+     * Obtener el plan de ejecucion de las consultas lentas (solo H2 y HSQLDB)
+     */
+    private final Boolean planConsultasLentas;
+
+    /**
+     * Retraso (ms) del feed de cambios: los cambios mas recientes se entregan en la siguiente consulta, dando tiempo a
+     * que terminen las transacciones en curso (la fecha de modificacion se asigna al escribir, no al hacer commit).
+     * Las transacciones del mismo backend se esperan sin importar su duracion, el retraso debe cubrir las de otros
+     * procesos sobre la misma base de datos y la diferencia entre sus relojes
+     */
+    private final Long retrasoCambiosMillis;
+
+    /**
+     * Directorio de los archivos de las filas eliminadas (null: archivo/&lt;database&gt;)
+     */
+    private final Path directorioArchivo;
+
+    /**
+     * Politicas del cache L2 por entidad, ver {@link ConfiguracionBackendBuilder#politicaCache(Class, PoliticaCache)}
+     */
+    private final Map<Class<?>, PoliticaCache> politicasCache;
+
+    /**
+     * @return la configuracion por defecto de la base de datos.
+     */
+    public static ConfiguracionBackend of(final String database) {
+        return ConfiguracionBackend.builder().database(database).build();
+    }
+
+    /**
+     * @return el tamanio de lote, o el valor por defecto.
+     */
+    public int getTamanioLote() {
+        return this.tamanioLote == null ? TAMANIO_LOTE_DEFECTO : this.tamanioLote;
+    }
+
+    /**
+     * @return la fuente de claves, o la fuente derivada.
+     */
+    public FuenteClaves getFuenteClaves() {
+        return this.fuenteClaves == null ? FuenteClaves.derivada() : this.fuenteClaves;
+    }
+
+    /**
+     * @return la politica de reintento de las escrituras (valores por defecto de {@link Reintentos} si no se definen).
+     */
+    Reintentos crearReintentos() {
+        return new Reintentos(
+                this.intentosEscritura == null ? Reintentos.INTENTOS_DEFECTO : this.intentosEscritura,
+                this.esperaReintentoMillis == null ? Reintentos.ESPERA_DEFECTO_MILLIS : this.esperaReintentoMillis,
+                this.esperaReintentoMaximaMillis == null
+                        ? Reintentos.ESPERA_MAXIMA_DEFECTO_MILLIS : this.esperaReintentoMaximaMillis);
+    }
+
+    /**
+     * @return la cantidad de consultas lentas que se mantienen, o el valor por defecto.
+     */
+    public int getCapacidadConsultasLentas() {
+        return this.capacidadConsultasLentas == null ? CAPACIDAD_CONSULTAS_LENTAS_DEFECTO : this.capacidadConsultasLentas;
+    }
+
+    /**
+     * @return si se obtiene el plan de ejecucion de las consultas lentas (por defecto si).
+     */
+    public boolean isPlanConsultasLentas() {
+        return this.planConsultasLentas == null || this.planConsultasLentas;
+    }
+
+    /**
+     * @return el retraso del feed de cambios, o el valor por defecto.
+     */
+    public long getRetrasoCambiosMillis() {
+        return this.retrasoCambiosMillis == null ? RETRASO_CAMBIOS_DEFECTO_MILLIS : this.retrasoCambiosMillis;
+    }
+
+    /**
+     * @return el directorio de los archivos de las filas eliminadas, o el directorio por defecto.
+     */
+    public Path getDirectorioArchivo() {
+        return this.directorioArchivo == null ? Paths.get("archivo", this.database) : this.directorioArchivo;
+    }
+
+    /**
+     * @return la politica de cache de la entidad, null si solo aplican sus anotaciones.
+     */
+    public PoliticaCache getPoliticaCache(final Class<?> clazz) {
+
+        final PoliticaCache politica = this.politicasCache == null ? null : this.politicasCache.get(clazz);
+        return politica == null ? POLITICAS_CACHE_DEFECTO.get(clazz) : politica;
+    }
+
+    /**
+     * @return las politicas de cache (por defecto y definidas) por nombre de la clase de la entidad.
+     */
+    Map<String, PoliticaCache> getPoliticasCachePorNombre() {
+
+        final Map<String, PoliticaCache> politicas = new HashMap<>();
+        POLITICAS_CACHE_DEFECTO.forEach((clazz, politica) -> politicas.put(clazz.getName(), politica));
+        if (this.politicasCache != null) {
+            this.politicasCache.forEach((clazz, politica) -> politicas.put(clazz.getName(), politica));
+        }
+        return politicas;
+    }
+
+    /**
+     * Valida la configuracion.
+     */
+    void validar() {
+
+        Preconditions.checkNotNull(this.database, "Database null");
+        Preconditions.checkArgument(getTamanioLote() > 0, "Tamanio de lote invalido: %s", this.tamanioLote);
+        Preconditions.checkArgument(this.minConexiones == null || this.minConexiones >= 0,
+                "Minimo de conexiones invalido: %s", this.minConexiones);
+        Preconditions.checkArgument(this.maxConexiones == null || this.maxConexiones > 0,
+                "Maximo de conexiones invalido: %s", this.maxConexiones);
+        Preconditions.checkArgument(this.minConexiones == null || this.maxConexiones == null
+                        || this.minConexiones <= this.maxConexiones,
+                "Minimo de conexiones (%s) mayor al maximo (%s)", this.minConexiones, this.maxConexiones);
+        Preconditions.checkArgument(this.esperaConexionMillis == null || this.esperaConexionMillis > 0,
+                "Espera de conexion invalida: %s", this.esperaConexionMillis);
+        Preconditions.checkArgument(this.cacheSentencias == null || this.cacheSentencias >= 0,
+                "Cache de sentencias invalido: %s", this.cacheSentencias);
+        Preconditions.checkArgument(this.intentosEscritura == null || this.intentosEscritura > 0,
+                "Intentos de escritura invalidos: %s", this.intentosEscritura);
+        Preconditions.checkArgument(this.umbralConsultaLentaMillis == null || this.umbralConsultaLentaMillis >= 0,
+                "Umbral de consulta lenta invalido: %s", this.umbralConsultaLentaMillis);
+        Preconditions.checkArgument(getCapacidadConsultasLentas() > 0,
+                "Capacidad de consultas lentas invalida: %s", this.capacidadConsultasLentas);
+        Preconditions.checkArgument(getRetrasoCambiosMillis() >= 0,
+                "Retraso de cambios invalido: %s", this.retrasoCambiosMillis);
+        if (this.politicasCache != null) {
+            this.politicasCache.values().forEach(PoliticaCache::validar);
+        }
+    }
+
+    /**
+     * Aplica los valores definidos al pool de la base de datos.
+     */
+    void aplicar(final DataSourceConfig dataSourceConfig) {
+
+        if (this.minConexiones != null) {
+            dataSourceConfig.setMinConnections(this.minConexiones);
+        }
+        if (this.maxConexiones != null) {
+            dataSourceConfig.setMaxConnections(this.maxConexiones);
+        }
+        if (this.esperaConexionMillis != null) {
+            dataSourceConfig.setWaitTimeoutMillis(this.esperaConexionMillis);
+        }
+        if (this.inactividadMaximaSegundos != null) {
+            dataSourceConfig.setMaxInactiveTimeSecs(this.inactividadMaximaSegundos);
+        }
+        if (this.cacheSentencias != null) {
+            dataSourceConfig.setPstmtCacheSize(this.cacheSentencias);
+        }
+        if (this.fugaMinutos != null) {
+            dataSourceConfig.setLeakTimeMinutes(this.fugaMinutos);
+        }
+        if (this.capturarStackTrace != null) {
+            dataSourceConfig.setCaptureStackTrace(this.capturarStackTrace);
+        }
+    }
+
+    /**
+     * Builder (generado por lombok) con el agregado de politicas de cache por entidad
+     */
+    public static class ConfiguracionBackendBuilder {
+
+        /**
+         * Agrega (o reemplaza) la politica de cache de una entidad.
+         * @param clazz entidad.
+         * @param politica de cache.
+         * @return el builder.
+         */
+        public ConfiguracionBackendBuilder politicaCache(final Class<?> clazz, final PoliticaCache politica) {
+
+            Preconditions.checkNotNull(clazz, "Entidad null");
+            Preconditions.checkNotNull(politica, "Politica de cache null");
+
+            final Map<Class<?>, PoliticaCache> politicas = new HashMap<>();
+            if (this.politicasCache != null) {
+                politicas.putAll(this.politicasCache);
+            }
+            politicas.put(clazz, politica);
+            this.politicasCache = ImmutableMap.copyOf(politicas);
+            return this;
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Sentencia SQL que supero el umbral de consulta lenta del {@link EbeanBackendService}.
+ */
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+@Getter
+@ToString
+public final class ConsultaLenta {
+
+    /**
+     * Cuando termino la ejecucion (ms desde epoch)
+     */
+    private final long timestamp;
+
+    /**
+     * SQL ejecutado
+     */
+    private final String sql;
+
+    /**
+     * Valores de los parametros, en orden (los de columnas encriptadas y sus claves enmascarados). En los batch, los
+     * de la ultima fila
+     */
+    private final List<String> parametros;
+
+    /**
+     * Filas del batch (0 si no es un batch)
+     */
+    private final int lote;
+
+    /**
+     * Tiempo de ejecucion en microsegundos
+     */
+    private final long micros;
+
+    /**
+     * Plan de ejecucion (EXPLAIN) de las consultas, null si la base de datos no lo soporta
+     */
+    private final String plan;
+
+}
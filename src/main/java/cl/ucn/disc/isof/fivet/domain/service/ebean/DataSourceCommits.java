@@ -0,0 +1,172 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import org.avaje.datasource.DataSourcePool;
+import org.avaje.datasource.PoolStatistics;
+import org.avaje.datasource.PoolStatus;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+/**
+ * Pool de conexiones cuyas conexiones registran si su ultimo commit termino bien ({@link #isConfirmado(Connection)}).
+ * <p>
+ * Ebean (8.1) llama a postCommit incluso cuando el commit falla: al ejecutar el lote pendiente (antes de llegar al
+ * commit de la conexion) o en la base de datos. {@link AccionesPostCommit} consulta la conexion de la transaccion para
+ * aplicar sus acciones solo despues de un commit confirmado.
+ */
+final class DataSourceCommits implements DataSourcePool {
+
+    /**
+     * Conexion que registra el resultado de su ultimo commit
+     */
+    interface Confirmable {
+
+        /**
+         * @return true si el ultimo commit de la conexion termino bien.
+         */
+        boolean isCommitConfirmado();
+    }
+
+    /**
+     * Pool de conexiones
+     */
+    private final DataSourcePool pool;
+
+    /**
+     * @param pool de conexiones.
+     */
+    DataSourceCommits(final DataSourcePool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param connection de una transaccion.
+     * @return true si el ultimo commit de la conexion termino bien, o si la conexion no es de este pool (resultado
+     * desconocido).
+     */
+    static boolean isConfirmado(final Connection connection) {
+        return !(connection instanceof Confirmable) || ((Confirmable) connection).isCommitConfirmado();
+    }
+
+    /**
+     * @return la conexion del pool, con su commit registrado.
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return conexion(this.pool.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        return conexion(this.pool.getConnection(username, password));
+    }
+
+    /**
+     * @return la conexion, {@link Confirmable}.
+     */
+    private static Connection conexion(final Connection connection) {
+        return (Connection) Proxy.newProxyInstance(DataSourceCommits.class.getClassLoader(),
+                new Class<?>[]{Connection.class, Confirmable.class}, new Conexion(connection));
+    }
+
+    /**
+     * Conexion que registra el resultado de su ultimo commit
+     */
+    private static final class Conexion implements InvocationHandler {
+
+        private final Connection connection;
+
+        private boolean confirmado;
+
+        Conexion(final Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+            if (method.getDeclaringClass() == Confirmable.class) {
+                return this.confirmado;
+            }
+            if ("commit".equals(method.getName()) && args == null) {
+                this.confirmado = false;
+                this.connection.commit();
+                this.confirmado = true;
+                return null;
+            }
+            try {
+                return method.invoke(this.connection, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return this.pool.getName();
+    }
+
+    @Override
+    public boolean isAutoCommit() {
+        return this.pool.isAutoCommit();
+    }
+
+    @Override
+    public void shutdown(final boolean deregisterDriver) {
+        this.pool.shutdown(deregisterDriver);
+    }
+
+    @Override
+    public PoolStatus getStatus(final boolean reset) {
+        return this.pool.getStatus(reset);
+    }
+
+    @Override
+    public PoolStatistics getStatistics(final boolean reset) {
+        return this.pool.getStatistics(reset);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return this.pool.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(final PrintWriter out) throws SQLException {
+        this.pool.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(final int seconds) throws SQLException {
+        this.pool.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return this.pool.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return this.pool.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        return iface.isInstance(this.pool) ? iface.cast(this.pool) : this.pool.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+        return iface.isInstance(this.pool) || this.pool.isWrapperFor(iface);
+    }
+
+}
@@ -0,0 +1,433 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.avaje.ebean.config.dbplatform.DatabasePlatform;
+import com.avaje.ebean.config.dbplatform.DbEncrypt;
+import com.avaje.ebean.config.dbplatform.DbEncryptFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.avaje.datasource.DataSourcePool;
+import org.avaje.datasource.PoolStatistics;
+import org.avaje.datasource.PoolStatus;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pool de conexiones que mide cada sentencia SQL y registra las que superan el umbral en un
+ * {@link RegistroConsultasLentas}: SQL, parametros (enmascarando los de las columnas encriptadas y sus claves), tiempo
+ * y, en H2 y HSQLDB, el plan de ejecucion de las consultas.
+ * <p>
+ * El tiempo medido es el de la ejecucion de la sentencia (en las consultas, hasta que la base de datos entrega el
+ * ResultSet, sin la lectura de las filas). Las llamadas a procedimientos (prepareCall) no se miden.
+ */
+@Slf4j
+final class DataSourceConsultasLentas implements DataSourcePool {
+
+    /**
+     * Valor de los parametros enmascarados
+     */
+    static final String MASCARA = "***";
+
+    /**
+     * Largo maximo de cada parametro registrado
+     */
+    private static final int LARGO_MAXIMO_PARAMETRO = 100;
+
+    /**
+     * Comparacion contra un parametro, a continuacion de una columna desencriptada
+     */
+    private static final String COMPARACION = "(?:\\s*(?:=|<>|!=|<=|>=|<|>|like)\\s*\\?)?";
+
+    /**
+     * Pool de conexiones
+     */
+    private final DataSourcePool pool;
+
+    /**
+     * Umbral de consulta lenta
+     */
+    private final long umbralNanos;
+
+    /**
+     * Consultas lentas
+     */
+    private final RegistroConsultasLentas registro;
+
+    /**
+     * Obtener el plan de ejecucion de las consultas lentas
+     */
+    private final boolean conPlan;
+
+    /**
+     * Prefijo de EXPLAIN de la base de datos (null: no soportado), se define una vez creado el servidor
+     */
+    private volatile String explain;
+
+    /**
+     * Fragmentos SQL de encriptacion y desencriptacion, cuyos parametros se enmascaran
+     */
+    private volatile List<Pattern> encriptacion = Collections.emptyList();
+
+    /**
+     * @param pool        de conexiones.
+     * @param umbralMillis tiempo sobre el cual una sentencia es lenta.
+     * @param registro    de las consultas lentas.
+     * @param conPlan     obtener el plan de ejecucion de las consultas lentas.
+     */
+    DataSourceConsultasLentas(final DataSourcePool pool, final long umbralMillis, final RegistroConsultasLentas registro,
+                              final boolean conPlan) {
+        this.pool = pool;
+        this.umbralNanos = TimeUnit.MILLISECONDS.toNanos(umbralMillis);
+        this.registro = registro;
+        this.conPlan = conPlan;
+    }
+
+    /**
+     * Define la base de datos: sintaxis de EXPLAIN y funciones de encriptacion.
+     *
+     * @param platform de la base de datos.
+     */
+    void setPlataforma(final DatabasePlatform platform) {
+
+        final String nombre = platform.getName();
+        if ("h2".equals(nombre)) {
+            this.explain = "EXPLAIN ";
+        } else if ("hsqldb".equals(nombre)) {
+            this.explain = "EXPLAIN PLAN FOR ";
+        }
+
+        final DbEncrypt dbEncrypt = platform.getDbEncrypt();
+        if (dbEncrypt == null) {
+            return;
+        }
+
+        final List<Pattern> patrones = new ArrayList<>();
+        for (final int tipo : new int[]{Types.VARCHAR, Types.DATE}) {
+            final DbEncryptFunction function = dbEncrypt.getDbEncryptFunction(tipo);
+            if (function == null) {
+                continue;
+            }
+            patrones.add(Pattern.compile(Pattern.quote(function.getEncryptBindSql())));
+
+            // La columna desencriptada y la comparacion que la siga (ej: where decrypt(...) = ?)
+            final String marca = "\u0000";
+            final String[] partes = function.getDecryptSql(marca).split(marca, -1);
+            final StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < partes.length; i++) {
+                if (i > 0) {
+                    regex.append("[\\w.]+");
+                }
+                regex.append(Pattern.quote(partes[i]));
+            }
+            patrones.add(Pattern.compile(regex + COMPARACION, Pattern.CASE_INSENSITIVE));
+        }
+        this.encriptacion = patrones;
+    }
+
+    /**
+     * @return la conexion del pool, con sus sentencias medidas.
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return conexion(this.pool.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        return conexion(this.pool.getConnection(username, password));
+    }
+
+    /**
+     * @return la conexion, con sus PreparedStatement y Statement medidos.
+     */
+    private Connection conexion(final Connection connection) {
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+
+                    final Object resultado = invocar(connection, method, args);
+                    if ("prepareStatement".equals(method.getName())) {
+                        return sentencia(connection, (Statement) resultado, PreparedStatement.class, (String) args[0]);
+                    }
+                    if ("createStatement".equals(method.getName())) {
+                        return sentencia(connection, (Statement) resultado, Statement.class, null);
+                    }
+                    return resultado;
+                });
+    }
+
+    /**
+     * @return la sentencia medida.
+     */
+    private Object sentencia(final Connection connection, final Statement statement, final Class<?> tipo, final String sql) {
+        return Proxy.newProxyInstance(tipo.getClassLoader(), new Class<?>[]{tipo},
+                new Sentencia(connection, statement, sql));
+    }
+
+    /**
+     * Registra la sentencia si supero el umbral.
+     */
+    private void medir(final Connection connection, final String sql, final Object[] parametros, final int lote,
+                       final long nanos) {
+
+        if (nanos < this.umbralNanos || sql == null) {
+            return;
+        }
+
+        try {
+            final BitSet enmascarados = enmascarados(sql);
+            final List<String> valores = new ArrayList<>(parametros.length);
+            for (int i = 0; i < parametros.length; i++) {
+                valores.add(enmascarados.get(i) ? MASCARA : valor(parametros[i]));
+            }
+
+            this.registro.registrar(new ConsultaLenta(System.currentTimeMillis(), sql,
+                    Collections.unmodifiableList(valores), lote, TimeUnit.NANOSECONDS.toMicros(nanos),
+                    plan(connection, sql, parametros)));
+
+        } catch (RuntimeException ex) {
+            log.warn("Can't register the slow query {}", sql, ex);
+        }
+    }
+
+    /**
+     * @return los indices (desde 0) de los parametros que estan dentro de una funcion de encriptacion.
+     */
+    BitSet enmascarados(final String sql) {
+
+        final BitSet enmascarados = new BitSet();
+        final List<Pattern> patrones = this.encriptacion;
+        if (patrones.isEmpty()) {
+            return enmascarados;
+        }
+
+        final int[] posiciones = posicionesParametros(sql);
+        for (final Pattern patron : patrones) {
+            final Matcher matcher = patron.matcher(sql);
+            while (matcher.find()) {
+                for (int i = 0; i < posiciones.length; i++) {
+                    if (posiciones[i] >= matcher.start() && posiciones[i] < matcher.end()) {
+                        enmascarados.set(i);
+                    }
+                }
+            }
+        }
+        return enmascarados;
+    }
+
+    /**
+     * @return las posiciones de los ? del SQL (fuera de los literales).
+     */
+    private static int[] posicionesParametros(final String sql) {
+
+        final int[] posiciones = new int[sql.length()];
+        int cantidad = 0;
+        boolean literal = false;
+        for (int i = 0; i < sql.length(); i++) {
+            final char c = sql.charAt(i);
+            if (c == '\'') {
+                literal = !literal;
+            } else if (c == '?' && !literal) {
+                posiciones[cantidad++] = i;
+            }
+        }
+        return Arrays.copyOf(posiciones, cantidad);
+    }
+
+    /**
+     * @return el plan de ejecucion de la consulta, null si no es una consulta o la base de datos no lo soporta.
+     */
+    private String plan(final Connection connection, final String sql, final Object[] parametros) {
+
+        final String explain = this.explain;
+        if (!this.conPlan || explain == null || !sql.trim().toLowerCase(Locale.ROOT).startsWith("select")) {
+            return null;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(explain + sql)) {
+            for (int i = 0; i < parametros.length; i++) {
+                statement.setObject(i + 1, parametros[i]);
+            }
+            final StringBuilder plan = new StringBuilder();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (plan.length() > 0) {
+                        plan.append('\n');
+                    }
+                    plan.append(resultSet.getString(1));
+                }
+            }
+            return plan.toString();
+        } catch (SQLException ex) {
+            return "EXPLAIN: " + ex.getMessage();
+        }
+    }
+
+    /**
+     * @return el valor del parametro, truncado.
+     */
+    private static String valor(final Object parametro) {
+
+        if (parametro instanceof byte[]) {
+            return "byte[" + ((byte[]) parametro).length + "]";
+        }
+        final String valor = String.valueOf(parametro);
+        return valor.length() > LARGO_MAXIMO_PARAMETRO ? valor.substring(0, LARGO_MAXIMO_PARAMETRO) + "..." : valor;
+    }
+
+    /**
+     * @return el resultado del metodo, relanzando la excepcion original.
+     */
+    private static Object invocar(final Object target, final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Sentencia medida: registra los parametros y mide las ejecuciones
+     */
+    private final class Sentencia implements InvocationHandler {
+
+        private final Connection connection;
+
+        private final Statement statement;
+
+        private final String sql;
+
+        private Object[] parametros = new Object[8];
+
+        private int cantidadParametros;
+
+        private int lote;
+
+        Sentencia(final Connection connection, final Statement statement, final String sql) {
+            this.connection = connection;
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+            final String nombre = method.getName();
+
+            if (nombre.startsWith("execute")) {
+                final String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : this.sql;
+                final long inicio = System.nanoTime();
+                try {
+                    return invocar(this.statement, method, args);
+                } finally {
+                    medir(this.connection, sql, Arrays.copyOf(this.parametros, this.cantidadParametros), this.lote,
+                            System.nanoTime() - inicio);
+                    if ("executeBatch".equals(nombre)) {
+                        this.lote = 0;
+                    }
+                }
+            }
+
+            if (nombre.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer
+                    && method.getDeclaringClass() == PreparedStatement.class) {
+                parametro((Integer) args[0], "setNull".equals(nombre) ? null : args[1]);
+            } else if ("clearParameters".equals(nombre)) {
+                Arrays.fill(this.parametros, null);
+                this.cantidadParametros = 0;
+            } else if ("addBatch".equals(nombre) && args == null) {
+                this.lote++;
+            }
+
+            return invocar(this.statement, method, args);
+        }
+
+        private void parametro(final int indice, final Object valor) {
+
+            if (indice > this.parametros.length) {
+                this.parametros = Arrays.copyOf(this.parametros, Math.max(indice, this.parametros.length * 2));
+            }
+            this.parametros[indice - 1] = valor;
+            this.cantidadParametros = Math.max(this.cantidadParametros, indice);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return this.pool.getName();
+    }
+
+    @Override
+    public boolean isAutoCommit() {
+        return this.pool.isAutoCommit();
+    }
+
+    @Override
+    public void shutdown(final boolean deregisterDriver) {
+        this.pool.shutdown(deregisterDriver);
+    }
+
+    @Override
+    public PoolStatus getStatus(final boolean reset) {
+        return this.pool.getStatus(reset);
+    }
+
+    @Override
+    public PoolStatistics getStatistics(final boolean reset) {
+        return this.pool.getStatistics(reset);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return this.pool.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(final PrintWriter out) throws SQLException {
+        this.pool.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(final int seconds) throws SQLException {
+        this.pool.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return this.pool.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return this.pool.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        return iface.isInstance(this.pool) ? iface.cast(this.pool) : this.pool.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+        return iface.isInstance(this.pool) || this.pool.isWrapperFor(iface);
+    }
+
+}
@@ -1,19 +1,68 @@
 package cl.ucn.disc.isof.fivet.domain.service.ebean;
 
 import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.ControlResumen;
 import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.PacienteResumen;
 import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import cl.ucn.disc.isof.fivet.domain.search.IndiceInvertido;
+import cl.ucn.disc.isof.fivet.domain.search.IndiceTrigramas;
+import cl.ucn.disc.isof.fivet.domain.search.Normalizador;
 import cl.ucn.disc.isof.fivet.domain.service.BackendService;
+import cl.ucn.disc.isof.fivet.domain.service.CursorCambios;
+import cl.ucn.disc.isof.fivet.domain.service.FetchSpec;
+import cl.ucn.disc.isof.fivet.domain.service.PaginaCambios;
 import com.avaje.ebean.EbeanServer;
 import com.avaje.ebean.EbeanServerFactory;
 import com.avaje.ebean.Expr;
+import com.avaje.ebean.ExpressionList;
+import com.avaje.ebean.PersistenceContextScope;
+import com.avaje.ebean.Query;
+import com.avaje.ebean.SqlQuery;
+import com.avaje.ebean.SqlRow;
+import com.avaje.ebean.SqlUpdate;
+import com.avaje.ebean.Transaction;
+import com.avaje.ebean.cache.ServerCache;
+import com.avaje.ebean.cache.ServerCacheManager;
+import com.avaje.ebean.cache.ServerCacheStatistics;
 import com.avaje.ebean.config.EncryptKey;
-import com.avaje.ebean.config.EncryptKeyManager;
 import com.avaje.ebean.config.ServerConfig;
+import com.avaje.ebean.config.dbplatform.DbEncrypt;
+import com.avaje.ebean.config.dbplatform.DbEncryptFunction;
+import com.avaje.ebean.plugin.BeanType;
+import com.avaje.ebean.plugin.ExpressionPath;
 import com.durrutia.ebean.BaseModel;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.avaje.datasource.DataSourceFactory;
+import org.avaje.datasource.DataSourcePool;
+import org.avaje.datasource.PoolStatistics;
+import org.avaje.datasource.PoolStatus;
 
+import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Clase que se encarga de implementar en backend del sistema y hacer la conexion a la BD
@@ -24,16 +73,132 @@ import java.util.List;
 @Slf4j
 public class EbeanBackendService implements BackendService {
 
+    /**
+     * Cantidad de filas leidas por consulta al recorrer una tabla completa
+     */
+    private static final int TAMANIO_BLOQUE_RECORRIDO = 1000;
+
+    /**
+     * Cantidad maxima de candidatos del indice de nombres filtrados con IN, con mas el IN deja de ser selectivo
+     */
+    private static final int MAXIMO_CANDIDATOS_INDICE = 1000;
+
+    /**
+     * Propiedades de {@link BaseModel} que ebean asigna al insertar, ver {@link #estadoInicial(List)}
+     */
+    private static final String[] PROPIEDADES_INSERCION = {"id", "version", "whenCreated", "whenModified"};
+
+    /**
+     * Cantidad maxima de claves naturales en cada cache
+     */
+    private static final long CACHE_CLAVES_MAXIMO = 10000;
+
+    /**
+     * Tiempo de vida (segundos) de las claves naturales en cache
+     */
+    private static final long CACHE_CLAVES_TTL = 600;
+
     /**
      * EBean server
      */
     private final EbeanServer ebeanServer;
 
+    /**
+     * Cantidad de filas por lote (y por transaccion) en las inserciones masivas
+     */
+    private final int tamanioLote;
+
+    /**
+     * true si el driver retorna las claves generadas en los inserts en batch (sqlite solo retorna la ultima)
+     */
+    private final boolean batchConClaves;
+
+    /**
+     * Retraso (ms) del feed de cambios
+     */
+    private final long retrasoCambiosMillis;
+
+    /**
+     * Reintento de las escrituras en conflicto con otras transacciones
+     */
+    private final Reintentos reintentos;
+
+    /**
+     * Consultas lentas (null: no se registran)
+     */
+    private final RegistroConsultasLentas registroConsultasLentas;
+
+    /**
+     * Archivo de las filas eliminadas
+     */
+    private final ArchivoEliminados archivoEliminados;
+
+    /**
+     * Transacciones con escrituras en curso, acotan el feed de cambios
+     */
+    private final EscriturasEnCurso escriturasEnCurso = new EscriturasEnCurso();
+
+    /**
+     * Claves de encriptacion de las columnas @Encrypted
+     */
+    @Getter
+    private final GestorClaves gestorClaves;
+
+    /**
+     * Indice de trigramas de los nombres de los pacientes (busqueda por substring)
+     */
+    private final IndiceTrigramas indiceNombres = new IndiceTrigramas();
+
+    /**
+     * true si el indice de nombres esta construido (ver {@link #reconstruirIndices()}), hasta entonces las busquedas
+     * por nombre van directo a la base de datos
+     */
+    private volatile boolean indiceNombresConstruido;
+
+    /**
+     * Indice de texto completo del diagnostico y nota de los controles
+     */
+    private final IndiceInvertido indiceControles = new IndiceInvertido();
+
+    /**
+     * Cache rut / mail -> id de las personas
+     */
+    private final CacheClaveNatural cachePersonas = new CacheClaveNatural(CACHE_CLAVES_MAXIMO, CACHE_CLAVES_TTL);
+
+    /**
+     * Cache numero de ficha -> id de los pacientes
+     */
+    private final CacheClaveNatural cachePacientes = new CacheClaveNatural(CACHE_CLAVES_MAXIMO, CACHE_CLAVES_TTL);
+
     /**
      *Configuracion del Backend
      */
     public EbeanBackendService(final String database) {
+        this(ConfiguracionBackend.of(database));
+    }
+
+    /**
+     * Configuracion del Backend
+     * @param database nombre de la base de datos en ebean.properties
+     * @param tamanioLote cantidad de filas por lote en las inserciones masivas
+     */
+    public EbeanBackendService(final String database, final int tamanioLote) {
+        this(ConfiguracionBackend.builder().database(database).tamanioLote(tamanioLote).build());
+    }
+
+    /**
+     * Configuracion del Backend
+     * @param configuracion base de datos, pool de conexiones y cache de sentencias
+     */
+    public EbeanBackendService(final ConfiguracionBackend configuracion) {
+
+        Preconditions.checkNotNull(configuracion, "Configuracion null");
+        configuracion.validar();
+        this.tamanioLote = configuracion.getTamanioLote();
+        this.reintentos = configuracion.crearReintentos();
+        this.retrasoCambiosMillis = configuracion.getRetrasoCambiosMillis();
 
+        final String database = configuracion.getDatabase();
         log.debug("Loading EbeanBackend in database: {}", database);
 
         /**
@@ -44,6 +209,10 @@ public class EbeanBackendService implements BackendService {
         config.setDefaultServer(true);
         config.loadFromProperties();
 
+        // Pool de conexiones y cache de sentencias (sobre lo definido en ebean.properties)
+        configuracion.aplicar(config.getDataSourceConfig());
+        log.debug("Backend configuration: {}", configuracion);
+
         // Don't try this at home
         //config.setAutoCommitMode(false);
 
@@ -58,29 +227,56 @@ public class EbeanBackendService implements BackendService {
 
         config.addClass(Control.class);
 
+        // Sincronizacion de los indices en memoria
+        config.add(new IndicePacientesController(this.indiceNombres));
+        config.add(new IndiceControlesController(this.indiceControles));
+
+        // Invalidacion de los caches de claves naturales
+        config.add(new CacheClaveNaturalController(Persona.class, this.cachePersonas, "rut", "mail"));
+        config.add(new CacheClaveNaturalController(Paciente.class, this.cachePacientes, "numero"));
+
+        // Limite del feed de cambios
+        config.add(this.escriturasEnCurso);
+
+        // Cache L2 segun la politica de cada entidad (sobre las anotaciones del modelo)
+        final FabricaCache fabricaCache = new FabricaCache(configuracion.getPoliticasCachePorNombre());
+        config.setServerCacheManager(fabricaCache.crearManager(config));
 
         // http://ebean-orm.github.io/docs/query/autotune
         config.getAutoTuneConfig().setProfiling(false);
         config.getAutoTuneConfig().setQueryTuning(false);
 
-        config.setEncryptKeyManager(new EncryptKeyManager() {
+        // Claves de las columnas encriptadas, en memoria
+        this.gestorClaves = new GestorClaves(configuracion.getFuenteClaves());
+        config.setEncryptKeyManager(this.gestorClaves);
 
-            @Override
-            public void initialise() {
-                log.debug("Initializing EncryptKey ..");
-            }
+        // Registro de las consultas lentas, sobre el pool de conexiones
+        final DataSourcePool pool = config.service(DataSourceFactory.class)
+                .createPool(config.getName(), config.getDataSourceConfig());
+        final DataSourceConsultasLentas consultasLentas;
+        if (configuracion.getUmbralConsultaLentaMillis() == null) {
+            consultasLentas = null;
+            this.registroConsultasLentas = null;
+        } else {
+            this.registroConsultasLentas = new RegistroConsultasLentas(configuracion.getCapacidadConsultasLentas());
+            consultasLentas = new DataSourceConsultasLentas(pool, configuracion.getUmbralConsultaLentaMillis(),
+                    this.registroConsultasLentas, configuracion.isPlanConsultasLentas());
+        }
 
-            @Override
-            public EncryptKey getEncryptKey(final String tableName, final String columnName) {
+        // Confirmacion de los commits, ver AccionesPostCommit
+        config.setDataSource(new DataSourceCommits(consultasLentas == null ? pool : consultasLentas));
 
-                log.debug("gettingEncryptKey for {} in {}.", columnName, tableName);
+        this.ebeanServer = EbeanServerFactory.create(config);
+        fabricaCache.iniciarExpulsion(this.ebeanServer.getBackgroundExecutor());
 
-                // Return the encrypt key
-                return () -> tableName + columnName;
-            }
-        });
+        if (consultasLentas != null) {
+            consultasLentas.setPlataforma(this.ebeanServer.getPluginApi().getDatabasePlatform());
+        }
 
-        this.ebeanServer = EbeanServerFactory.create(config);
+        this.archivoEliminados = new ArchivoEliminados(this.ebeanServer, configuracion.getDirectorioArchivo(),
+                this.tamanioLote);
+
+        this.batchConClaves = !"sqlite".equals(this.ebeanServer.getPluginApi().getDatabasePlatform().getName());
 
         log.debug("EBeanServer ready to go.");
 
@@ -88,95 +284,1070 @@ public class EbeanBackendService implements BackendService {
 
 
     /**
-     * Metodo que retorna una persona segun su email
-     * @param rutEmail contiene un rut o un emailp para buscarlo en la BD
+     * Metodo que retorna una persona segun su rut o email. Si contiene una @ se busca por mail, si no por rut,
+     * de forma que la consulta use solo uno de los indices unicos (un OR entre ambos obliga a recorrer la tabla).
+     * @param rutEmail contiene un rut o un email para buscarlo en la BD
+     * @param fetch asociaciones a cargar
      * @return persona
      */
     @Override
-    public Persona getPersona(String rutEmail) {
+    public Persona getPersona(String rutEmail, FetchSpec... fetch) {
+
+        Preconditions.checkNotNull(rutEmail, "Rut o email null");
 
+        return esEmail(rutEmail)
+                ? this.findPorClaveNatural(Persona.class, this.cachePersonas, "mail", Persona::getMail, rutEmail, fetch)
+                : this.findPorClaveNatural(Persona.class, this.cachePersonas, "rut", Persona::getRut, rutEmail, fetch);
 
-        return this.ebeanServer.find(Persona.class)
-                .where().or(
-                        Expr.eq("rut",rutEmail),
-                        Expr.eq("mail", rutEmail)
-                ).findUnique();
+    }
 
+    /**
+     * @param rutEmail rut o email
+     * @return true si es un email
+     */
+    private static boolean esEmail(final String rutEmail) {
+        return rutEmail.indexOf('@') >= 0;
     }
 
     /**
      * Metodo que obtiene todos los pacientes de la BD
+     * @param fetch asociaciones a cargar
      * @return Lista con todos los pacientes
      */
     @Override
-    public List<Paciente> getPacientes() {
+    public List<Paciente> getPacientes(FetchSpec... fetch) {
+
+        return this.find(Paciente.class, fetch).findList();
+    }
+
+    /**
+     * Metodo que obtiene una pagina de pacientes ordenados por numero de ficha
+     * @param pagina numero de la pagina, partiendo en 0
+     * @param tamanio cantidad maxima de pacientes de la pagina
+     * @param fetch asociaciones a cargar
+     * @return Lista con los pacientes de la pagina
+     */
+    @Override
+    public List<Paciente> getPacientes(int pagina, int tamanio, FetchSpec... fetch) {
+
+        Preconditions.checkArgument(pagina >= 0, "Pagina negativa: %s", pagina);
+        Preconditions.checkArgument(tamanio > 0, "Tamanio de pagina invalido: %s", tamanio);
+
+        return this.find(Paciente.class, fetch)
+                .orderBy().asc("numero")
+                .setFirstRow(pagina * tamanio)
+                .setMaxRows(tamanio)
+                .findList();
+    }
+
+    /**
+     * Metodo que obtiene los pacientes siguientes a un numero de ficha (keyset)
+     * @param numeroDesde ultimo numero de ficha recibido, null para partir del inicio
+     * @param cantidad cantidad maxima de pacientes a retornar
+     * @param fetch asociaciones a cargar
+     * @return Lista de pacientes con numero mayor a numeroDesde
+     */
+    @Override
+    public List<Paciente> getPacientesDesde(Integer numeroDesde, int cantidad, FetchSpec... fetch) {
+
+        Preconditions.checkArgument(cantidad > 0, "Cantidad invalida: %s", cantidad);
+
+        final ExpressionList<Paciente> where = this.find(Paciente.class, fetch).where();
+        if (numeroDesde != null) {
+            where.gt("numero", numeroDesde);
+        }
+
+        return where
+                .orderBy().asc("numero")
+                .setMaxRows(cantidad)
+                .findList();
+    }
+
+    /**
+     * Metodo que obtiene una pagina del listado resumido de pacientes. Solo se seleccionan las columnas del
+     * resumen y cada bean se descarta apenas se copia al resumen.
+     * @param pagina numero de la pagina, partiendo en 0
+     * @param tamanio cantidad maxima de pacientes de la pagina
+     * @return Lista con los resumenes de la pagina
+     */
+    @Override
+    public List<PacienteResumen> getPacientesResumen(int pagina, int tamanio) {
+
+        Preconditions.checkArgument(pagina >= 0, "Pagina negativa: %s", pagina);
+        Preconditions.checkArgument(tamanio > 0, "Tamanio de pagina invalido: %s", tamanio);
+
+        final List<PacienteResumen> resumenes = new ArrayList<>(tamanio);
+
+        this.ebeanServer.find(Paciente.class)
+                .select("numero, nombre, raza, sexo, color")
+                .setPersistenceContextScope(PersistenceContextScope.QUERY)
+                .setUseCache(false)
+                .setDisableLazyLoading(true)
+                .orderBy().asc("numero")
+                .setFirstRow(pagina * tamanio)
+                .setMaxRows(tamanio)
+                .findEach(paciente -> resumenes.add(PacienteResumen.builder()
+                        .numero(paciente.getNumero())
+                        .nombre(paciente.getNombre())
+                        .raza(paciente.getRaza())
+                        .sexo(paciente.getSexo())
+                        .color(paciente.getColor())
+                        .build()));
+
+        return resumenes;
+    }
+
+    /**
+     * Metodo que obtiene el listado resumido de los controles de un paciente, sin construir entidades
+     * @param numeroPaciente numero de ficha del paciente
+     * @return Lista con los resumenes de los controles ordenados por fecha
+     */
+    @Override
+    public List<ControlResumen> getControlesResumen(Integer numeroPaciente) {
+
+        Preconditions.checkNotNull(numeroPaciente, "Numero de paciente null");
+
+        final SqlQuery query = this.ebeanServer.createSqlQuery(
+                "select c.fecha, c.prox_control, c.diagnostico, v.nombre as veterinario "
+                        + "from control c "
+                        + "join paciente_control pc on pc.control_id = c.id "
+                        + "join paciente p on p.id = pc.paciente_id "
+                        + "left join persona v on v.id = c.veterinario_id "
+                        + "where p.numero = :numero and p.deleted = :deleted and c.deleted = :deleted "
+                        + "order by c.fecha")
+                .setParameter("numero", numeroPaciente)
+                .setParameter("deleted", false);
+
+        final List<ControlResumen> resumenes = new ArrayList<>();
+
+        query.findEach(row -> resumenes.add(ControlResumen.builder()
+                .fecha(row.getTimestamp("fecha"))
+                .proxControl(row.getTimestamp("prox_control"))
+                .diagnostico(row.getString("diagnostico"))
+                .nombreVeterinario(row.getString("veterinario"))
+                .build()));
+
+        return resumenes;
+    }
+
+    /**
+     * Metodo que recorre todos los pacientes de la BD
+     * @param consumer a invocar por cada paciente
+     */
+    @Override
+    public void forEachPaciente(Consumer<Paciente> consumer) {
+
+        this.forEach(Paciente.class, consumer);
+    }
+
+    /**
+     * Metodo que recorre todos los controles de la BD
+     * @param consumer a invocar por cada control
+     */
+    @Override
+    public void forEachControl(Consumer<Control> consumer) {
+
+        this.forEach(Control.class, consumer);
+    }
+
+    /**
+     * Recorre una tabla completa en bloques de {@link #TAMANIO_BLOQUE_RECORRIDO} filas ordenadas por id.
+     * Cada bloque es una consulta independiente (keyset por id) con su propio contexto de persistencia,
+     * de esta forma la memoria utilizada no depende del tamanio de la tabla.
+     * @param clazz tipo de entidad a recorrer
+     * @param consumer a invocar por cada entidad
+     */
+    private <T extends BaseModel> void forEach(final Class<T> clazz, final Consumer<? super T> consumer) {
+        this.forEach(clazz, null, consumer);
+    }
+
+    /**
+     * Recorre una tabla completa en bloques, ver {@link #forEach(Class, Consumer)}.
+     * @param clazz tipo de entidad a recorrer
+     * @param select propiedades a cargar, null para cargar todas
+     * @param consumer a invocar por cada entidad
+     */
+    private <T extends BaseModel> void forEach(final Class<T> clazz, final String select, final Consumer<? super T> consumer) {
+
+        Preconditions.checkNotNull(consumer, "Consumer null");
+
+        final Long[] ultimoId = {0L};
+        final int[] leidos = new int[1];
+
+        do {
+            leidos[0] = 0;
+
+            final Query<T> query = this.ebeanServer.find(clazz);
+            if (select != null) {
+                query.select(select);
+            }
+
+            query.setPersistenceContextScope(PersistenceContextScope.QUERY)
+                    .setUseCache(false)
+                    .setBufferFetchSizeHint(TAMANIO_BLOQUE_RECORRIDO)
+                    .where().gt("id", ultimoId[0])
+                    .orderBy().asc("id")
+                    .setMaxRows(TAMANIO_BLOQUE_RECORRIDO)
+                    .findEach(bean -> {
+                        consumer.accept(bean);
+                        ultimoId[0] = bean.getId();
+                        leidos[0]++;
+                    });
 
-        return this.ebeanServer.find(Paciente.class).findList();
+        } while (leidos[0] == TAMANIO_BLOQUE_RECORRIDO);
     }
 
     /**
      * Metodo que pbtiene un paciente segun el numero de paciente
      * @param numeroPaciente numero de paciente de una ficha medica
+     * @param fetch asociaciones a cargar
      * @return Paciente de la BD con el numero de ficha dado
      */
     @Override
-    public Paciente getPaciente(Integer numeroPaciente) {
-        return this.ebeanServer.find(Paciente.class).where(
-                Expr.eq("numero", numeroPaciente)
-        ).findUnique();
+    public Paciente getPaciente(Integer numeroPaciente, FetchSpec... fetch) {
+
+        Preconditions.checkNotNull(numeroPaciente, "Numero de paciente null");
+
+        return this.findPorClaveNatural(Paciente.class, this.cachePacientes, "numero", Paciente::getNumero, numeroPaciente, fetch);
+    }
+
+    /**
+     * Busca una entidad por una clave natural (unica). El id asociado a la clave se mantiene en cache, de forma
+     * que las siguientes busquedas se resuelven por id (cache de beans de la entidad, ver {@link CacheClaveNatural});
+     * si el bean obtenido ya no corresponde a la clave (cambio o eliminacion) la entrada se invalida y se consulta
+     * nuevamente.
+     * @param clazz tipo de la entidad
+     * @param cache cache de la clave natural
+     * @param propiedad nombre de la propiedad de la clave
+     * @param getter de la propiedad de la clave
+     * @param valor de la clave a buscar
+     * @param fetch asociaciones a cargar
+     * @return la entidad o null si no existe
+     */
+    private <T extends BaseModel> T findPorClaveNatural(final Class<T> clazz, final CacheClaveNatural cache,
+                                                        final String propiedad, final Function<T, Object> getter,
+                                                        final Object valor, final FetchSpec... fetch) {
+
+        final Long id = cache.get(valor);
+        if (id != null) {
+            final T bean = this.find(clazz, fetch).setId(id).findUnique();
+            if (bean != null && valor.equals(getter.apply(bean))) {
+                return bean;
+            }
+            cache.invalidar(valor);
+        }
+
+        final T bean = this.find(clazz, fetch).where().eq(propiedad, valor).findUnique();
+        if (bean != null) {
+            cache.put(valor, bean.getId());
+        }
+        return bean;
+    }
+
+    /**
+     * @return las estadisticas del cache rut / mail -> persona.
+     */
+    public CacheStats getEstadisticasCachePersonas() {
+        return this.cachePersonas.getEstadisticas();
+    }
+
+    /**
+     * @return las estadisticas del cache numero de ficha -> paciente.
+     */
+    public CacheStats getEstadisticasCachePacientes() {
+        return this.cachePacientes.getEstadisticas();
+    }
+
+    /**
+     * @return la cantidad de invalidaciones de los caches de claves naturales (personas + pacientes).
+     */
+    public long getInvalidacionesCacheClaves() {
+        return this.cachePersonas.getInvalidaciones() + this.cachePacientes.getInvalidaciones();
+    }
+
+    /**
+     * @param clazz entidad.
+     * @return las estadisticas del cache de beans de la entidad: aciertos, fallos e invalidaciones (remove / clear).
+     */
+    public ServerCacheStatistics getEstadisticasCacheBeans(final Class<?> clazz) {
+        return this.ebeanServer.getServerCacheManager().getBeanCache(clazz).getStatistics(false);
+    }
+
+    /**
+     * @param clazz entidad.
+     * @return las estadisticas del cache de consultas de la entidad: aciertos, fallos e invalidaciones (clear).
+     */
+    public ServerCacheStatistics getEstadisticasCacheConsultas(final Class<?> clazz) {
+        return this.ebeanServer.getServerCacheManager().getQueryCache(clazz).getStatistics(false);
+    }
+
+    /**
+     * Rota la clave de una columna encriptada: re-encripta todos sus valores con la nueva clave, en una transaccion,
+     * por bloques de ids (tamanio de lote) cuyas filas quedan bloqueadas (select .. for update) hasta el commit.
+     * La nueva clave se guarda en la fuente de claves antes del commit (si el commit falla se vuelve a guardar la
+     * anterior); solo se puede rotar con una fuente que guarde claves ({@link FuenteClaves#isEscribible()}), con
+     * cualquier otra la clave rotada se perderia al reiniciar y con ella los datos. Si la aplicacion se detiene entre
+     * el guardado y el commit la fuente queda con la nueva clave y los datos con la anterior: se debe volver a guardar
+     * la anterior antes de reintentar.
+     * Las escrituras sobre la tabla deben estar detenidas: al iniciar no puede haber escrituras en curso en este
+     * backend y las que lleguen durante la rotacion se rechazan (IllegalStateException). El bloqueo de filas no
+     * detiene las inserciones de otros procesos, que deben detenerse antes de rotar. Las lecturas durante la rotacion
+     * pueden usar la clave equivocada.
+     *
+     * @param tabla de la columna.
+     * @param columna encriptada.
+     * @param nuevaClave de la columna, en el formato de la fuente de claves (ej: hexadecimal en un keystore).
+     * @return la cantidad de filas re-encriptadas.
+     * @throws IllegalStateException si la fuente de claves no puede guardar claves o hay escrituras en curso.
+     */
+    public int rotarClave(final String tabla, final String columna, final String nuevaClave) {
+
+        Preconditions.checkState(this.gestorClaves.isRotable(),
+                "La fuente de claves no puede guardar claves, no se puede rotar la clave de %s.%s", tabla, columna);
+
+        final DbEncrypt dbEncrypt = this.ebeanServer.getPluginApi().getDatabasePlatform().getDbEncrypt();
+        Preconditions.checkState(dbEncrypt != null, "La base de datos no encripta en el servidor, no se puede rotar la clave");
+        final DbEncryptFunction funcion = dbEncrypt.getDbEncryptFunction(Types.VARCHAR);
+
+        // Escrituras detenidas: las de este backend se rechazan y no debe quedar ninguna en curso
+        final List<Class<?>> tipos = this.ebeanServer.getPluginApi().getBeanTypes(tabla).stream()
+                .map(BeanType::getBeanType)
+                .collect(Collectors.toList());
+        tipos.forEach(this.escriturasEnCurso::detener);
+        try {
+            Preconditions.checkState(!this.escriturasEnCurso.isEscribiendo(),
+                    "Escrituras en curso, no se puede rotar la clave de %s.%s", tabla, columna);
+            return this.rotarClave(tabla, columna, nuevaClave, dbEncrypt, funcion);
+        } finally {
+            tipos.forEach(this.escriturasEnCurso::reanudar);
+        }
+    }
+
+    /**
+     * Re-encripta los valores de la columna con la nueva clave, ver {@link #rotarClave(String, String, String)}.
+     */
+    private int rotarClave(final String tabla, final String columna, final String nuevaClave, final DbEncrypt dbEncrypt,
+                           final DbEncryptFunction funcion) {
+
+        final Transaction transaction = this.ebeanServer.beginTransaction();
+        final EncryptKey anterior = this.gestorClaves.getEncryptKey(tabla, columna);
+        boolean guardada = false;
+        try {
+            transaction.setBatchMode(true);
+            transaction.setBatchSize(this.tamanioLote);
+            final String update = "update " + tabla + " set " + columna + " = " + funcion.getEncryptBindSql() + " where id = ?";
+            final AtomicInteger filas = new AtomicInteger();
+
+            Long ultimo = 0L;
+            while (true) {
+
+                // Bloque de ids
+                final List<SqlRow> ids = this.ebeanServer.createSqlQuery(
+                        "select id from " + tabla + " where id > ? order by id")
+                        .setParameter(1, ultimo)
+                        .setMaxRows(this.tamanioLote)
+                        .findList();
+                if (ids.isEmpty()) {
+                    break;
+                }
+                final Long primero = ids.get(0).getLong("id");
+                ultimo = ids.get(ids.size() - 1).getLong("id");
+
+                // Valores del bloque desencriptados con la clave actual, filas bloqueadas hasta el commit ..
+                this.ebeanServer.createSqlQuery("select id, " + funcion.getDecryptSql(columna) + " as valor from "
+                        + tabla + " where id >= ? and id <= ? for update")
+                        .setParameter(1, anterior.getStringValue())
+                        .setParameter(2, primero)
+                        .setParameter(3, ultimo)
+                        .findEach(fila -> {
+
+                            // .. y encriptados con la nueva
+                            final String valor = fila.getString("valor");
+                            this.ebeanServer.execute(this.ebeanServer.createSqlUpdate(update)
+                                    .setParameter(1, dbEncrypt.isBindEncryptDataFirst() ? valor : nuevaClave)
+                                    .setParameter(2, dbEncrypt.isBindEncryptDataFirst() ? nuevaClave : valor)
+                                    .setParameter(3, fila.getLong("id")), transaction);
+                            filas.incrementAndGet();
+                        });
+                transaction.flushBatch();
+            }
+
+            // La nueva clave queda guardada antes de que los datos dependan de ella
+            this.gestorClaves.rotar(tabla, columna, nuevaClave);
+            guardada = true;
+            transaction.commit();
+
+            log.info("Rotated EncryptKey for {} in {}: {} rows.", columna, tabla, filas.get());
+            return filas.get();
+
+        } catch (RuntimeException ex) {
+            if (guardada) {
+                try {
+                    this.gestorClaves.rotar(tabla, columna, anterior.getStringValue());
+                } catch (RuntimeException restaurar) {
+                    ex.addSuppressed(restaurar);
+                }
+            }
+            throw ex;
+        } finally {
+            transaction.end();
+        }
+    }
+
+    /**
+     * @return el estado actual del pool de conexiones (libres, ocupadas, en espera y maximo historico).
+     */
+    public PoolStatus getEstadoPool() {
+        return this.pool().getStatus(false);
+    }
+
+    /**
+     * @param reiniciar true para comenzar un nuevo periodo de medicion.
+     * @return la cantidad y el tiempo de uso de las conexiones desde el inicio del periodo.
+     */
+    public PoolStatistics getEstadisticasPool(final boolean reiniciar) {
+        return this.pool().getStatistics(reiniciar);
+    }
+
+    /**
+     * @return la fraccion (0 a 1) de las conexiones maximas del pool que estan ocupadas.
+     */
+    public double getUtilizacionPool() {
+
+        final PoolStatus estado = this.getEstadoPool();
+        return estado.getMaxSize() == 0 ? 0 : (double) estado.getBusy() / estado.getMaxSize();
+    }
+
+    /**
+     * Archiva las filas eliminadas (soft delete) hace mas de la retencion: las mueve a un archivo comprimido por
+     * entidad, en lotes, de forma que las consultas (y el predicado deleted = false) no recorran las filas eliminadas.
+     * Primero los controles y luego los pacientes y las personas, que solo se archivan cuando ya no los referencia un
+     * control (un paciente con controles o un veterinario con controles se archivan en una ejecucion posterior).
+     * Las relaciones de las filas archivadas (paciente - control y persona - paciente) se archivan con ellas, ver
+     * {@link #forEachRelacionArchivada(String, Consumer)}.
+     * <p>
+     * La retencion es tambien el atraso maximo del feed de cambios: un cursor anterior al limite de la ultima
+     * ejecucion que archivo filas de la entidad se rechaza en {@link #getCambios(Class, CursorCambios, int)}, ya que
+     * los eliminados archivados no vuelven al feed.
+     *
+     * @param retencionMillis tiempo que las filas eliminadas permanecen en su tabla (y en el feed de cambios).
+     * @return la cantidad de filas archivadas de cada entidad.
+     */
+    public Map<Class<? extends BaseModel>, Integer> archivarEliminados(final long retencionMillis) {
+
+        Preconditions.checkArgument(retencionMillis >= 0, "Retencion invalida: %s", retencionMillis);
+        final Timestamp limite = new Timestamp(System.currentTimeMillis() - retencionMillis);
+
+        final Map<Class<? extends BaseModel>, Integer> archivadas = new LinkedHashMap<>();
+        archivadas.put(Control.class, this.archivoEliminados.archivar(Control.class, limite, null,
+                ImmutableList.of(new ArchivoEliminados.Intermedia("paciente_control", "control_id", "paciente_id",
+                        Paciente.class, "Controles"))));
+        archivadas.put(Paciente.class, this.archivoEliminados.archivar(Paciente.class, limite,
+                "id not in (select paciente_id from paciente_control)",
+                ImmutableList.of(new ArchivoEliminados.Intermedia("persona_paciente", "paciente_id", "persona_id",
+                        Persona.class, "pacientes"))));
+        archivadas.put(Persona.class, this.archivoEliminados.archivar(Persona.class, limite,
+                "id not in (select veterinario_id from control where veterinario_id is not null)",
+                ImmutableList.of(new ArchivoEliminados.Intermedia("persona_paciente", "persona_id", "persona_id",
+                        Persona.class, "pacientes"))));
+        return archivadas;
+    }
+
+    /**
+     * Recorre las filas archivadas de una entidad (sin sus columnas encriptadas ni sus colecciones, ver
+     * {@link #forEachRelacionArchivada(String, Consumer)}).
+     *
+     * @param tipo     de la entidad.
+     * @param consumer a invocar por cada modelo archivado, en orden de archivo.
+     */
+    public <T extends BaseModel> void forEachArchivado(final Class<T> tipo, final Consumer<T> consumer) {
+
+        Preconditions.checkNotNull(tipo, "Tipo null");
+        Preconditions.checkNotNull(consumer, "Consumer null");
+        this.archivoEliminados.forEach(tipo, consumer);
+    }
+
+    /**
+     * Recorre las relaciones archivadas de una tabla intermedia (paciente_control o persona_paciente): las columnas
+     * de cada fila (ej: paciente_id -> control_id) archivada junto a un control, paciente o persona.
+     *
+     * @param tabla    intermedia.
+     * @param consumer a invocar por cada fila archivada (columna -> id), en orden de archivo.
+     */
+    public void forEachRelacionArchivada(final String tabla, final Consumer<Map<String, Object>> consumer) {
+
+        Preconditions.checkNotNull(tabla, "Tabla null");
+        Preconditions.checkNotNull(consumer, "Consumer null");
+        this.archivoEliminados.forEachRelacion(tabla, consumer);
+    }
+
+    /**
+     * @return las consultas lentas mas recientes (de la mas reciente a la mas antigua), vacio si no se registran.
+     */
+    public List<ConsultaLenta> getConsultasLentas() {
+        return this.registroConsultasLentas == null ? new ArrayList<>() : this.registroConsultasLentas.getConsultas();
+    }
+
+    /**
+     * @return la cantidad de consultas lentas registradas desde el inicio (incluidas las que ya no se mantienen).
+     */
+    public long getTotalConsultasLentas() {
+        return this.registroConsultasLentas == null ? 0 : this.registroConsultasLentas.getTotal();
+    }
+
+    /**
+     * Descarta las consultas lentas registradas.
+     */
+    public void limpiarConsultasLentas() {
+        if (this.registroConsultasLentas != null) {
+            this.registroConsultasLentas.limpiar();
+        }
+    }
+
+    /**
+     * @return el EbeanServer del backend (carga de datos de las pruebas).
+     */
+    EbeanServer getEbeanServer() {
+        return this.ebeanServer;
+    }
+
+    /**
+     * @return el pool de conexiones del servidor.
+     */
+    private DataSourcePool pool() {
+
+        final DataSource dataSource = this.ebeanServer.getPluginApi().getDataSource();
+        Preconditions.checkState(dataSource instanceof DataSourcePool, "DataSource sin pool: %s", dataSource);
+        return (DataSourcePool) dataSource;
     }
 
     /**
      * Metodo que entrega los controles realizados por el veterinario
      * @param rutVeterinario rut del veterinario que realizo el control
+     * @param fetch asociaciones a cargar
      * @return Lista de los controles
      */
     @Override
-    public List<Control> getControlesVeterinario(String rutVeterinario) {
+    public List<Control> getControlesVeterinario(String rutVeterinario, FetchSpec... fetch) {
 
-        return this.ebeanServer.find(Control.class).where()
+        return this.find(Control.class, fetch).where()
                 .eq("veterinario.rut",rutVeterinario)
                 .findList();
 
     }
 
     /**
-     * Metodo que busca los pacientes por nombre
-     * @param nombre es el nombre del paciente a buscar
-     * @return Lista de pacientes con el nombre ingresado
+     * Metodo que entrega una pagina de los controles realizados por el veterinario en un rango de fechas, usando el
+     * indice (veterinario, fecha)
+     * @param rutVeterinario rut del veterinario que realizo el control
+     * @param desde fecha inicial (incluida)
+     * @param hasta fecha final (excluida)
+     * @param pagina numero de la pagina, partiendo en 0
+     * @param tamanio cantidad maxima de controles de la pagina
+     * @param fetch asociaciones a cargar
+     * @return Lista de los controles ordenados por fecha
+     */
+    @Override
+    public List<Control> getControlesVeterinario(String rutVeterinario, Date desde, Date hasta, int pagina, int tamanio,
+                                                 FetchSpec... fetch) {
+
+        Preconditions.checkNotNull(rutVeterinario, "Rut veterinario null");
+        checkRango(desde, hasta, pagina, tamanio);
+
+        return this.find(Control.class, fetch).where()
+                .eq("veterinario.rut", rutVeterinario)
+                .ge("fecha", desde)
+                .lt("fecha", hasta)
+                .orderBy().asc("fecha").orderBy().asc("id")
+                .setFirstRow(pagina * tamanio)
+                .setMaxRows(tamanio)
+                .findList();
+    }
+
+    /**
+     * Metodo que entrega una pagina de los controles con proximo control en un rango de fechas, usando el indice de
+     * proxControl
+     * @param rutVeterinario rut del veterinario que realizo el control, null para todos
+     * @param desde fecha inicial (incluida)
+     * @param hasta fecha final (excluida)
+     * @param pagina numero de la pagina, partiendo en 0
+     * @param tamanio cantidad maxima de controles de la pagina
+     * @param fetch asociaciones a cargar
+     * @return Lista de los controles ordenados por fecha del proximo control
+     */
+    @Override
+    public List<Control> getProximosControles(String rutVeterinario, Date desde, Date hasta, int pagina, int tamanio,
+                                              FetchSpec... fetch) {
+
+        checkRango(desde, hasta, pagina, tamanio);
+
+        final ExpressionList<Control> where = this.find(Control.class, fetch).where()
+                .ge("proxControl", desde)
+                .lt("proxControl", hasta);
+        if (rutVeterinario != null) {
+            where.eq("veterinario.rut", rutVeterinario);
+        }
+
+        return where
+                .orderBy().asc("proxControl").orderBy().asc("id")
+                .setFirstRow(pagina * tamanio)
+                .setMaxRows(tamanio)
+                .findList();
+    }
+
+    /**
+     * Metodo que entrega los cambios de una entidad posteriores al cursor, incluidos los eliminados (soft delete),
+     * usando el indice de whenModified. Los cambios posteriores a la primera escritura de la transaccion en curso mas
+     * antigua de este backend, o de los ultimos milisegundos (retraso del feed, para las transacciones de otros
+     * procesos), quedan para la siguiente consulta: una transaccion que tarda en hacer commit detiene el feed en vez
+     * de quedar detras del cursor.
+     * La retencion de {@link #archivarEliminados(long)} es el atraso maximo de un cursor: los eliminados archivados
+     * ya no estan en el feed, por lo que un cursor anterior al limite del ultimo archivo de la entidad se rechaza y
+     * el cliente debe sincronizar desde el inicio
+     * @param tipo de la entidad
+     * @param desde cursor del ultimo cambio recibido, null para partir del inicio
+     * @param cantidad maxima de cambios a retornar
+     * @return Pagina con los cambios ordenados por fecha de modificacion e id, y el cursor siguiente
+     * @throws IllegalArgumentException si el cursor es anterior al ultimo archivo de eliminados de la entidad
+     */
+    @Override
+    public <T extends BaseModel> PaginaCambios<T> getCambios(final Class<T> tipo, final CursorCambios desde,
+                                                             final int cantidad) {
+
+        Preconditions.checkNotNull(tipo, "Tipo null");
+        Preconditions.checkArgument(cantidad > 0, "Cantidad invalida: %s", cantidad);
+
+        final CursorCambios cursor = desde == null ? CursorCambios.INICIO : desde;
+        Preconditions.checkArgument(cursor.equals(CursorCambios.INICIO)
+                        || cursor.getWhenModified() >= this.archivoEliminados.getLimite(tipo),
+                "Cursor %s anterior al archivo de %s eliminados, se debe sincronizar desde el inicio",
+                cursor, tipo.getSimpleName());
+        final Timestamp whenModified = new Timestamp(cursor.getWhenModified());
+        final long hasta = Math.min(System.currentTimeMillis() - this.retrasoCambiosMillis,
+                this.escriturasEnCurso.getPrimeraEscritura());
+
+        final List<T> cambios = this.ebeanServer.find(tipo)
+                .setIncludeSoftDeletes()
+                .where()
+                .ge("whenModified", whenModified)
+                .lt("whenModified", new Timestamp(hasta))
+                .or(Expr.gt("whenModified", whenModified),
+                        Expr.and(Expr.eq("whenModified", whenModified), Expr.gt("id", cursor.getId())))
+                .orderBy().asc("whenModified").orderBy().asc("id")
+                .setMaxRows(cantidad + 1)
+                .findList();
+
+        final boolean pendientes = cambios.size() > cantidad;
+        final List<T> pagina = pendientes ? new ArrayList<>(cambios.subList(0, cantidad)) : cambios;
+        return new PaginaCambios<>(pagina,
+                pagina.isEmpty() ? cursor : CursorCambios.of(pagina.get(pagina.size() - 1)), pendientes);
+    }
+
+    /**
+     * Valida el rango de fechas y la pagina de una consulta por rango.
+     */
+    private static void checkRango(final Date desde, final Date hasta, final int pagina, final int tamanio) {
+
+        Preconditions.checkNotNull(desde, "Fecha desde null");
+        Preconditions.checkNotNull(hasta, "Fecha hasta null");
+        Preconditions.checkArgument(!hasta.before(desde), "Rango invalido: %s - %s", desde, hasta);
+        Preconditions.checkArgument(pagina >= 0, "Pagina negativa: %s", pagina);
+        Preconditions.checkArgument(tamanio > 0, "Tamanio de pagina invalido: %s", tamanio);
+    }
+
+    /**
+     * Metodo que busca los pacientes cuyo nombre comienza con el nombre dado (sin considerar mayusculas ni
+     * tildes), usando el indice de la columna nombreBusqueda
+     * @param nombre es el inicio del nombre del paciente a buscar
+     * @param fetch asociaciones a cargar
+     * @return Lista de pacientes cuyo nombre comienza con el nombre ingresado
+     */
+    @Override
+    public List<Paciente> getPacientesPorNombre(String nombre, FetchSpec... fetch) {
+
+        Preconditions.checkNotNull(nombre, "Nombre null");
+
+        return this.find(Paciente.class, fetch).where()
+                .startsWith("nombreBusqueda", Normalizador.normalizar(nombre))
+                .orderBy().asc("nombre")
+                .findList();
+    }
+
+    /**
+     * Metodo que busca los pacientes que contienen el texto en su nombre. Los candidatos se obtienen del indice
+     * de trigramas en memoria y luego se verifican en la base de datos; los textos de menos de 3 caracteres
+     * (o con demasiados candidatos) se buscan directamente en la base de datos, al igual que todos mientras el
+     * indice no este construido ({@link #initialize()}).
+     * <p>
+     * El indice solo ve las escrituras de este backend: los pacientes escritos por otros procesos o con SQL directo
+     * se encuentran despues de {@link #reconstruirIndices()}.
+     * @param texto texto a buscar en el nombre
+     * @param fetch asociaciones a cargar
+     * @return Lista de pacientes que contienen el texto
      */
     @Override
-    public List<Paciente> getPacientesPorNombre(String nombre) {
+    public List<Paciente> buscarPacientesPorNombre(String texto, FetchSpec... fetch) {
+
+        Preconditions.checkNotNull(texto, "Texto null");
 
-        return ebeanServer.find(Paciente.class).where()
-                .eq("nombre",nombre)
+        final String normalizado = Normalizador.normalizar(texto);
+        final Set<Long> candidatos = this.indiceNombresConstruido ? this.indiceNombres.candidatos(normalizado) : null;
+
+        if (candidatos != null && candidatos.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Demasiados candidatos: el IN deja de ser selectivo, se busca directamente
+        final ExpressionList<Paciente> where = this.find(Paciente.class, fetch).where();
+        if (candidatos != null && candidatos.size() <= MAXIMO_CANDIDATOS_INDICE) {
+            where.idIn(new ArrayList<>(candidatos));
+        }
+
+        return where
+                .contains("nombreBusqueda", normalizado)
+                .orderBy().asc("nombre")
                 .findList();
     }
 
     /**
-     * Metodo que agrega un control dado a un paciente dado. Ambos se ingresan por parametros
+     * Metodo que busca controles por texto completo en el diagnostico y nota, usando el indice invertido
+     * en memoria para rankear y la base de datos para cargar los controles
+     * @param texto texto a buscar
+     * @param maximo cantidad maxima de controles
+     * @param fetch asociaciones a cargar
+     * @return Lista de controles del mas al menos relevante
+     */
+    @Override
+    public List<Control> buscarControles(String texto, int maximo, FetchSpec... fetch) {
+
+        Preconditions.checkNotNull(texto, "Texto null");
+        Preconditions.checkArgument(maximo > 0, "Maximo invalido: %s", maximo);
+
+        final List<Long> ids = this.indiceControles.buscar(texto, maximo);
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        final Map<?, Control> controles = this.find(Control.class, fetch)
+                .where().idIn(ids)
+                .findMap();
+
+        // Orden del ranking (los eliminados en otra transaccion no vuelven)
+        final List<Control> resultado = new ArrayList<>(ids.size());
+        for (final Long id : ids) {
+            final Control control = controles.get(id);
+            if (control != null) {
+                resultado.add(control);
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Crea la consulta de una entidad cargando las asociaciones solicitadas: las asociaciones simples (ToOne)
+     * se cargan en el mismo join y las colecciones (ToMany) en una segunda consulta, evitando el producto
+     * cartesiano y la carga perezosa fila a fila.
+     * @param clazz tipo de la entidad
+     * @param fetch asociaciones a cargar
+     * @return la consulta
+     */
+    private <T> Query<T> find(final Class<T> clazz, final FetchSpec... fetch) {
+
+        return FetchSpec.aplicar(this.ebeanServer.find(clazz), clazz, fetch);
+    }
+
+    /**
+     * Metodo que agrega un control dado a un paciente dado. Ambos se ingresan por parametros.
+     * Solo resuelve el id del paciente e inserta el control y la fila de la tabla intermedia, sin cargar el paciente
+     * ni sus controles previos. Tras el commit se invalidan los controles cacheados del paciente.
      * @param control control que se agregara el paciente
      * @param numeroPaciente numero del paciente al cual se le asignara el control
      */
     @Override
     public void agregarControl(Control control, Integer numeroPaciente) {
 
-        Paciente paciente = ebeanServer.find(Paciente.class).where()
-                .eq("numero", numeroPaciente)
-                .findUnique();
+        Preconditions.checkNotNull(control, "Control null");
+        Preconditions.checkNotNull(numeroPaciente, "Numero de paciente null");
+
+        final Runnable estadoInicial = this.estadoInicial(Collections.singletonList(control));
+        this.escribir("agregarControl", () -> {
+
+            estadoInicial.run();
+            final Transaction transaction = this.ebeanServer.beginTransaction();
+            try {
+                final SqlRow paciente = this.ebeanServer.createSqlQuery(
+                        "select id from paciente where numero = :numero and deleted = :deleted")
+                        .setParameter("numero", numeroPaciente)
+                        .setParameter("deleted", false)
+                        .findUnique();
+                if (paciente == null) {
+                    throw new RuntimeException("No se encontro el paciente con numero " + numeroPaciente);
+                }
+                final Long idPaciente = paciente.getLong("id");
+
+                this.ebeanServer.insert(control, transaction);
+
+                final List<Long[]> filas = new ArrayList<>(1);
+                filas.add(new Long[]{idPaciente, control.getId()});
+                insertPacienteControl(filas, transaction);
+
+                transaction.commit();
+            } finally {
+                transaction.end();
+            }
+        });
+    }
+
+    /**
+     * Metodo que agrega masivamente controles a sus pacientes. Los pacientes se resuelven con una consulta
+     * por lote (solo id y numero) y luego los controles y las filas de la tabla intermedia se insertan en lotes, una
+     * transaccion por lote.
+     * @param controles controles a agregar agrupados por numero de paciente
+     */
+    @Override
+    public void agregarControles(Map<Integer, List<Control>> controles) {
+
+        Preconditions.checkNotNull(controles, "Controles null");
+        if (controles.isEmpty()) {
+            return;
+        }
+
+        // numero -> id de los pacientes involucrados
+        final Map<Integer, Long> ids = new HashMap<>();
+        for (final List<Integer> numeros : Iterables.partition(controles.keySet(), this.tamanioLote)) {
+            this.ebeanServer.find(Paciente.class)
+                    .select("id, numero")
+                    .setUseCache(false)
+                    .where().in("numero", numeros)
+                    .findEach(paciente -> ids.put(paciente.getNumero(), paciente.getId()));
+        }
+
+        // Controles a insertar y el id del paciente de cada uno (en la misma posicion)
+        final List<Control> lista = new ArrayList<>();
+        final List<Long> idsPaciente = new ArrayList<>();
+        for (final Map.Entry<Integer, List<Control>> entry : controles.entrySet()) {
+            final Long idPaciente = ids.get(entry.getKey());
+            if (idPaciente == null) {
+                throw new RuntimeException("No se encontro el paciente con numero " + entry.getKey());
+            }
+            for (final Control control : entry.getValue()) {
+                lista.add(control);
+                idsPaciente.add(idPaciente);
+            }
+        }
+
+        for (int desde = 0; desde < lista.size(); desde += this.tamanioLote) {
 
-        paciente.add(control);
+            final int inicio = desde;
+            final int hasta = Math.min(desde + this.tamanioLote, lista.size());
+            final List<Control> lote = lista.subList(desde, hasta);
 
-        paciente.update();
+            final Runnable estadoInicial = this.estadoInicial(lote);
+            this.escribir("agregarControles", () -> {
+
+                estadoInicial.run();
+                final Transaction transaction = this.beginLote();
+                try {
+                    // Se necesitan los ids de los controles para la tabla intermedia
+                    transaction.setBatchMode(this.batchConClaves);
+                    this.ebeanServer.insertAll(lote, transaction);
+                    transaction.flushBatch();
+
+                    final List<Long[]> filas = new ArrayList<>(lote.size());
+                    for (int i = inicio; i < hasta; i++) {
+                        filas.add(new Long[]{idsPaciente.get(i), lista.get(i).getId()});
+                    }
+                    insertPacienteControl(filas, transaction);
+
+                    transaction.commit();
+                } finally {
+                    transaction.end();
+                }
+            });
+        }
     }
 
     /**
-     * Inicializa la base de datos
+     * Metodo que inserta masivamente pacientes, una transaccion por lote
+     * @param pacientes pacientes a insertar
+     */
+    @Override
+    public void insertPacientes(Collection<Paciente> pacientes) {
+
+        Preconditions.checkNotNull(pacientes, "Pacientes null");
+
+        for (final List<Paciente> lote : Iterables.partition(pacientes, this.tamanioLote)) {
+
+            final Runnable estadoInicial = this.estadoInicial(lote);
+            this.escribir("insertPacientes", () -> {
+
+                estadoInicial.run();
+                final Transaction transaction = this.beginLote();
+                try {
+                    this.ebeanServer.insertAll(lote, transaction);
+                    transaction.commit();
+                } finally {
+                    transaction.end();
+                }
+            });
+        }
+    }
+
+    /**
+     * Ejecuta una escritura (una transaccion), reintentandola si falla por conflicto con otra transaccion. Dentro de
+     * una transaccion externa no se reintenta: el conflicto lo debe resolver quien la inicio.
+     * @param operacion nombre de la operacion
+     * @param escritura a ejecutar
+     */
+    private void escribir(final String operacion, final Runnable escritura) {
+
+        if (this.ebeanServer.currentTransaction() != null) {
+            escritura.run();
+        } else {
+            this.reintentos.ejecutar(operacion, escritura);
+        }
+    }
+
+    /**
+     * @return la cantidad de escrituras que fallaron por conflicto con otra transaccion (reintentadas o no).
+     */
+    public long getConflictosEscritura() {
+        return this.reintentos.getConflictos();
+    }
+
+    /**
+     * @return la cantidad de reintentos de escrituras.
+     */
+    public long getReintentosEscritura() {
+        return this.reintentos.getReintentos();
+    }
+
+    /**
+     * @return la cantidad de escrituras que fallaron tras agotar sus reintentos.
+     */
+    public long getEscriturasAgotadas() {
+        return this.reintentos.getAgotadas();
+    }
+
+    /**
+     * @return una transaccion en modo batch con el tamanio de lote configurado
+     */
+    private Transaction beginLote() {
+
+        final Transaction transaction = this.ebeanServer.beginTransaction();
+        transaction.setBatchMode(true);
+        transaction.setBatchSize(this.tamanioLote);
+        return transaction;
+    }
+
+    /**
+     * Guarda las propiedades que ebean asigna al insertar (id, version y fechas) de los beans a insertar. Un intento
+     * revertido de una escritura deja en los beans el estado de su insercion (ej: el id asignado por la base de
+     * datos), que su reintento reutilizaria: cada intento comienza restaurando el estado guardado.
+     * @param beans a insertar
+     * @return la restauracion del estado guardado
+     */
+    private Runnable estadoInicial(final List<? extends BaseModel> beans) {
+
+        final List<Runnable> restauraciones = new ArrayList<>(beans.size() * PROPIEDADES_INSERCION.length);
+        for (final BaseModel bean : beans) {
+            final BeanType<?> beanType = this.ebeanServer.getPluginApi().getBeanType(bean.getClass());
+            for (final String propiedad : PROPIEDADES_INSERCION) {
+                final ExpressionPath path = beanType.getExpressionPath(propiedad);
+                final Object valor = path.pathGet(bean);
+                restauraciones.add(() -> path.pathSet(bean, valor));
+            }
+        }
+        return () -> restauraciones.forEach(Runnable::run);
+    }
+
+    /**
+     * Inserta directamente (JDBC batch) las filas de la tabla intermedia Paciente - Control. Como ebean no ve estas
+     * filas, tras el commit se eliminan de los caches L2 los controles y el bean de los pacientes involucrados.
+     * En la misma transaccion se actualiza la fecha de modificacion (no la version) de los pacientes, para que sus
+     * nuevos controles lleguen al feed de cambios ({@link #getCambios(Class, CursorCambios, int)}).
+     * @param pares id del paciente e id del control de cada fila
+     * @param transaction transaccion en curso
+     */
+    private void insertPacienteControl(final List<Long[]> pares, final Transaction transaction) {
+
+        final Set<Long> pacientes = new HashSet<>();
+        for (final Long[] par : pares) {
+            pacientes.add(par[0]);
+        }
+
+        try (PreparedStatement statement = transaction.getConnection().prepareStatement(
+                "insert into paciente_control (paciente_id, control_id) values (?, ?)")) {
+
+            for (final Long[] par : pares) {
+                statement.setLong(1, par[0]);
+                statement.setLong(2, par[1]);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+
+        } catch (SQLException ex) {
+            throw new PersistenceException("Error insertando en paciente_control", ex);
+        }
+
+        final Timestamp whenModified = new Timestamp(System.currentTimeMillis());
+        try (PreparedStatement statement = transaction.getConnection().prepareStatement(
+                "update paciente set when_modified = ? where id = ?")) {
+
+            for (final Long id : pacientes) {
+                statement.setTimestamp(1, whenModified);
+                statement.setLong(2, id);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+
+        } catch (SQLException ex) {
+            throw new PersistenceException("Error actualizando la fecha de modificacion de paciente", ex);
+        }
+
+        // Modificacion externa a ebean: invalidar los caches de las tablas
+        transaction.addModification("paciente_control", true, false, false);
+        transaction.addModification("paciente", false, true, false);
+        AccionesPostCommit.registrar(transaction, () -> {
+            final ServerCacheManager cacheManager = this.ebeanServer.getServerCacheManager();
+            final ServerCache controles = cacheManager.getCollectionIdsCache(Paciente.class, "Controles");
+            final ServerCache beans = cacheManager.getBeanCache(Paciente.class);
+            for (final Long id : pacientes) {
+                controles.remove(id);
+                beans.remove(id);
+            }
+        });
+    }
+
+    /**
+     * Inicializa la base de datos y construye los indices en memoria
      */
     @Override
     public void initialize() {
 
         log.info("Initializing Ebean ..");
+
+        this.reconstruirIndices();
+    }
+
+    /**
+     * Reconstruye los indices en memoria (nombres de pacientes y texto de los controles) desde la base de datos
+     */
+    public void reconstruirIndices() {
+
+        this.indiceNombresConstruido = false;
+        this.indiceNombres.limpiar();
+        this.forEach(Paciente.class, "id, nombre",
+                paciente -> this.indiceNombres.agregar(paciente.getId(), paciente.getNombre()));
+        this.indiceNombresConstruido = true;
+
+        log.debug("Indexed {} Pacientes by nombre.", this.indiceNombres.size());
+
+        this.indiceControles.limpiar();
+        this.forEach(Control.class, "id, diagnostico, nota",
+                control -> this.indiceControles.agregar(control.getId(), control.getDiagnostico(), control.getNota()));
+
+        log.debug("Indexed {} Controles by diagnostico and nota.", this.indiceControles.size());
     }
 
     /**
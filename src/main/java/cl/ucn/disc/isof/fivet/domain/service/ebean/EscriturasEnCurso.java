@@ -0,0 +1,133 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.avaje.ebean.Transaction;
+import com.avaje.ebean.TransactionCallbackAdapter;
+import com.avaje.ebean.event.BeanPersistAdapter;
+import com.avaje.ebean.event.BeanPersistRequest;
+import com.durrutia.ebean.BaseModel;
+import com.google.common.base.Preconditions;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registra las transacciones con escrituras de modelos ({@link BaseModel}) que aun no terminan, con la fecha de su
+ * primera escritura. La fecha de modificacion de un cambio se asigna al escribir y no al hacer commit: los cambios
+ * de una transaccion en curso tienen una fecha posterior a su primera escritura, por lo que el feed de cambios no
+ * debe avanzar mas alla de la transaccion en curso mas antigua ({@link #getPrimeraEscritura()}), sin importar cuanto
+ * tarde su commit.
+ * <p>
+ * Solo ve las transacciones de este backend, las de otros procesos sobre la misma base de datos las cubre el
+ * retraso del feed ({@link ConfiguracionBackend#getRetrasoCambiosMillis()}).
+ * <p>
+ * Tambien detiene las escrituras de una entidad ({@link #detener(Class)}) mientras se rota la clave de una de sus
+ * columnas encriptadas: se rechazan con IllegalStateException.
+ */
+final class EscriturasEnCurso extends BeanPersistAdapter {
+
+    /**
+     * Clave de la transaccion registrada
+     */
+    private static final String CLAVE = EscriturasEnCurso.class.getName();
+
+    /**
+     * Transaccion en curso -> fecha (ms) de su primera escritura
+     */
+    private final Map<Fin, Long> primerasEscrituras = new ConcurrentHashMap<>();
+
+    /**
+     * Entidades con las escrituras detenidas
+     */
+    private final Set<Class<?>> detenidas = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public boolean isRegisterFor(final Class<?> cls) {
+        return BaseModel.class.isAssignableFrom(cls);
+    }
+
+    @Override
+    public boolean preInsert(final BeanPersistRequest<?> request) {
+        registrar(request);
+        return true;
+    }
+
+    @Override
+    public boolean preUpdate(final BeanPersistRequest<?> request) {
+        registrar(request);
+        return true;
+    }
+
+    @Override
+    public boolean preDelete(final BeanPersistRequest<?> request) {
+        registrar(request);
+        return true;
+    }
+
+    /**
+     * @return la fecha (ms) de la primera escritura de la transaccion en curso mas antigua, {@link Long#MAX_VALUE}
+     * si no hay transacciones en curso.
+     */
+    long getPrimeraEscritura() {
+        return this.primerasEscrituras.values().stream().mapToLong(Long::longValue).min().orElse(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return true si hay transacciones con escrituras en curso.
+     */
+    boolean isEscribiendo() {
+        return !this.primerasEscrituras.isEmpty();
+    }
+
+    /**
+     * Detiene las escrituras de la entidad: las siguientes se rechazan hasta {@link #reanudar(Class)}.
+     *
+     * @param tipo de la entidad.
+     */
+    void detener(final Class<?> tipo) {
+        this.detenidas.add(tipo);
+    }
+
+    /**
+     * Reanuda las escrituras de la entidad.
+     *
+     * @param tipo de la entidad.
+     */
+    void reanudar(final Class<?> tipo) {
+        this.detenidas.remove(tipo);
+    }
+
+    /**
+     * Registra la transaccion en su primera escritura y rechaza la escritura si su entidad esta detenida. El registro
+     * es previo al rechazo: quien detiene una entidad y luego no ve escrituras en curso no deja pasar ninguna.
+     */
+    private void registrar(final BeanPersistRequest<?> request) {
+
+        final Transaction transaction = request.getTransaction();
+        if (transaction.getUserObject(CLAVE) == null) {
+            final Fin fin = new Fin();
+            transaction.putUserObject(CLAVE, fin);
+            this.primerasEscrituras.put(fin, System.currentTimeMillis());
+            transaction.register(fin);
+        }
+        Preconditions.checkState(!this.detenidas.contains(request.getBean().getClass()),
+                "Escrituras de %s detenidas (rotacion de clave en curso)", request.getBean().getClass().getSimpleName());
+    }
+
+    /**
+     * Elimina la transaccion del registro al terminar (commit o rollback)
+     */
+    private final class Fin extends TransactionCallbackAdapter {
+
+        @Override
+        public void postCommit() {
+            primerasEscrituras.remove(this);
+        }
+
+        @Override
+        public void postRollback() {
+            primerasEscrituras.remove(this);
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.avaje.ebean.BackgroundExecutor;
+import com.avaje.ebean.cache.ServerCache;
+import com.avaje.ebean.cache.ServerCacheFactory;
+import com.avaje.ebean.cache.ServerCacheManager;
+import com.avaje.ebean.cache.ServerCacheOptions;
+import com.avaje.ebean.cache.ServerCacheStatistics;
+import com.avaje.ebean.cache.ServerCacheType;
+import com.avaje.ebean.config.ServerConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fabrica de los caches L2 de ebean segun la {@link PoliticaCache} de cada entidad: los caches deshabilitados se
+ * reemplazan por un cache que no guarda nada (pero registra sus fallos e invalidaciones), el resto son los caches de
+ * ebean con el tamanio y tiempo de vida de la politica (ver {@link AdaptadorCacheEbean}).
+ * <p>
+ * Se instala con {@link #crearManager(ServerConfig)} y la expulsion periodica se inicia con
+ * {@link #iniciarExpulsion(BackgroundExecutor)} una vez creado el servidor.
+ */
+@Slf4j
+final class FabricaCache implements ServerCacheFactory {
+
+    /**
+     * Politicas por nombre de la clase de la entidad
+     */
+    private final Map<String, PoliticaCache> politicas;
+
+    /**
+     * Caches de ebean
+     */
+    private final AdaptadorCacheEbean caches = new AdaptadorCacheEbean();
+
+    /**
+     * @param politicas por nombre de la clase de la entidad.
+     */
+    FabricaCache(final Map<String, PoliticaCache> politicas) {
+        this.politicas = politicas;
+    }
+
+    /**
+     * @param serverConfig con las opciones por defecto de los caches (como las usa ebean).
+     * @return el manager de los caches L2, local: las invalidaciones se aplican durante el commit.
+     */
+    ServerCacheManager crearManager(final ServerConfig serverConfig) {
+        return AdaptadorCacheEbean.crearManager(this, serverConfig);
+    }
+
+    /**
+     * Inicia la expulsion periodica de los caches.
+     *
+     * @param executor del servidor ebean, que la detiene al cerrarse.
+     */
+    void iniciarExpulsion(final BackgroundExecutor executor) {
+        this.caches.iniciarExpulsion(executor);
+    }
+
+    @Override
+    public ServerCache createCache(final ServerCacheType tipo, final String nombre, final ServerCacheOptions opciones) {
+
+        final PoliticaCache politica = politica(tipo, nombre);
+        if (politica == null) {
+            return this.caches.crear(nombre, opciones);
+        }
+        if (!politica.isHabilitado(tipo)) {
+            log.debug("Cache {} {} disabled.", tipo, nombre);
+            return new CacheDeshabilitado(nombre);
+        }
+        return this.caches.crear(nombre, politica.aplicar(tipo, opciones));
+    }
+
+    /**
+     * @return la politica de la entidad del cache, null si no tiene.
+     */
+    private PoliticaCache politica(final ServerCacheType tipo, final String nombre) {
+
+        // Los caches de ids de colecciones se llaman clase.propiedad
+        final String clase = tipo == ServerCacheType.COLLECTION_IDS ? StringUtils.substringBeforeLast(nombre, ".") : nombre;
+        return this.politicas.get(clase);
+    }
+
+    /**
+     * Cache que no guarda nada
+     */
+    private static final class CacheDeshabilitado implements ServerCache {
+
+        private final String nombre;
+
+        private final LongAdder fallos = new LongAdder();
+
+        private final LongAdder eliminaciones = new LongAdder();
+
+        private final LongAdder limpiezas = new LongAdder();
+
+        CacheDeshabilitado(final String nombre) {
+            this.nombre = nombre;
+        }
+
+        @Override
+        public Object get(final Object id) {
+            this.fallos.increment();
+            return null;
+        }
+
+        @Override
+        public Object put(final Object id, final Object value) {
+            return null;
+        }
+
+        @Override
+        public Object remove(final Object id) {
+            this.eliminaciones.increment();
+            return null;
+        }
+
+        @Override
+        public void clear() {
+            this.limpiezas.increment();
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public int getHitRatio() {
+            return 0;
+        }
+
+        @Override
+        public ServerCacheStatistics getStatistics(final boolean reset) {
+
+            final ServerCacheStatistics estadisticas = new ServerCacheStatistics();
+            estadisticas.setCacheName(this.nombre);
+            estadisticas.setMissCount(reset ? this.fallos.sumThenReset() : this.fallos.sum());
+            estadisticas.setRemoveCount(reset ? this.eliminaciones.sumThenReset() : this.eliminaciones.sum());
+            estadisticas.setClearCount(reset ? this.limpiezas.sumThenReset() : this.limpiezas.sum());
+            return estadisticas;
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.filter.Filter;
+import ch.qos.logback.core.spi.FilterReply;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Filtro de logback para el resumen de consultas de ebean (logger org.avaje.ebean.SUM): deja pasar solo las consultas
+ * que superan el umbral de tiempo y, opcionalmente, una de cada N consultas como muestra.
+ * <p>
+ * El tiempo se obtiene del campo exeMicros[..] del resumen; los eventos sin ese campo (insert, update, delete) solo
+ * pasan como muestra.
+ */
+public class FiltroConsultasLentas extends Filter<ILoggingEvent> {
+
+    /**
+     * Campo del tiempo de ejecucion en el resumen de ebean
+     */
+    private static final String EXE_MICROS = "exeMicros[";
+
+    /**
+     * Tiempo (ms) desde el cual una consulta es lenta
+     */
+    @Getter
+    @Setter
+    private long umbralMillis = 200;
+
+    /**
+     * Una de cada N consultas pasa como muestra (0: sin muestreo)
+     */
+    @Getter
+    @Setter
+    private int muestreo;
+
+    /**
+     * Eventos evaluados
+     */
+    private final AtomicLong eventos = new AtomicLong();
+
+    @Override
+    public FilterReply decide(final ILoggingEvent event) {
+
+        if (!isStarted()) {
+            return FilterReply.NEUTRAL;
+        }
+
+        final long micros = micros(event.getFormattedMessage());
+        if (micros >= 0 && micros >= this.umbralMillis * 1000) {
+            return FilterReply.ACCEPT;
+        }
+
+        if (this.muestreo > 0 && this.eventos.incrementAndGet() % this.muestreo == 0) {
+            return FilterReply.ACCEPT;
+        }
+
+        return FilterReply.DENY;
+    }
+
+    /**
+     * @return el tiempo de ejecucion (microsegundos) del resumen, o -1 si no lo tiene.
+     */
+    static long micros(final String mensaje) {
+
+        if (mensaje == null) {
+            return -1;
+        }
+
+        final int inicio = mensaje.indexOf(EXE_MICROS);
+        if (inicio < 0) {
+            return -1;
+        }
+
+        long micros = 0;
+        for (int i = inicio + EXE_MICROS.length(); i < mensaje.length(); i++) {
+            final char c = mensaje.charAt(i);
+            if (c < '0' || c > '9') {
+                return c == ']' ? micros : -1;
+            }
+            micros = micros * 10 + (c - '0');
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,60 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import java.nio.file.Path;
+
+/**
+ * Origen de las claves de encriptacion de las columnas {@link com.avaje.ebean.annotation.Encrypted}.
+ */
+@FunctionalInterface
+public interface FuenteClaves {
+
+    /**
+     * @param tabla de la columna encriptada.
+     * @param columna encriptada.
+     * @return la clave de la columna.
+     */
+    String getClave(String tabla, String columna);
+
+    /**
+     * Clave derivada del nombre de la tabla y la columna (la clave historica del sistema, solo para desarrollo). No
+     * puede guardar claves: sus columnas no se pueden rotar.
+     *
+     * @return la fuente de claves derivadas.
+     */
+    static FuenteClaves derivada() {
+        return (tabla, columna) -> tabla + columna;
+    }
+
+    /**
+     * Claves secretas de un keystore JCEKS, con alias tabla.columna (en minusculas) y expuestas en hexadecimal
+     * (base16). Las claves se leen una vez, al crear la fuente; las claves rotadas se guardan en el mismo archivo.
+     *
+     * @param archivo del keystore.
+     * @param password del keystore y de sus claves.
+     * @return la fuente de claves del keystore.
+     */
+    static FuenteClaves keystore(final Path archivo, final char[] password) {
+        return new FuenteClavesKeystore(archivo, password);
+    }
+
+    /**
+     * @return true si la fuente puede guardar claves ({@link #guardarClave(String, String, String)}), requisito para
+     * rotarlas: una clave que solo existe en memoria se pierde al reiniciar y con ella los datos encriptados.
+     */
+    default boolean isEscribible() {
+        return false;
+    }
+
+    /**
+     * Guarda la clave de la columna, la fuente la entrega en adelante (incluso tras reiniciar la aplicacion).
+     *
+     * @param tabla de la columna encriptada.
+     * @param columna encriptada.
+     * @param clave nueva de la columna.
+     * @throws UnsupportedOperationException si la fuente no puede guardar claves.
+     */
+    default void guardarClave(final String tabla, final String columna, final String clave) {
+        throw new UnsupportedOperationException("La fuente de claves no puede guardar claves");
+    }
+
+}
@@ -0,0 +1,137 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.BaseEncoding;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link FuenteClaves} de un keystore JCEKS, ver {@link FuenteClaves#keystore(Path, char[])}. Las claves guardadas
+ * se escriben en un archivo temporal que luego reemplaza al keystore, de forma que un fallo al escribir no lo deja a
+ * medias.
+ */
+final class FuenteClavesKeystore implements FuenteClaves {
+
+    /**
+     * Tipo del keystore
+     */
+    private static final String TIPO = "JCEKS";
+
+    /**
+     * Algoritmo de las claves guardadas
+     */
+    private static final String ALGORITMO = "AES";
+
+    /**
+     * Archivo del keystore
+     */
+    private final Path archivo;
+
+    /**
+     * Password del keystore y de sus claves
+     */
+    private final char[] password;
+
+    /**
+     * Keystore leido, se actualiza al guardar
+     */
+    private final KeyStore keyStore;
+
+    /**
+     * alias -> clave en hexadecimal
+     */
+    private final Map<String, String> claves = new ConcurrentHashMap<>();
+
+    FuenteClavesKeystore(final Path archivo, final char[] password) {
+
+        this.archivo = Preconditions.checkNotNull(archivo, "Keystore null");
+        this.password = password == null ? null : password.clone();
+
+        try (final InputStream inputStream = Files.newInputStream(archivo)) {
+
+            this.keyStore = KeyStore.getInstance(TIPO);
+            this.keyStore.load(inputStream, this.password);
+
+            for (final String alias : Collections.list(this.keyStore.aliases())) {
+                final Key key = this.keyStore.getKey(alias, this.password);
+                if (key != null && key.getEncoded() != null) {
+                    this.claves.put(alias.toLowerCase(), BaseEncoding.base16().encode(key.getEncoded()));
+                }
+            }
+
+        } catch (IOException | GeneralSecurityException ex) {
+            throw new IllegalStateException("No se pudo leer el keystore " + archivo, ex);
+        }
+    }
+
+    @Override
+    public String getClave(final String tabla, final String columna) {
+
+        final String alias = alias(tabla, columna);
+        final String clave = this.claves.get(alias);
+        Preconditions.checkState(clave != null, "Keystore %s sin clave %s", this.archivo, alias);
+        return clave;
+    }
+
+    @Override
+    public boolean isEscribible() {
+        return true;
+    }
+
+    /**
+     * @param clave en hexadecimal (base16, mayusculas), el formato en que la fuente entrega las claves.
+     * @throws IllegalArgumentException si la clave no esta en hexadecimal.
+     */
+    @Override
+    public synchronized void guardarClave(final String tabla, final String columna, final String clave) {
+
+        Preconditions.checkArgument(clave != null && !clave.isEmpty() && BaseEncoding.base16().canDecode(clave),
+                "La clave debe estar en hexadecimal (base16, mayusculas)");
+
+        final String alias = alias(tabla, columna);
+        try {
+            this.keyStore.setEntry(alias,
+                    new KeyStore.SecretKeyEntry(new SecretKeySpec(BaseEncoding.base16().decode(clave), ALGORITMO)),
+                    new KeyStore.PasswordProtection(this.password));
+
+            final Path directorio = this.archivo.toAbsolutePath().getParent();
+            final Path temporal = Files.createTempFile(directorio, this.archivo.getFileName().toString(), ".tmp");
+            try {
+                try (final OutputStream outputStream = Files.newOutputStream(temporal)) {
+                    this.keyStore.store(outputStream, this.password);
+                }
+                Files.move(temporal, this.archivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporal);
+            }
+
+        } catch (IOException ex) {
+            throw new UncheckedIOException("No se pudo escribir el keystore " + this.archivo, ex);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("No se pudo guardar la clave " + alias + " en " + this.archivo, ex);
+        }
+
+        this.claves.put(alias, clave);
+    }
+
+    /**
+     * @return el alias de la clave de la columna.
+     */
+    private static String alias(final String tabla, final String columna) {
+        return (tabla + "." + columna).toLowerCase();
+    }
+
+}
@@ -0,0 +1,118 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.avaje.ebean.config.EncryptKey;
+import com.avaje.ebean.config.EncryptKeyManager;
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link EncryptKeyManager} que mantiene en memoria la clave de cada tabla / columna: ebean pide la clave en cada
+ * lectura y escritura de una columna encriptada, la {@link FuenteClaves} se consulta solo la primera vez.
+ */
+@Slf4j
+public final class GestorClaves implements EncryptKeyManager {
+
+    /**
+     * Origen de las claves
+     */
+    private final FuenteClaves fuenteClaves;
+
+    /**
+     * tabla -> columna -> clave (sin concatenar los nombres en cada consulta)
+     */
+    private final Map<String, Map<String, EncryptKey>> claves = new ConcurrentHashMap<>();
+
+    /**
+     * Consultas a la fuente de claves
+     */
+    private final LongAdder consultasFuente = new LongAdder();
+
+    /**
+     * @param fuenteClaves origen de las claves.
+     */
+    public GestorClaves(final FuenteClaves fuenteClaves) {
+        this.fuenteClaves = Preconditions.checkNotNull(fuenteClaves, "Fuente de claves null");
+    }
+
+    @Override
+    public void initialise() {
+        log.debug("Initializing EncryptKey ..");
+    }
+
+    @Override
+    public EncryptKey getEncryptKey(final String tabla, final String columna) {
+
+        final EncryptKey clave = this.columnas(tabla).get(columna);
+        if (clave != null) {
+            return clave;
+        }
+
+        return this.columnas(tabla).computeIfAbsent(columna, c -> {
+            this.consultasFuente.increment();
+            log.debug("Loading EncryptKey for {} in {}.", columna, tabla);
+            return clave(this.fuenteClaves.getClave(tabla, columna));
+        });
+    }
+
+    /**
+     * @return true si las claves se pueden rotar: la fuente de claves puede guardarlas.
+     */
+    public boolean isRotable() {
+        return this.fuenteClaves.isEscribible();
+    }
+
+    /**
+     * Reemplaza la clave de la columna: primero la guarda en la fuente de claves y luego la usa en memoria. Los datos
+     * existentes deben re-encriptarse con la nueva clave (ver
+     * {@link EbeanBackendService#rotarClave(String, String, String)}).
+     *
+     * @return la clave anterior.
+     * @throws IllegalStateException si la fuente no puede guardar claves: la clave rotada se perderia al reiniciar (o
+     * al {@link #limpiar()}) y con ella los datos re-encriptados.
+     */
+    public EncryptKey rotar(final String tabla, final String columna, final String nuevaClave) {
+
+        Preconditions.checkArgument(nuevaClave != null && !nuevaClave.isEmpty(), "Clave vacia");
+        Preconditions.checkState(isRotable(), "La fuente de claves no puede guardar claves, no se puede rotar");
+
+        final EncryptKey anterior = this.getEncryptKey(tabla, columna);
+        this.fuenteClaves.guardarClave(tabla, columna, nuevaClave);
+        this.columnas(tabla).put(columna, clave(nuevaClave));
+        return anterior;
+    }
+
+    /**
+     * Descarta las claves en memoria, se vuelven a consultar a la fuente.
+     */
+    public void limpiar() {
+        this.claves.clear();
+    }
+
+    /**
+     * @return la cantidad de veces que se consulto la fuente de claves.
+     */
+    public long getConsultasFuente() {
+        return this.consultasFuente.sum();
+    }
+
+    /**
+     * @return las claves de las columnas de la tabla.
+     */
+    private Map<String, EncryptKey> columnas(final String tabla) {
+
+        final Map<String, EncryptKey> columnas = this.claves.get(tabla);
+        return columnas != null ? columnas : this.claves.computeIfAbsent(tabla, t -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @return la clave (inmutable) con el valor.
+     */
+    private static EncryptKey clave(final String valor) {
+        return () -> valor;
+    }
+
+}
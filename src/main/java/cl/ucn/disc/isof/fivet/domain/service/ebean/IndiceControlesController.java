@@ -0,0 +1,71 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.search.IndiceInvertido;
+import com.avaje.ebean.event.BeanPersistAdapter;
+import com.avaje.ebean.event.BeanPersistRequest;
+
+import java.util.Set;
+
+/**
+ * Mantiene el {@link IndiceInvertido} del diagnostico y nota de los {@link Control} sincronizado con las escrituras,
+ * de la misma forma que {@link IndicePacientesController}: los cambios se aplican despues del commit, de forma que
+ * una transaccion revertida (o un intento fallido de una escritura reintentada) no modifica el indice.
+ */
+final class IndiceControlesController extends BeanPersistAdapter {
+
+    /**
+     * Indice de texto completo
+     */
+    private final IndiceInvertido indice;
+
+    IndiceControlesController(final IndiceInvertido indice) {
+        this.indice = indice;
+    }
+
+    @Override
+    public boolean isRegisterFor(final Class<?> cls) {
+        return Control.class.equals(cls);
+    }
+
+    @Override
+    public void postInsert(final BeanPersistRequest<?> request) {
+
+        final Control control = (Control) request.getBean();
+        agregar(request, control.getId(), control.getDiagnostico(), control.getNota());
+    }
+
+    @Override
+    public void postUpdate(final BeanPersistRequest<?> request) {
+
+        final Control control = (Control) request.getBean();
+        final Set<String> actualizadas = request.getUpdatedProperties();
+
+        if (control.isDeleted()) {
+            eliminar(request, control.getId());
+        } else if (actualizadas == null || actualizadas.contains("diagnostico") || actualizadas.contains("nota")) {
+            agregar(request, control.getId(), control.getDiagnostico(), control.getNota());
+        }
+    }
+
+    @Override
+    public void postDelete(final BeanPersistRequest<?> request) {
+        eliminar(request, ((Control) request.getBean()).getId());
+    }
+
+    /**
+     * Agrega (o reemplaza) los textos en el indice tras el commit.
+     */
+    private void agregar(final BeanPersistRequest<?> request, final Long id, final String diagnostico,
+                         final String nota) {
+        AccionesPostCommit.registrar(request.getTransaction(), () -> this.indice.agregar(id, diagnostico, nota));
+    }
+
+    /**
+     * Elimina los textos del indice tras el commit.
+     */
+    private void eliminar(final BeanPersistRequest<?> request, final Long id) {
+        AccionesPostCommit.registrar(request.getTransaction(), () -> this.indice.eliminar(id));
+    }
+
+}
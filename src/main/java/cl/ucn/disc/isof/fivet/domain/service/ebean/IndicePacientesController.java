@@ -0,0 +1,70 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.search.IndiceTrigramas;
+import com.avaje.ebean.event.BeanPersistAdapter;
+import com.avaje.ebean.event.BeanPersistRequest;
+
+import java.util.Set;
+
+/**
+ * Mantiene el {@link IndiceTrigramas} de nombres de {@link Paciente} sincronizado con las escrituras.
+ * Los cambios de cada insert/update/delete se aplican al indice despues del commit de su transaccion
+ * ({@link AccionesPostCommit}): una transaccion revertida no modifica el indice.
+ */
+final class IndicePacientesController extends BeanPersistAdapter {
+
+    /**
+     * Indice de nombres
+     */
+    private final IndiceTrigramas indice;
+
+    IndicePacientesController(final IndiceTrigramas indice) {
+        this.indice = indice;
+    }
+
+    @Override
+    public boolean isRegisterFor(final Class<?> cls) {
+        return Paciente.class.equals(cls);
+    }
+
+    @Override
+    public void postInsert(final BeanPersistRequest<?> request) {
+
+        final Paciente paciente = (Paciente) request.getBean();
+        agregar(request, paciente.getId(), paciente.getNombre());
+    }
+
+    @Override
+    public void postUpdate(final BeanPersistRequest<?> request) {
+
+        final Paciente paciente = (Paciente) request.getBean();
+        final Set<String> actualizadas = request.getUpdatedProperties();
+
+        if (paciente.isDeleted()) {
+            eliminar(request, paciente.getId());
+        } else if (actualizadas == null || actualizadas.contains("nombre")) {
+            agregar(request, paciente.getId(), paciente.getNombre());
+        }
+    }
+
+    @Override
+    public void postDelete(final BeanPersistRequest<?> request) {
+        eliminar(request, ((Paciente) request.getBean()).getId());
+    }
+
+    /**
+     * Agrega (o reemplaza) el nombre en el indice tras el commit.
+     */
+    private void agregar(final BeanPersistRequest<?> request, final Long id, final String nombre) {
+        AccionesPostCommit.registrar(request.getTransaction(), () -> this.indice.agregar(id, nombre));
+    }
+
+    /**
+     * Elimina el nombre del indice tras el commit.
+     */
+    private void eliminar(final BeanPersistRequest<?> request, final Long id) {
+        AccionesPostCommit.registrar(request.getTransaction(), () -> this.indice.eliminar(id));
+    }
+
+}
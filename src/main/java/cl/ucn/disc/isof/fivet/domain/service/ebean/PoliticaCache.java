@@ -0,0 +1,128 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.avaje.ebean.cache.ServerCacheOptions;
+import com.avaje.ebean.cache.ServerCacheType;
+import com.google.common.base.Preconditions;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Politica del cache L2 de ebean para una entidad: que caches usar (beans / consultas), su tamanio y tiempo de vida.
+ * Reemplaza lo definido por las anotaciones {@link com.avaje.ebean.annotation.Cache} y
+ * {@link com.avaje.ebean.annotation.CacheBeanTuning} del modelo.
+ * <p>
+ * El cache de beans incluye los caches de claves naturales y de ids de las colecciones de la entidad. Los valores que
+ * quedan en null mantienen lo definido por las anotaciones (o el valor por defecto de ebean).
+ */
+@Builder
+@Getter
+@ToString
+public final class PoliticaCache {
+
+    /**
+     * Cache de beans y de consultas
+     */
+    public static final PoliticaCache COMPLETA = PoliticaCache.builder().build();
+
+    /**
+     * Solo cache de beans: para entidades con escrituras frecuentes, donde cada insercion invalida todas las
+     * consultas en cache de la entidad
+     */
+    public static final PoliticaCache SOLO_BEANS = PoliticaCache.builder().cacheConsultas(false).build();
+
+    /**
+     * Sin cache
+     */
+    public static final PoliticaCache SIN_CACHE = PoliticaCache.builder().cacheBeans(false).cacheConsultas(false).build();
+
+    /**
+     * Cache de beans (null: habilitado)
+     */
+    private final Boolean cacheBeans;
+
+    /**
+     * Cache de consultas (null: habilitado)
+     */
+    private final Boolean cacheConsultas;
+
+    /**
+     * Cantidad maxima de beans en cache
+     */
+    private final Integer maxBeans;
+
+    /**
+     * Cantidad maxima de consultas en cache
+     */
+    private final Integer maxConsultas;
+
+    /**
+     * Tiempo de vida (segundos) de cada entrada
+     */
+    private final Integer ttlSegundos;
+
+    /**
+     * Tiempo (segundos) tras el cual se expulsa una entrada no leida
+     */
+    private final Integer inactividadSegundos;
+
+    /**
+     * @return true si el cache de beans esta habilitado.
+     */
+    public boolean isCacheBeans() {
+        return this.cacheBeans == null || this.cacheBeans;
+    }
+
+    /**
+     * @return true si el cache de consultas esta habilitado.
+     */
+    public boolean isCacheConsultas() {
+        return this.cacheConsultas == null || this.cacheConsultas;
+    }
+
+    /**
+     * @param tipo de cache.
+     * @return true si el tipo de cache esta habilitado.
+     */
+    boolean isHabilitado(final ServerCacheType tipo) {
+        return tipo == ServerCacheType.QUERY ? isCacheConsultas() : isCacheBeans();
+    }
+
+    /**
+     * Valida la politica.
+     */
+    void validar() {
+
+        Preconditions.checkArgument(this.maxBeans == null || this.maxBeans > 0, "Maximo de beans invalido: %s", this.maxBeans);
+        Preconditions.checkArgument(this.maxConsultas == null || this.maxConsultas > 0,
+                "Maximo de consultas invalido: %s", this.maxConsultas);
+        Preconditions.checkArgument(this.ttlSegundos == null || this.ttlSegundos >= 0, "TTL invalido: %s", this.ttlSegundos);
+        Preconditions.checkArgument(this.inactividadSegundos == null || this.inactividadSegundos >= 0,
+                "Inactividad invalida: %s", this.inactividadSegundos);
+    }
+
+    /**
+     * Aplica los valores definidos a las opciones de un cache.
+     *
+     * @param tipo     de cache.
+     * @param opciones definidas por las anotaciones.
+     * @return las opciones del cache.
+     */
+    ServerCacheOptions aplicar(final ServerCacheType tipo, final ServerCacheOptions opciones) {
+
+        final ServerCacheOptions resultado = opciones.copy();
+
+        final Integer maximo = tipo == ServerCacheType.QUERY ? this.maxConsultas : this.maxBeans;
+        if (maximo != null) {
+            resultado.setMaxSize(maximo);
+        }
+        if (this.ttlSegundos != null) {
+            resultado.setMaxSecsToLive(this.ttlSegundos);
+        }
+        if (this.inactividadSegundos != null) {
+            resultado.setMaxIdleSecs(this.inactividadSegundos);
+        }
+        return resultado;
+    }
+
+}
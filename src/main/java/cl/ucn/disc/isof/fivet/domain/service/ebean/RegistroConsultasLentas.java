@@ -0,0 +1,77 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Buffer circular de las ultimas {@link ConsultaLenta}: al llenarse, cada nueva consulta reemplaza a la mas antigua.
+ *
+ * Thread-safe.
+ */
+final class RegistroConsultasLentas {
+
+    /**
+     * Consultas, en la posicion total % capacidad
+     */
+    private final AtomicReferenceArray<ConsultaLenta> consultas;
+
+    /**
+     * Consultas registradas desde el inicio
+     */
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * @param capacidad cantidad de consultas que se mantienen.
+     */
+    RegistroConsultasLentas(final int capacidad) {
+
+        Preconditions.checkArgument(capacidad > 0, "Capacidad invalida: %s", capacidad);
+        this.consultas = new AtomicReferenceArray<>(capacidad);
+    }
+
+    /**
+     * @param consulta a registrar.
+     */
+    void registrar(final ConsultaLenta consulta) {
+        this.consultas.set((int) (this.total.getAndIncrement() % this.consultas.length()), consulta);
+    }
+
+    /**
+     * @return las consultas en el buffer, de la mas reciente a la mas antigua.
+     */
+    List<ConsultaLenta> getConsultas() {
+
+        final long hasta = this.total.get();
+        final long desde = Math.max(0, hasta - this.consultas.length());
+
+        final List<ConsultaLenta> resultado = new ArrayList<>((int) (hasta - desde));
+        for (long i = hasta - 1; i >= desde; i--) {
+            final ConsultaLenta consulta = this.consultas.get((int) (i % this.consultas.length()));
+            if (consulta != null) {
+                resultado.add(consulta);
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * @return la cantidad de consultas registradas desde el inicio (incluidas las que ya salieron del buffer).
+     */
+    long getTotal() {
+        return this.total.get();
+    }
+
+    /**
+     * Vacia el buffer.
+     */
+    void limpiar() {
+        for (int i = 0; i < this.consultas.length(); i++) {
+            this.consultas.set(i, null);
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Reintento de las escrituras que fallan por un conflicto con otra transaccion concurrente (bloqueo optimista,
+ * deadlock, serializacion o espera de un lock): cada intento se ejecuta en su propia transaccion, con una espera
+ * exponencial (con jitter) entre intentos.
+ *
+ * Thread-safe.
+ */
+@Slf4j
+final class Reintentos {
+
+    /**
+     * Intentos por defecto (incluido el primero)
+     */
+    static final int INTENTOS_DEFECTO = 4;
+
+    /**
+     * Espera por defecto (ms) antes del primer reintento
+     */
+    static final long ESPERA_DEFECTO_MILLIS = 10;
+
+    /**
+     * Espera maxima por defecto (ms) entre reintentos
+     */
+    static final long ESPERA_MAXIMA_DEFECTO_MILLIS = 500;
+
+    /**
+     * SQLState de H2 cuando se agota la espera de un lock
+     */
+    private static final String H2_LOCK_TIMEOUT = "HYT00";
+
+    /**
+     * Cantidad maxima de intentos
+     */
+    private final int intentos;
+
+    /**
+     * Espera antes del primer reintento
+     */
+    private final long esperaMillis;
+
+    /**
+     * Espera maxima entre reintentos
+     */
+    private final long esperaMaximaMillis;
+
+    /**
+     * Escrituras que fallaron por conflicto (incluidas las que luego se completaron)
+     */
+    private final LongAdder conflictos = new LongAdder();
+
+    /**
+     * Reintentos realizados
+     */
+    private final LongAdder reintentos = new LongAdder();
+
+    /**
+     * Escrituras que agotaron sus intentos
+     */
+    private final LongAdder agotadas = new LongAdder();
+
+    /**
+     * @param intentos           cantidad maxima de intentos (1: sin reintentos).
+     * @param esperaMillis       espera antes del primer reintento, se duplica en cada reintento.
+     * @param esperaMaximaMillis espera maxima entre reintentos.
+     */
+    Reintentos(final int intentos, final long esperaMillis, final long esperaMaximaMillis) {
+
+        Preconditions.checkArgument(intentos > 0, "Intentos invalidos: %s", intentos);
+        Preconditions.checkArgument(esperaMillis >= 0 && esperaMillis <= esperaMaximaMillis,
+                "Espera invalida: %s (maximo %s)", esperaMillis, esperaMaximaMillis);
+
+        this.intentos = intentos;
+        this.esperaMillis = esperaMillis;
+        this.esperaMaximaMillis = esperaMaximaMillis;
+    }
+
+    /**
+     * Ejecuta la escritura, reintentandola mientras falle por conflicto.
+     *
+     * @param operacion nombre de la operacion (log).
+     * @param escritura a ejecutar, debe abrir y terminar su propia transaccion.
+     */
+    void ejecutar(final String operacion, final Runnable escritura) {
+
+        ejecutar(operacion, () -> {
+            escritura.run();
+            return null;
+        });
+    }
+
+    /**
+     * Ejecuta la escritura, reintentandola mientras falle por conflicto.
+     *
+     * @param operacion nombre de la operacion (log).
+     * @param escritura a ejecutar, debe abrir y terminar su propia transaccion.
+     * @return el resultado de la escritura.
+     */
+    <T> T ejecutar(final String operacion, final Supplier<T> escritura) {
+
+        long espera = this.esperaMillis;
+        for (int intento = 1; ; intento++) {
+            try {
+                return escritura.get();
+            } catch (PersistenceException ex) {
+
+                if (!isConflicto(ex)) {
+                    throw ex;
+                }
+                this.conflictos.increment();
+
+                if (intento >= this.intentos) {
+                    this.agotadas.increment();
+                    log.warn("{}: conflict after {} attempts, giving up.", operacion, intento);
+                    throw ex;
+                }
+
+                log.debug("{}: conflict on attempt {}, retrying in ~{} ms: {}", operacion, intento, espera, ex.getMessage());
+                esperar(espera);
+                espera = Math.min(espera * 2, this.esperaMaximaMillis);
+                this.reintentos.increment();
+            }
+        }
+    }
+
+    /**
+     * @return true si la excepcion se debe a un conflicto con otra transaccion.
+     */
+    static boolean isConflicto(final Throwable ex) {
+
+        for (final Throwable causa : Throwables.getCausalChain(ex)) {
+            if (causa instanceof OptimisticLockException || causa instanceof SQLTransientException) {
+                return true;
+            }
+            if (causa instanceof SQLException) {
+                final String sqlState = ((SQLException) causa).getSQLState();
+                // Clase 40: transaction rollback (serializacion, deadlock)
+                if (sqlState != null && (sqlState.startsWith("40") || H2_LOCK_TIMEOUT.equals(sqlState))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Espera entre la mitad y el total del tiempo dado (jitter), para no sincronizar los reintentos concurrentes.
+     */
+    private static void esperar(final long millis) {
+
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis / 2 + ThreadLocalRandom.current().nextLong(millis / 2 + 1));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Reintento interrumpido", ex);
+        }
+    }
+
+    /**
+     * @return la cantidad de escrituras que fallaron por conflicto.
+     */
+    long getConflictos() {
+        return this.conflictos.sum();
+    }
+
+    /**
+     * @return la cantidad de reintentos realizados.
+     */
+    long getReintentos() {
+        return this.reintentos.sum();
+    }
+
+    /**
+     * @return la cantidad de escrituras que agotaron sus intentos.
+     */
+    long getAgotadas() {
+        return this.agotadas.sum();
+    }
+
+}
@@ -0,0 +1,90 @@
+package cl.ucn.disc.isof.fivet.domain.service.metricas;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Destino de las metricas exportadas periodicamente por el {@link RegistroMetricas}.
+ */
+@FunctionalInterface
+public interface ExportadorMetricas {
+
+    /**
+     * Encabezado de las lineas CSV
+     */
+    String ENCABEZADO_CSV = "timestamp,operacion,llamadas,errores,filas,media_us,p50_us,p99_us,p999_us,max_us";
+
+    /**
+     * @param timestamp de la exportacion (ms desde epoch).
+     * @param metricas  de las operaciones (valores acumulados).
+     */
+    void exportar(final long timestamp, final Collection<MetricaOperacion> metricas);
+
+    /**
+     * @return un exportador que registra una linea CSV por operacion en el log (logger "fivet.metricas", INFO).
+     */
+    static ExportadorMetricas log() {
+
+        final Logger log = LoggerFactory.getLogger("fivet.metricas");
+        return (timestamp, metricas) -> {
+            for (final MetricaOperacion metrica : metricas) {
+                log.info("{}", csv(timestamp, metrica));
+            }
+        };
+    }
+
+    /**
+     * @param archivo CSV de destino: se agregan las lineas de cada exportacion (con encabezado si es nuevo).
+     * @return un exportador a un archivo CSV.
+     */
+    static ExportadorMetricas csv(final Path archivo) {
+
+        return (timestamp, metricas) -> {
+            try {
+                final boolean nuevo = Files.notExists(archivo) || Files.size(archivo) == 0;
+                try (Writer writer = Files.newBufferedWriter(archivo, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    if (nuevo) {
+                        writer.write(ENCABEZADO_CSV);
+                        writer.write('\n');
+                    }
+                    for (final MetricaOperacion metrica : metricas) {
+                        writer.write(csv(timestamp, metrica));
+                        writer.write('\n');
+                    }
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        };
+    }
+
+    /**
+     * @return la linea CSV de la metrica.
+     */
+    static String csv(final long timestamp, final MetricaOperacion metrica) {
+
+        return String.format(Locale.ROOT, "%d,%s,%d,%d,%d,%.1f,%d,%d,%d,%d",
+                timestamp,
+                metrica.getNombre(),
+                metrica.getLlamadas(),
+                metrica.getErrores(),
+                metrica.getFilas(),
+                metrica.getLatenciaMediaMicros(),
+                metrica.getLatenciaP50Micros(),
+                metrica.getLatenciaP99Micros(),
+                metrica.getLatenciaP999Micros(),
+                metrica.getLatenciaMaximaMicros());
+    }
+
+}
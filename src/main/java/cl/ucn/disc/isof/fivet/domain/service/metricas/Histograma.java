@@ -0,0 +1,124 @@
+package cl.ucn.disc.isof.fivet.domain.service.metricas;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma log-lineal de valores positivos (ej: latencias en nanosegundos), sin locks: cada potencia de 2 se
+ * divide en {@link #SUB_RANGOS} rangos, por lo que los percentiles tienen un error relativo menor a 1/32 (~3%).
+ * Los valores sobre {@link #MAXIMO} se registran como {@link #MAXIMO}.
+ *
+ * Thread-safe.
+ */
+public final class Histograma {
+
+    /**
+     * Bits de cada sub rango
+     */
+    private static final int BITS_SUB_RANGO = 5;
+
+    /**
+     * Rangos por potencia de 2
+     */
+    private static final int SUB_RANGOS = 1 << BITS_SUB_RANGO;
+
+    /**
+     * Mayor desplazamiento: valores hasta 2^44 (~4,9 horas en nanosegundos)
+     */
+    private static final int MAXIMO_DESPLAZAMIENTO = 44 - BITS_SUB_RANGO;
+
+    /**
+     * Mayor valor registrable
+     */
+    public static final long MAXIMO = (1L << (MAXIMO_DESPLAZAMIENTO + BITS_SUB_RANGO + 1)) - 1;
+
+    /**
+     * Cantidad de valores por rango
+     */
+    private final AtomicLongArray rangos = new AtomicLongArray((MAXIMO_DESPLAZAMIENTO + 2) * SUB_RANGOS);
+
+    /**
+     * @param valor a registrar (negativos como 0).
+     */
+    public void registrar(final long valor) {
+        this.rangos.incrementAndGet(indice(Math.min(Math.max(valor, 0), MAXIMO)));
+    }
+
+    /**
+     * @param percentil entre 0 y 100.
+     * @return el menor valor (limite superior de su rango) bajo el cual esta el percentil dado de los registros,
+     * 0 si no hay registros.
+     */
+    public long getPercentil(final double percentil) {
+
+        Preconditions.checkArgument(percentil >= 0 && percentil <= 100, "Percentil invalido: %s", percentil);
+
+        final long total = getCantidad();
+        if (total == 0) {
+            return 0;
+        }
+
+        final long objetivo = Math.max(1, (long) Math.ceil(total * percentil / 100));
+        long acumulado = 0;
+        for (int i = 0; i < this.rangos.length(); i++) {
+            acumulado += this.rangos.get(i);
+            if (acumulado >= objetivo) {
+                return limiteSuperior(i);
+            }
+        }
+        return getMaximo();
+    }
+
+    /**
+     * @return el limite superior del rango del mayor valor registrado, 0 si no hay registros.
+     */
+    public long getMaximo() {
+
+        for (int i = this.rangos.length() - 1; i >= 0; i--) {
+            if (this.rangos.get(i) > 0) {
+                return limiteSuperior(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return la cantidad de valores registrados.
+     */
+    public long getCantidad() {
+
+        long total = 0;
+        for (int i = 0; i < this.rangos.length(); i++) {
+            total += this.rangos.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return el rango del valor.
+     */
+    static int indice(final long valor) {
+
+        if (valor < SUB_RANGOS) {
+            return (int) valor;
+        }
+        final int desplazamiento = 63 - Long.numberOfLeadingZeros(valor) - BITS_SUB_RANGO;
+        final int sub = (int) (valor >>> desplazamiento) & (SUB_RANGOS - 1);
+        return (desplazamiento + 1) * SUB_RANGOS + sub;
+    }
+
+    /**
+     * @return el mayor valor del rango.
+     */
+    static long limiteSuperior(final int indice) {
+
+        if (indice < SUB_RANGOS) {
+            return indice;
+        }
+        final int desplazamiento = indice / SUB_RANGOS - 1;
+        final long sub = indice % SUB_RANGOS;
+        return ((SUB_RANGOS + sub) << desplazamiento) + (1L << desplazamiento) - 1;
+    }
+
+}
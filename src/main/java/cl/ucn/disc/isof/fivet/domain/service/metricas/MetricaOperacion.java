@@ -0,0 +1,122 @@
+package cl.ucn.disc.isof.fivet.domain.service.metricas;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metricas de una operacion: llamadas, errores, filas y latencias, registradas sin locks.
+ *
+ * Thread-safe.
+ */
+public final class MetricaOperacion implements MetricaOperacionMXBean {
+
+    /**
+     * Nombre de la operacion
+     */
+    @Getter
+    private final String nombre;
+
+    private final LongAdder llamadas = new LongAdder();
+
+    private final LongAdder errores = new LongAdder();
+
+    private final LongAdder filas = new LongAdder();
+
+    private final LongAdder latenciaTotal = new LongAdder();
+
+    /**
+     * Latencias en nanosegundos
+     */
+    private final Histograma latencias = new Histograma();
+
+    /**
+     * @param nombre de la operacion.
+     */
+    MetricaOperacion(final String nombre) {
+        this.nombre = nombre;
+    }
+
+    /**
+     * Registra una llamada exitosa.
+     *
+     * @param inicio de la llamada ({@link System#nanoTime()}).
+     * @param filas  retornadas o escritas.
+     */
+    public void registrar(final long inicio, final long filas) {
+        registrar(inicio);
+        this.filas.add(filas);
+    }
+
+    /**
+     * Registra una llamada que termino con una excepcion.
+     *
+     * @param inicio de la llamada ({@link System#nanoTime()}).
+     */
+    public void registrarError(final long inicio) {
+        registrar(inicio);
+        this.errores.increment();
+    }
+
+    private void registrar(final long inicio) {
+
+        final long nanos = System.nanoTime() - inicio;
+        this.llamadas.increment();
+        this.latenciaTotal.add(nanos);
+        this.latencias.registrar(nanos);
+    }
+
+    @Override
+    public long getLlamadas() {
+        return this.llamadas.sum();
+    }
+
+    @Override
+    public long getErrores() {
+        return this.errores.sum();
+    }
+
+    @Override
+    public long getFilas() {
+        return this.filas.sum();
+    }
+
+    @Override
+    public double getLatenciaMediaMicros() {
+        final long llamadas = getLlamadas();
+        return llamadas == 0 ? 0 : this.latenciaTotal.sum() / 1000.0 / llamadas;
+    }
+
+    @Override
+    public long getLatenciaP50Micros() {
+        return micros(this.latencias.getPercentil(50));
+    }
+
+    @Override
+    public long getLatenciaP99Micros() {
+        return micros(this.latencias.getPercentil(99));
+    }
+
+    @Override
+    public long getLatenciaP999Micros() {
+        return micros(this.latencias.getPercentil(99.9));
+    }
+
+    @Override
+    public long getLatenciaMaximaMicros() {
+        return micros(this.latencias.getMaximo());
+    }
+
+    /**
+     * @return el histograma de latencias (nanosegundos).
+     */
+    public Histograma getLatencias() {
+        return this.latencias;
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+}
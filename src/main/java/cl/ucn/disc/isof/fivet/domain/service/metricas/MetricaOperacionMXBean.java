@@ -0,0 +1,48 @@
+package cl.ucn.disc.isof.fivet.domain.service.metricas;
+
+/**
+ * Vista JMX de una {@link MetricaOperacion}. Los valores son acumulados desde el inicio.
+ */
+public interface MetricaOperacionMXBean {
+
+    /**
+     * @return la cantidad de llamadas.
+     */
+    long getLlamadas();
+
+    /**
+     * @return la cantidad de llamadas que terminaron con una excepcion.
+     */
+    long getErrores();
+
+    /**
+     * @return la cantidad de filas retornadas (o escritas).
+     */
+    long getFilas();
+
+    /**
+     * @return la latencia media en microsegundos.
+     */
+    double getLatenciaMediaMicros();
+
+    /**
+     * @return el percentil 50 de la latencia en microsegundos.
+     */
+    long getLatenciaP50Micros();
+
+    /**
+     * @return el percentil 99 de la latencia en microsegundos.
+     */
+    long getLatenciaP99Micros();
+
+    /**
+     * @return el percentil 99,9 de la latencia en microsegundos.
+     */
+    long getLatenciaP999Micros();
+
+    /**
+     * @return la latencia maxima en microsegundos.
+     */
+    long getLatenciaMaximaMicros();
+
+}
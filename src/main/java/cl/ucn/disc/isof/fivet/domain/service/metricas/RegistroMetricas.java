@@ -0,0 +1,135 @@
+package cl.ucn.disc.isof.fivet.domain.service.metricas;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registro de las {@link MetricaOperacion} por nombre, con su exportacion por JMX y periodica.
+ *
+ * Thread-safe.
+ */
+@Slf4j
+public final class RegistroMetricas {
+
+    /**
+     * Metricas por nombre de la operacion (ordenadas, para exportarlas siempre en el mismo orden)
+     */
+    private final Map<String, MetricaOperacion> metricas = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param nombre de la operacion.
+     * @return la metrica de la operacion (se crea la primera vez).
+     */
+    public MetricaOperacion get(final String nombre) {
+
+        Preconditions.checkNotNull(nombre, "Nombre null");
+        return this.metricas.computeIfAbsent(nombre, MetricaOperacion::new);
+    }
+
+    /**
+     * @return las metricas, ordenadas por nombre.
+     */
+    public Collection<MetricaOperacion> getMetricas() {
+        return new ArrayList<>(this.metricas.values());
+    }
+
+    /**
+     * Exporta las metricas a un destino.
+     */
+    public void exportar(final ExportadorMetricas exportador) {
+        exportador.exportar(System.currentTimeMillis(), getMetricas());
+    }
+
+    /**
+     * Registra las metricas existentes como MXBeans (dominio:type=BackendService,name=operacion).
+     *
+     * @param dominio de los MXBeans.
+     * @return la cantidad de metricas registradas.
+     */
+    public int registrarJmx(final String dominio) {
+
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        int registradas = 0;
+        for (final MetricaOperacion metrica : this.metricas.values()) {
+            try {
+                final ObjectName name = nombreJmx(dominio, metrica.getNombre());
+                if (!mBeanServer.isRegistered(name)) {
+                    mBeanServer.registerMBean(metrica, name);
+                    registradas++;
+                }
+            } catch (JMException ex) {
+                log.warn("Can't register the metric {} in JMX", metrica.getNombre(), ex);
+            }
+        }
+        return registradas;
+    }
+
+    /**
+     * Elimina de JMX las metricas registradas con {@link #registrarJmx(String)}.
+     *
+     * @param dominio de los MXBeans.
+     */
+    public void eliminarJmx(final String dominio) {
+
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (final MetricaOperacion metrica : this.metricas.values()) {
+            try {
+                final ObjectName name = nombreJmx(dominio, metrica.getNombre());
+                if (mBeanServer.isRegistered(name)) {
+                    mBeanServer.unregisterMBean(name);
+                }
+            } catch (JMException ex) {
+                log.warn("Can't unregister the metric {} from JMX", metrica.getNombre(), ex);
+            }
+        }
+    }
+
+    /**
+     * @return el nombre JMX de la metrica.
+     */
+    public static ObjectName nombreJmx(final String dominio, final String operacion) throws JMException {
+        return new ObjectName(dominio + ":type=BackendService,name=" + ObjectName.quote(operacion));
+    }
+
+    /**
+     * Exporta periodicamente las metricas en un hilo propio (daemon). Los errores del exportador se registran en el
+     * log sin detener las exportaciones siguientes.
+     *
+     * @param exportador destino de las metricas.
+     * @param periodo    entre exportaciones.
+     * @param unidad     del periodo.
+     * @return el executor de las exportaciones, para detenerlas con {@link ScheduledExecutorService#shutdown()}.
+     */
+    public ScheduledExecutorService programar(final ExportadorMetricas exportador, final long periodo, final TimeUnit unidad) {
+
+        Preconditions.checkNotNull(exportador, "Exportador null");
+        Preconditions.checkArgument(periodo > 0, "Periodo invalido: %s", periodo);
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "metricas-exportador");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                exportar(exportador);
+            } catch (RuntimeException ex) {
+                log.warn("Error exporting metrics", ex);
+            }
+        }, periodo, periodo, unidad);
+        return executor;
+    }
+
+}
@@ -0,0 +1,287 @@
+package com.durrutia.ebean;
+
+import com.avaje.ebean.annotation.Encrypted;
+import com.avaje.ebean.bean.BeanCollection;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializacion JSON de los {@link BaseModel}, escrita directamente en un {@link JsonWriter} (sin arbol intermedio).
+ * <ul>
+ * <li>Los campos de cada clase se obtienen una sola vez (por reflexion) y quedan en cache.</li>
+ * <li>Las colecciones de modelos se serializan completas (ej: Paciente -> Controles), las referencias a un modelo
+ * solo con su id.</li>
+ * <li>Las colecciones no cargadas se omiten: la serializacion nunca dispara consultas.</li>
+ * <li>Los campos {@link Encrypted} se enmascaran.</li>
+ * <li>Las fechas se escriben como milisegundos desde epoch.</li>
+ * </ul>
+ */
+public final class ModelConverter {
+
+    /**
+     * Valor de los campos encriptados
+     */
+    private static final String MASCARA = "***";
+
+    /**
+     * Campos serializables de cada clase
+     */
+    private static final ClassValue<Propiedad[]> PROPIEDADES = new ClassValue<Propiedad[]>() {
+        @Override
+        protected Propiedad[] computeValue(final Class<?> type) {
+            return propiedades(type);
+        }
+    };
+
+    /**
+     * Clase de utilidad
+     */
+    private ModelConverter() {
+    }
+
+    /**
+     * @return el modelo en JSON.
+     */
+    public static String toJson(final BaseModel model) {
+
+        // StringWriter sincroniza cada escritura del JsonWriter
+        final StringBuilderWriter writer = new StringBuilderWriter();
+        toJson(model, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Escribe el modelo en JSON.
+     *
+     * @param model a serializar.
+     * @param writer de destino.
+     */
+    public static void toJson(final BaseModel model, final Writer writer) {
+
+        try {
+            final JsonWriter jsonWriter = new JsonWriter(writer);
+            write(jsonWriter, model, new IdentityHashMap<>());
+            jsonWriter.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Escribe el modelo. Los modelos que ya se estan escribiendo (ciclos) se escriben solo con su id.
+     */
+    private static void write(final JsonWriter writer, final BaseModel model, final Map<BaseModel, Boolean> enCurso)
+            throws IOException {
+
+        if (model == null) {
+            writer.nullValue();
+            return;
+        }
+        if (enCurso.put(model, Boolean.TRUE) != null) {
+            writeId(writer, model);
+            return;
+        }
+
+        writer.beginObject();
+        for (final Propiedad propiedad : PROPIEDADES.get(model.getClass())) {
+
+            final Object value = propiedad.get(model);
+
+            switch (propiedad.tipo) {
+                case ENCRIPTADO:
+                    writer.name(propiedad.nombre);
+                    if (value == null) {
+                        writer.nullValue();
+                    } else {
+                        writer.value(MASCARA);
+                    }
+                    break;
+
+                case COLECCION:
+                    if (value instanceof BeanCollection && !((BeanCollection<?>) value).isPopulated()) {
+                        break;
+                    }
+                    writer.name(propiedad.nombre);
+                    if (value == null) {
+                        writer.nullValue();
+                    } else {
+                        writer.beginArray();
+                        for (final Object elemento : (Collection<?>) value) {
+                            writeValue(writer, elemento, enCurso, true);
+                        }
+                        writer.endArray();
+                    }
+                    break;
+
+                default:
+                    writer.name(propiedad.nombre);
+                    writeValue(writer, value, enCurso, false);
+                    break;
+            }
+        }
+        writer.endObject();
+
+        enCurso.remove(model);
+    }
+
+    /**
+     * Escribe un valor simple, o un modelo (completo si es elemento de una coleccion, si no solo su id).
+     */
+    private static void writeValue(final JsonWriter writer, final Object value, final Map<BaseModel, Boolean> enCurso,
+                                   final boolean completo) throws IOException {
+
+        if (value == null) {
+            writer.nullValue();
+        } else if (value instanceof String) {
+            writer.value((String) value);
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writer.value(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            writer.value(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            writer.value((Number) value);
+        } else if (value instanceof Date) {
+            writer.value(((Date) value).getTime());
+        } else if (value instanceof Enum) {
+            writer.value(((Enum<?>) value).name());
+        } else if (value instanceof BaseModel) {
+            if (completo) {
+                write(writer, (BaseModel) value, enCurso);
+            } else {
+                writeId(writer, (BaseModel) value);
+            }
+        } else {
+            writer.value(value.toString());
+        }
+    }
+
+    private static void writeId(final JsonWriter writer, final BaseModel model) throws IOException {
+
+        if (model.getId() == null) {
+            writer.nullValue();
+        } else {
+            writer.value(model.getId());
+        }
+    }
+
+    /**
+     * @return los campos serializables de la clase y sus superclases (primero los de la superclase).
+     */
+    private static Propiedad[] propiedades(final Class<?> type) {
+
+        final List<Propiedad> propiedades = new ArrayList<>();
+        if (type.getSuperclass() != null && type.getSuperclass() != Object.class) {
+            for (final Propiedad propiedad : PROPIEDADES.get(type.getSuperclass())) {
+                propiedades.add(propiedad);
+            }
+        }
+
+        for (final Field field : type.getDeclaredFields()) {
+
+            final String name = field.getName();
+            if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())
+                    || field.isSynthetic() || name.startsWith("_") || name.startsWith("when") || name.startsWith("log")) {
+                continue;
+            }
+
+            field.setAccessible(true);
+
+            final Tipo tipo;
+            if (field.isAnnotationPresent(Encrypted.class)) {
+                tipo = Tipo.ENCRIPTADO;
+            } else if (Collection.class.isAssignableFrom(field.getType())) {
+                tipo = Tipo.COLECCION;
+            } else {
+                tipo = Tipo.VALOR;
+            }
+            propiedades.add(new Propiedad(name, field, tipo));
+        }
+
+        return propiedades.toArray(new Propiedad[propiedades.size()]);
+    }
+
+    /**
+     * Writer sobre un StringBuilder (sin sincronizacion)
+     */
+    private static final class StringBuilderWriter extends Writer {
+
+        private final StringBuilder builder = new StringBuilder(256);
+
+        @Override
+        public void write(final int c) {
+            this.builder.append((char) c);
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            this.builder.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) {
+            this.builder.append(str, off, off + len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return this.builder.toString();
+        }
+    }
+
+    /**
+     * Tipo de campo
+     */
+    private enum Tipo {
+        VALOR,
+        COLECCION,
+        ENCRIPTADO,
+    }
+
+    /**
+     * Campo serializable de una clase
+     */
+    private static final class Propiedad {
+
+        private final String nombre;
+
+        private final Field field;
+
+        private final Tipo tipo;
+
+        Propiedad(final String nombre, final Field field, final Tipo tipo) {
+            this.nombre = nombre;
+            this.field = field;
+            this.tipo = tipo;
+        }
+
+        Object get(final Object bean) {
+            try {
+                return this.field.get(bean);
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException("No se puede leer " + this.nombre, ex);
+            }
+        }
+    }
+
+}
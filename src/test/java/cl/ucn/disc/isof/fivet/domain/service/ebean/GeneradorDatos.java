@@ -0,0 +1,737 @@
+package cl.ucn.disc.isof.fivet.domain.service.ebean;
+
+import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import cl.ucn.disc.isof.fivet.domain.service.BackendService;
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.Transaction;
+import com.google.common.base.Preconditions;
+import de.svenjacobs.loremipsum.LoremIpsum;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.persistence.PersistenceException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generador determinista de sets de datos (veterinarios, clientes, pacientes y controles) para las pruebas de carga y
+ * escalabilidad: la misma semilla y cantidad de pacientes producen siempre los mismos datos.
+ * <p>
+ * Cada entidad se genera a partir de la semilla y de su indice, por lo que los datos se pueden producir y cargar por
+ * bloques sin mantener el grafo completo en memoria. El set se puede exportar a un archivo (texto separado por tabs,
+ * comprimido con gzip) e importar desde el, para que distintas corridas partan de datos identicos.
+ */
+@Slf4j
+public final class GeneradorDatos {
+
+    /**
+     * Escalas de referencia (cantidad de pacientes)
+     */
+    public static final int ESCALA_10K = 10_000;
+    public static final int ESCALA_100K = 100_000;
+    public static final int ESCALA_1M = 1_000_000;
+
+    /**
+     * Pacientes atendidos por cada veterinario
+     */
+    public static final int PACIENTES_POR_VETERINARIO = 100;
+
+    /**
+     * Pacientes de cada cliente
+     */
+    public static final int PACIENTES_POR_CLIENTE = 2;
+
+    /**
+     * Maximo de controles de un paciente (el promedio es la mitad)
+     */
+    public static final int CONTROLES_MAXIMO = 10;
+
+    /**
+     * Pacientes por bloque de carga
+     */
+    private static final int BLOQUE = 10_000;
+
+    /**
+     * Filas por lote en las inserciones de personas y duenios
+     */
+    private static final int LOTE = 100;
+
+    /**
+     * Fecha de referencia de los datos (2016-11-01), fija para que los datos no dependan del reloj
+     */
+    private static final long FECHA_BASE = 1477958400000L;
+
+    /**
+     * Cabecera del archivo de exportacion
+     */
+    private static final String CABECERA = "# fivet-datos v1";
+
+    /**
+     * Separador de campos del archivo de exportacion
+     */
+    private static final String SEPARADOR = "\t";
+
+    private static final String[] NOMBRES = {"Ana", "Benjamin", "Camila", "Diego", "Elena", "Felipe", "Gabriela",
+            "Hector", "Isidora", "Javier", "Karen", "Luis", "Maria", "Nicolas", "Olivia", "Pedro", "Rocio", "Sebastian",
+            "Tomas", "Valentina"};
+
+    private static final String[] APELLIDOS = {"Alegre", "Araya", "Castillo", "Contreras", "Diaz", "Flores", "Gonzalez",
+            "Lopez", "Morales", "Munoz", "Perez", "Rojas", "Silva", "Soto", "Torres", "Urrutia", "Vega", "Zamora"};
+
+    private static final String[] MASCOTAS = {"Firulais", "Cachupin", "Bobby", "Luna", "Max", "Rocky", "Toby", "Kira",
+            "Simba", "Nala", "Copito", "Pelusa", "Manchas", "Chispa", "Canela", "Pirata", "Negro", "Princesa", "Oso",
+            "Bigotes"};
+
+    private static final String[] RAZAS = {"Quiltro", "Labrador", "Pastor Aleman", "Poodle", "Beagle", "Bulldog",
+            "Siames", "Persa", "Angora", "Boxer"};
+
+    private static final String[] COLORES = {"Negro", "Blanco", "Cafe", "Gris", "Dorado", "Manchado", "Atigrado"};
+
+    private static final String[] DIAGNOSTICOS = {"Control sano", "Vacuna antirrabica", "Desparasitacion",
+            "Otitis externa", "Dermatitis alergica", "Gastroenteritis", "Fractura de pata", "Obesidad",
+            "Conjuntivitis", "Infeccion urinaria", "Control post operatorio", "Parvovirus"};
+
+    /**
+     * Tipos de registro (para separar las secuencias aleatorias)
+     */
+    private static final int VETERINARIO = 1;
+    private static final int CLIENTE = 2;
+    private static final int PACIENTE = 3;
+    private static final int CONTROL = 4;
+
+    /**
+     * Texto para las notas
+     */
+    private static final LoremIpsum LOREM_IPSUM = new LoremIpsum();
+
+    /**
+     * Semilla
+     */
+    @Getter
+    private final long semilla;
+
+    /**
+     * Cantidad de pacientes
+     */
+    @Getter
+    private final int pacientes;
+
+    /**
+     * @param semilla de los datos.
+     * @param pacientes a generar.
+     */
+    public GeneradorDatos(final long semilla, final int pacientes) {
+
+        Preconditions.checkArgument(pacientes > 0, "La cantidad de pacientes debe ser positiva");
+
+        this.semilla = semilla;
+        this.pacientes = pacientes;
+    }
+
+    /**
+     * @return la cantidad de veterinarios.
+     */
+    public int getVeterinarios() {
+        return Math.max(1, this.pacientes / PACIENTES_POR_VETERINARIO);
+    }
+
+    /**
+     * @return la cantidad de clientes.
+     */
+    public int getClientes() {
+        return (this.pacientes + PACIENTES_POR_CLIENTE - 1) / PACIENTES_POR_CLIENTE;
+    }
+
+    /**
+     * @param indice del veterinario, entre 0 y {@link #getVeterinarios()} - 1.
+     * @return el veterinario (sin persistir).
+     */
+    public Persona veterinario(final int indice) {
+        return persona(VETERINARIO, indice, 5_000_000 + indice, "veterinario" + indice + "@fivet.cl",
+                Persona.Tipo.VETERINARIO);
+    }
+
+    /**
+     * @param indice del cliente, entre 0 y {@link #getClientes()} - 1.
+     * @return el cliente (sin persistir).
+     */
+    public Persona cliente(final int indice) {
+        return persona(CLIENTE, indice, 10_000_000 + indice, "cliente" + indice + "@mail.cl", Persona.Tipo.CLIENTE);
+    }
+
+    /**
+     * @param numero de la ficha, entre 1 y {@link #getPacientes()}.
+     * @return el paciente (sin persistir).
+     */
+    public Paciente paciente(final int numero) {
+
+        final Random random = random(PACIENTE, numero);
+
+        return Paciente.builder()
+                .numero(numero)
+                .nombre(elegir(random, MASCOTAS) + " " + elegir(random, APELLIDOS))
+                .fechaNacimiento(new Date(FECHA_BASE - TimeUnit.DAYS.toMillis(30 + random.nextInt(5000))))
+                .raza(elegir(random, RAZAS))
+                .sexo(elegir(random, Paciente.Sexo.values()))
+                .color(elegir(random, COLORES))
+                .build();
+    }
+
+    /**
+     * @param numero de la ficha del paciente.
+     * @param veterinarios persistidos, en el orden de {@link #veterinario(int)}.
+     * @return los controles del paciente (sin persistir), ordenados por fecha.
+     */
+    public List<Control> controles(final int numero, final List<Persona> veterinarios) {
+
+        final Random random = random(CONTROL, numero);
+        final int cantidad = random.nextInt(CONTROLES_MAXIMO + 1);
+
+        final List<Control> controles = new ArrayList<>(cantidad);
+        long fecha = FECHA_BASE - TimeUnit.DAYS.toMillis(30L * (cantidad + 1));
+        for (int i = 0; i < cantidad; i++) {
+
+            fecha += TimeUnit.DAYS.toMillis(1 + random.nextInt(60));
+            final String diagnostico = elegir(random, DIAGNOSTICOS);
+            final String nota = random.nextBoolean() ? LOREM_IPSUM.getWords(5 + random.nextInt(20), random.nextInt(50)) : null;
+
+            controles.add(Control.builder()
+                    .fecha(new Date(fecha))
+                    .proxControl(new Date(fecha + TimeUnit.DAYS.toMillis(30)))
+                    .temperatura(Math.round((37.5 + random.nextDouble() * 2) * 10) / 10.0)
+                    .peso(Math.round((1 + random.nextDouble() * 40) * 10) / 10.0)
+                    .altura(random.nextBoolean() ? Math.round((10 + random.nextDouble() * 70) * 10) / 10.0 : null)
+                    .diagnostico(diagnostico)
+                    .nota(nota)
+                    .veterinario(veterinarios.get(random.nextInt(veterinarios.size())))
+                    .build());
+        }
+        return controles;
+    }
+
+    /**
+     * Genera y carga el set de datos completo en un {@link EbeanBackendService}.
+     *
+     * @param backendService donde cargar los datos.
+     */
+    public void cargar(final BackendService backendService) {
+        cargar(backendService, ebeanServer(backendService));
+    }
+
+    /**
+     * Genera y carga el set de datos completo en el backend. Los clientes y los pacientes se generan e insertan por
+     * lotes: en memoria solo se mantienen los veterinarios y el lote en curso.
+     *
+     * @param backendService donde cargar los pacientes y controles (ej: un backend instrumentado).
+     * @param ebeanServer del backend, donde cargar las personas y los duenios.
+     */
+    public void cargar(final BackendService backendService, final EbeanServer ebeanServer) {
+
+        final Carga carga = new Carga(backendService, ebeanServer);
+
+        final List<Persona> personas = new ArrayList<>();
+        for (int i = 0; i < getVeterinarios(); i++) {
+            personas.add(veterinario(i));
+        }
+        final List<Persona> veterinarios = carga.veterinarios(personas);
+
+        for (int i = 0; i < getClientes(); i++) {
+            carga.persona(cliente(i));
+        }
+        carga.personas();
+
+        for (int desde = 1; desde <= this.pacientes; desde += BLOQUE) {
+            final int hasta = Math.min(this.pacientes, desde + BLOQUE - 1);
+            for (int numero = desde; numero <= hasta; numero++) {
+                carga.paciente(paciente(numero), controles(numero, veterinarios));
+            }
+            carga.flush();
+        }
+
+        // Los duenios se asocian cuando sus pacientes ya existen
+        for (int i = 0; i < getClientes(); i++) {
+            carga.duenio(cliente(i).getRut(), desde(i), hasta(i));
+        }
+        carga.duenios();
+
+        log.info("Datos cargados: {}", carga);
+    }
+
+    /**
+     * Exporta el set de datos a un archivo. No requiere base de datos.
+     *
+     * @param archivo de destino.
+     */
+    public void exportar(final Path archivo) throws IOException {
+
+        // Los indices de los veterinarios son suficientes para referenciarlos desde los controles
+        final List<Persona> veterinarios = new ArrayList<>(getVeterinarios());
+
+        try (final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(archivo)), StandardCharsets.UTF_8))) {
+
+            linea(writer, CABECERA, this.semilla, this.pacientes);
+
+            for (int i = 0; i < getVeterinarios(); i++) {
+                final Persona veterinario = veterinario(i);
+                veterinarios.add(veterinario);
+                linea(writer, "V", veterinario.getRut(), veterinario.getNombre(), veterinario.getMail(),
+                        veterinario.getPassword());
+            }
+
+            for (int i = 0; i < getClientes(); i++) {
+                final Persona cliente = cliente(i);
+                linea(writer, "C", cliente.getRut(), cliente.getNombre(), cliente.getMail(), cliente.getPassword(),
+                        desde(i), hasta(i));
+            }
+
+            final Map<Persona, Integer> indices = new IdentityHashMap<>();
+            for (int i = 0; i < veterinarios.size(); i++) {
+                indices.put(veterinarios.get(i), i);
+            }
+
+            for (int numero = 1; numero <= this.pacientes; numero++) {
+                final Paciente paciente = paciente(numero);
+                linea(writer, "P", numero, paciente.getNombre(), paciente.getFechaNacimiento().getTime(),
+                        paciente.getRaza(), paciente.getSexo(), paciente.getColor());
+
+                for (final Control control : controles(numero, veterinarios)) {
+                    linea(writer, "K", numero, control.getFecha().getTime(), control.getProxControl().getTime(),
+                            control.getTemperatura(), control.getPeso(), control.getAltura(),
+                            indices.get(control.getVeterinario()), control.getDiagnostico(), control.getNota());
+                }
+            }
+        }
+    }
+
+    /**
+     * Carga en un {@link EbeanBackendService} un set de datos exportado con {@link #exportar(Path)}.
+     *
+     * @param archivo de origen.
+     * @param backendService donde cargar los datos.
+     */
+    public static void importar(final Path archivo, final BackendService backendService) throws IOException {
+        importar(archivo, backendService, ebeanServer(backendService));
+    }
+
+    /**
+     * Carga en el backend un set de datos exportado con {@link #exportar(Path)}, por lotes como {@link #cargar}. Los
+     * clientes preceden a los pacientes en el archivo: sus duenios se asocian en una segunda lectura.
+     *
+     * @param archivo de origen.
+     * @param backendService donde cargar los pacientes y controles.
+     * @param ebeanServer del backend, donde cargar las personas y los duenios.
+     */
+    public static void importar(final Path archivo, final BackendService backendService,
+                                final EbeanServer ebeanServer) throws IOException {
+
+        final Carga carga = new Carga(backendService, ebeanServer);
+
+        try (final BufferedReader reader = lector(archivo)) {
+
+            final List<Persona> personas = new ArrayList<>();
+            List<Persona> veterinarios = null;
+
+            Paciente paciente = null;
+            List<Control> controles = new ArrayList<>();
+
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+
+                final String[] campos = linea.split(SEPARADOR, -1);
+                switch (campos[0]) {
+                    case "V":
+                        personas.add(persona(campos, Persona.Tipo.VETERINARIO));
+                        break;
+
+                    case "C":
+                        if (veterinarios == null) {
+                            veterinarios = carga.veterinarios(personas);
+                            personas.clear();
+                        }
+                        carga.persona(persona(campos, Persona.Tipo.CLIENTE));
+                        break;
+
+                    case "P":
+                        if (veterinarios == null) {
+                            veterinarios = carga.veterinarios(personas);
+                            personas.clear();
+                        }
+                        carga.personas();
+                        if (paciente != null) {
+                            carga.paciente(paciente, controles);
+                            controles = new ArrayList<>();
+                            if (carga.getPendientes() >= BLOQUE) {
+                                carga.flush();
+                            }
+                        }
+                        paciente = Paciente.builder()
+                                .numero(Integer.parseInt(campos[1]))
+                                .nombre(campos[2])
+                                .fechaNacimiento(new Date(Long.parseLong(campos[3])))
+                                .raza(campos[4])
+                                .sexo(Paciente.Sexo.valueOf(campos[5]))
+                                .color(campos[6])
+                                .build();
+                        break;
+
+                    case "K":
+                        Preconditions.checkState(veterinarios != null, "Control sin veterinarios: %s", linea);
+                        controles.add(Control.builder()
+                                .fecha(new Date(Long.parseLong(campos[2])))
+                                .proxControl(new Date(Long.parseLong(campos[3])))
+                                .temperatura(decimal(campos[4]))
+                                .peso(decimal(campos[5]))
+                                .altura(decimal(campos[6]))
+                                .veterinario(veterinarios.get(Integer.parseInt(campos[7])))
+                                .diagnostico(texto(campos[8]))
+                                .nota(texto(campos[9]))
+                                .build());
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Registro desconocido: " + linea);
+                }
+            }
+
+            if (paciente != null) {
+                carga.paciente(paciente, controles);
+            }
+            carga.flush();
+        }
+
+        try (final BufferedReader reader = lector(archivo)) {
+
+            String linea;
+            while ((linea = reader.readLine()) != null) {
+                final String[] campos = linea.split(SEPARADOR, -1);
+                if ("C".equals(campos[0])) {
+                    carga.duenio(campos[1], Integer.parseInt(campos[5]), Integer.parseInt(campos[6]));
+                }
+            }
+            carga.duenios();
+        }
+
+        log.info("Datos importados desde {}: {}", archivo, carga);
+    }
+
+    /**
+     * @return el lector del archivo, tras validar su cabecera.
+     */
+    private static BufferedReader lector(final Path archivo) throws IOException {
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(archivo)), StandardCharsets.UTF_8));
+
+        final String cabecera = reader.readLine();
+        if (cabecera == null || !cabecera.startsWith(CABECERA + SEPARADOR)) {
+            reader.close();
+            throw new IllegalArgumentException("Archivo de datos invalido: " + archivo);
+        }
+        return reader;
+    }
+
+    /**
+     * @return el EbeanServer del backend.
+     * @throws IllegalArgumentException si no es un {@link EbeanBackendService} (ej: un decorador).
+     */
+    private static EbeanServer ebeanServer(final BackendService backendService) {
+
+        Preconditions.checkArgument(backendService instanceof EbeanBackendService,
+                "Se requiere el EbeanServer de %s", backendService.getClass().getSimpleName());
+        return ((EbeanBackendService) backendService).getEbeanServer();
+    }
+
+    /**
+     * @return la persona del tipo e indice.
+     */
+    private Persona persona(final int tipo, final int indice, final int rut, final String mail, final Persona.Tipo tipoPersona) {
+
+        final Random random = random(tipo, indice);
+
+        return Persona.builder()
+                .rut(rut + "-" + digitoVerificador(rut))
+                .nombre(elegir(random, NOMBRES) + " " + elegir(random, APELLIDOS) + " " + elegir(random, APELLIDOS))
+                .mail(mail)
+                .password(Long.toHexString(random.nextLong()))
+                .tipo(tipoPersona)
+                .build();
+    }
+
+    /**
+     * @return la persona de un registro V o C.
+     */
+    private static Persona persona(final String[] campos, final Persona.Tipo tipo) {
+        return Persona.builder()
+                .rut(campos[1])
+                .nombre(campos[2])
+                .mail(campos[3])
+                .password(campos[4])
+                .tipo(tipo)
+                .build();
+    }
+
+    /**
+     * @return el primer numero de ficha del cliente.
+     */
+    private static int desde(final int cliente) {
+        return cliente * PACIENTES_POR_CLIENTE + 1;
+    }
+
+    /**
+     * @return el ultimo numero de ficha del cliente.
+     */
+    private int hasta(final int cliente) {
+        return Math.min(this.pacientes, (cliente + 1) * PACIENTES_POR_CLIENTE);
+    }
+
+    /**
+     * @return la secuencia aleatoria del registro, independiente de los demas registros.
+     */
+    private Random random(final int tipo, final long indice) {
+
+        // SplitMix64: semillas vecinas producen secuencias sin correlacion
+        long z = this.semilla + tipo * 0x9E3779B97F4A7C15L + indice * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(z ^ (z >>> 31));
+    }
+
+    private static <T> T elegir(final Random random, final T[] valores) {
+        return valores[random.nextInt(valores.length)];
+    }
+
+    /**
+     * @return el digito verificador (modulo 11) del rut.
+     */
+    private static char digitoVerificador(int rut) {
+
+        int suma = 0;
+        int factor = 2;
+        while (rut > 0) {
+            suma += (rut % 10) * factor;
+            rut /= 10;
+            factor = factor == 7 ? 2 : factor + 1;
+        }
+        final int digito = 11 - (suma % 11);
+        return digito == 11 ? '0' : digito == 10 ? 'K' : (char) ('0' + digito);
+    }
+
+    /**
+     * Escribe un registro, los null quedan como campos vacios.
+     */
+    private static void linea(final Writer writer, final Object... campos) throws IOException {
+
+        for (int i = 0; i < campos.length; i++) {
+            if (i > 0) {
+                writer.write(SEPARADOR);
+            }
+            if (campos[i] != null) {
+                writer.write(campos[i].toString());
+            }
+        }
+        writer.write('\n');
+    }
+
+    private static Double decimal(final String campo) {
+        return campo.isEmpty() ? null : Double.valueOf(campo);
+    }
+
+    private static String texto(final String campo) {
+        return campo.isEmpty() ? null : campo;
+    }
+
+    /**
+     * Carga por lotes de los datos en el backend.
+     */
+    private static final class Carga {
+
+        /**
+         * Asociacion cliente - pacientes por rango de numeros de ficha
+         */
+        private static final String INSERT_DUENIO = "insert into persona_paciente (persona_id, paciente_id) "
+                + "select c.id, p.id from persona c, paciente p where c.rut = ? and p.numero between ? and ?";
+
+        private final BackendService backendService;
+
+        private final EbeanServer ebeanServer;
+
+        /**
+         * Personas pendientes del lote actual
+         */
+        private final List<Persona> pendientes = new ArrayList<>(LOTE);
+
+        /**
+         * Pacientes y controles pendientes del bloque actual
+         */
+        private final List<Paciente> pacientes = new ArrayList<>();
+        private final Map<Integer, List<Control>> controles = new HashMap<>();
+
+        /**
+         * Clientes (rut, desde, hasta) del lote actual, pendientes de asociar a sus pacientes
+         */
+        private final List<Object[]> duenios = new ArrayList<>();
+
+        private int personas;
+        private int totalPacientes;
+        private int totalControles;
+
+        Carga(final BackendService backendService, final EbeanServer ebeanServer) {
+            this.backendService = backendService;
+            this.ebeanServer = ebeanServer;
+        }
+
+        /**
+         * Inserta los veterinarios.
+         *
+         * @return los veterinarios persistidos (solo id y rut), en el mismo orden.
+         */
+        List<Persona> veterinarios(final List<Persona> veterinarios) {
+
+            veterinarios.forEach(this::persona);
+            personas();
+
+            // Algunos drivers no retornan las claves generadas en batch: se releen por rut
+            final Map<String, Persona> porRut = new HashMap<>();
+            this.ebeanServer.find(Persona.class)
+                    .select("id, rut")
+                    .where().eq("tipo", Persona.Tipo.VETERINARIO)
+                    .findEach(veterinario -> porRut.put(veterinario.getRut(), veterinario));
+
+            final List<Persona> persistidos = new ArrayList<>(veterinarios.size());
+            for (final Persona veterinario : veterinarios) {
+                persistidos.add(Preconditions.checkNotNull(porRut.get(veterinario.getRut())));
+            }
+            return persistidos;
+        }
+
+        /**
+         * Agrega la persona al lote, insertandolo si esta completo.
+         */
+        void persona(final Persona persona) {
+
+            this.pendientes.add(persona);
+            if (this.pendientes.size() == LOTE) {
+                personas();
+            }
+        }
+
+        /**
+         * Inserta las personas pendientes, en una transaccion.
+         */
+        void personas() {
+
+            if (this.pendientes.isEmpty()) {
+                return;
+            }
+
+            final Transaction transaction = this.ebeanServer.beginTransaction();
+            try {
+                transaction.setBatchMode(true);
+                transaction.setBatchSize(LOTE);
+                this.ebeanServer.insertAll(this.pendientes, transaction);
+                transaction.commit();
+            } finally {
+                transaction.end();
+            }
+            this.personas += this.pendientes.size();
+            this.pendientes.clear();
+        }
+
+        /**
+         * Agrega el duenio al lote, asociandolo si esta completo.
+         */
+        void duenio(final String rut, final int desde, final int hasta) {
+
+            this.duenios.add(new Object[]{rut, desde, hasta});
+            if (this.duenios.size() == LOTE) {
+                duenios();
+            }
+        }
+
+        void paciente(final Paciente paciente, final List<Control> controles) {
+
+            this.pacientes.add(paciente);
+            if (!controles.isEmpty()) {
+                this.controles.put(paciente.getNumero(), controles);
+            }
+        }
+
+        int getPendientes() {
+            return this.pacientes.size();
+        }
+
+        /**
+         * Inserta los pacientes y controles pendientes.
+         */
+        void flush() {
+
+            this.backendService.insertPacientes(this.pacientes);
+            this.backendService.agregarControles(this.controles);
+
+            this.totalPacientes += this.pacientes.size();
+            this.totalControles += this.controles.values().stream().mapToInt(List::size).sum();
+
+            this.pacientes.clear();
+            this.controles.clear();
+        }
+
+        /**
+         * Asocia los clientes pendientes a sus pacientes, en una transaccion.
+         */
+        void duenios() {
+
+            if (this.duenios.isEmpty()) {
+                return;
+            }
+
+            final Transaction transaction = this.ebeanServer.beginTransaction();
+            try (final PreparedStatement statement = transaction.getConnection().prepareStatement(INSERT_DUENIO)) {
+
+                for (final Object[] duenio : this.duenios) {
+                    statement.setString(1, (String) duenio[0]);
+                    statement.setInt(2, (Integer) duenio[1]);
+                    statement.setInt(3, (Integer) duenio[2]);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+
+                transaction.addModification("persona_paciente", true, false, false);
+                transaction.commit();
+
+            } catch (final SQLException ex) {
+                throw new PersistenceException("Error al asociar los clientes a sus pacientes", ex);
+            } finally {
+                transaction.end();
+            }
+            this.duenios.clear();
+        }
+
+        @Override
+        public String toString() {
+            return this.personas + " personas, " + this.totalPacientes + " pacientes, " + this.totalControles + " controles";
+        }
+    }
+
+}
@@ -1,16 +1,69 @@
 package cl.ucn.disc.isof.fivet.domain.service.ebean;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.spi.FilterReply;
 import cl.ucn.disc.isof.fivet.domain.model.Control;
+import cl.ucn.disc.isof.fivet.domain.model.ControlResumen;
 import cl.ucn.disc.isof.fivet.domain.model.Paciente;
+import cl.ucn.disc.isof.fivet.domain.model.PacienteResumen;
 import cl.ucn.disc.isof.fivet.domain.model.Persona;
+import cl.ucn.disc.isof.fivet.domain.service.AsyncBackendService;
 import cl.ucn.disc.isof.fivet.domain.service.BackendService;
+import cl.ucn.disc.isof.fivet.domain.service.CursorCambios;
+import cl.ucn.disc.isof.fivet.domain.service.ExecutorAsyncBackendService;
+import cl.ucn.disc.isof.fivet.domain.service.FetchSpec;
+import cl.ucn.disc.isof.fivet.domain.service.InstrumentedBackendService;
+import cl.ucn.disc.isof.fivet.domain.service.PaginaCambios;
+import cl.ucn.disc.isof.fivet.domain.service.SingleFlightBackendService;
+import cl.ucn.disc.isof.fivet.domain.service.metricas.ExportadorMetricas;
+import cl.ucn.disc.isof.fivet.domain.service.metricas.Histograma;
+import cl.ucn.disc.isof.fivet.domain.service.metricas.MetricaOperacion;
+import cl.ucn.disc.isof.fivet.domain.service.metricas.RegistroMetricas;
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.SqlRow;
+import com.avaje.ebean.Transaction;
+import com.avaje.ebean.cache.ServerCache;
+import com.avaje.ebean.cache.ServerCacheStatistics;
+import com.durrutia.ebean.BaseModel;
+import com.durrutia.ebean.ModelConverter;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import lombok.extern.slf4j.Slf4j;
+import org.avaje.datasource.PoolStatus;
 import org.junit.*;
 import org.junit.rules.Timeout;
 import org.junit.runners.MethodSorters;
 
+import javax.crypto.spec.SecretKeySpec;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * Clase de testing del {@link BackendService}.
@@ -144,6 +197,7 @@ public class TestEbeanBackendService {
                 .mail("ahenriquez@sodired.cl")
                 .rut("17725104-6")
                 .password("123456")
+                .tipo(Persona.Tipo.VETERINARIO)
                 .build();
         persona1.insert();
 
@@ -165,11 +219,1711 @@ public class TestEbeanBackendService {
                 .build();
         paciente2.insert();
 
-        //...
+        for (final String nombre : new String[]{"Pepé", "pepa", "PEPILLA", "Chepe"}) {
+            Paciente.builder()
+                    .nombre(nombre)
+                    .numero(nombre.hashCode())
+                    .build()
+                    .insert();
+        }
+
+        // Por prefijo, sin considerar mayusculas ni tildes
+        {
+            final List<Paciente> pacientes = backendService.getPacientesPorNombre("pep");
+            Assert.assertEquals("Pacientes por prefijo", 3, pacientes.size());
+            Assert.assertEquals("Rinho", backendService.getPacientesPorNombre("RIN").get(0).getNombre());
+            Assert.assertTrue("Sin resultados", backendService.getPacientesPorNombre("xyz").isEmpty());
+        }
+
+        // Por substring
+        {
+            Assert.assertEquals("Pepé y Chepe", 2, backendService.buscarPacientesPorNombre("epe").size());
+            Assert.assertEquals("PEPILLA", 1, backendService.buscarPacientesPorNombre("íll").size());
+            Assert.assertEquals("Texto corto", 4, backendService.buscarPacientesPorNombre("pe").size());
+            Assert.assertEquals("Wolf", backendService.buscarPacientesPorNombre("olf").get(0).getNombre());
+        }
+
+        // Cambio de nombre y reconstruccion del indice
+        {
+            final Paciente wolf = backendService.getPaciente(987654321);
+            wolf.setNombre("Lobo");
+            wolf.update();
+
+            Assert.assertTrue("Nombre anterior", backendService.buscarPacientesPorNombre("olf").isEmpty());
+            Assert.assertEquals("Nombre nuevo", 1, backendService.buscarPacientesPorNombre("obo").size());
+            Assert.assertEquals("Prefijo nuevo", 1, backendService.getPacientesPorNombre("lob").size());
+
+            backendService.initialize();
+            Assert.assertEquals("Indice reconstruido", 1, backendService.buscarPacientesPorNombre("obo").size());
+        }
+
+        // Indice sin construir: se busca directamente en la base de datos
+        {
+            backendService.shutdown();
+            backendService = new EbeanBackendService(DB);
+
+            final Date ahora = new Date();
+            Ebean.createSqlUpdate("insert into paciente (numero, nombre, nombre_busqueda, version, deleted, "
+                    + "when_created, when_modified) values (1, 'Firulais', 'firulais', 1, false, :ahora, :ahora)")
+                    .setParameter("ahora", ahora)
+                    .execute();
+
+            Assert.assertEquals("Sin indice", 1, backendService.buscarPacientesPorNombre("irula").size());
+
+            backendService.initialize();
+            Assert.assertEquals("Indice construido", 1, backendService.buscarPacientesPorNombre("irula").size());
+        }
+    }
+
+    /**
+     * Test del indice de nombres ante transacciones revertidas: solo se aplican los cambios con commit
+     */
+    @Test
+    public void testBuscarPacientesPorNombreRollback() {
+
+        final Paciente firulais = Paciente.builder().numero(1).nombre("Firulais").build();
+        firulais.insert();
+
+        // Cambio de nombre revertido
+        {
+            final Transaction transaction = Ebean.beginTransaction();
+            try {
+                final Paciente paciente = backendService.getPaciente(1);
+                paciente.setNombre("Bobby");
+                paciente.update();
+                transaction.rollback();
+            } finally {
+                transaction.end();
+            }
+            Assert.assertEquals("Nombre revertido", 1, backendService.buscarPacientesPorNombre("irula").size());
+            Assert.assertTrue("Nombre no aplicado", backendService.buscarPacientesPorNombre("obby").isEmpty());
+        }
+
+        // Insercion revertida
+        {
+            final Transaction transaction = Ebean.beginTransaction();
+            try {
+                Paciente.builder().numero(2).nombre("Fantasma").build().insert();
+                transaction.rollback();
+            } finally {
+                transaction.end();
+            }
+            Assert.assertTrue("Insercion revertida", backendService.buscarPacientesPorNombre("antas").isEmpty());
+        }
+
+        // Commit fallido: el lote pendiente (numero repetido) falla al hacer commit
+        {
+            final Transaction transaction = Ebean.beginTransaction();
+            try {
+                Paciente.builder().numero(3).nombre("Espectro").build().insert();
+                transaction.setBatchMode(true);
+                Paciente.builder().numero(1).nombre("Repetido").build().insert();
+                transaction.commit();
+                Assert.fail("Commit con numero repetido");
+            } catch (PersistenceException ex) {
+                log.debug("Commit fallido: {}", ex.getMessage());
+            } finally {
+                transaction.end();
+            }
+            Assert.assertTrue("Commit fallido", backendService.buscarPacientesPorNombre("spectr").isEmpty());
+        }
+
+        // Commit fallido con un cambio de nombre: el indice mantiene el nombre anterior
+        {
+            final Transaction transaction = Ebean.beginTransaction();
+            try {
+                final Paciente paciente = backendService.getPaciente(1);
+                paciente.setNombre("Sombra");
+                paciente.update();
+                transaction.setBatchMode(true);
+                Paciente.builder().numero(1).nombre("Repetido").build().insert();
+                transaction.commit();
+                Assert.fail("Commit con numero repetido");
+            } catch (PersistenceException ex) {
+                log.debug("Commit fallido: {}", ex.getMessage());
+            } finally {
+                transaction.end();
+            }
+            Assert.assertEquals("Nombre anterior", 1, backendService.buscarPacientesPorNombre("irula").size());
+            Assert.assertTrue("Nombre no aplicado", backendService.buscarPacientesPorNombre("ombra").isEmpty());
+        }
+
+        // Con commit
+        {
+            final Paciente paciente = backendService.getPaciente(1);
+            paciente.setNombre("Bobby");
+            paciente.update();
+            Assert.assertTrue("Nombre anterior", backendService.buscarPacientesPorNombre("irula").isEmpty());
+            Assert.assertEquals("Nombre nuevo", 1, backendService.buscarPacientesPorNombre("obby").size());
+        }
+    }
+
+    /**
+     * Test de la paginacion de pacientes (por pagina y por cursor)
+     */
+    @Test
+    public void testGetPacientesPaginados() {
+
+        final int total = 25;
+        for (int i = total; i > 0; i--) {
+            Paciente.builder()
+                    .numero(i)
+                    .nombre("Paciente " + i)
+                    .build()
+                    .insert();
+        }
+
+        // Por pagina
+        {
+            final List<Paciente> pagina = backendService.getPacientes(1, 10);
+            Assert.assertEquals("Tamanio de pagina", 10, pagina.size());
+            Assert.assertEquals("Primer paciente de la pagina", Integer.valueOf(11), pagina.get(0).getNumero());
+
+            final List<Paciente> ultima = backendService.getPacientes(2, 10);
+            Assert.assertEquals("Tamanio de la ultima pagina", 5, ultima.size());
+            Assert.assertTrue("Pagina fuera de rango", backendService.getPacientes(3, 10).isEmpty());
+        }
+
+        // Por cursor
+        {
+            Integer cursor = null;
+            int leidos = 0;
+            List<Paciente> pagina;
+            while (!(pagina = backendService.getPacientesDesde(cursor, 7)).isEmpty()) {
+                for (final Paciente paciente : pagina) {
+                    Assert.assertEquals("Orden por numero", Integer.valueOf(++leidos), paciente.getNumero());
+                }
+                cursor = pagina.get(pagina.size() - 1).getNumero();
+            }
+            Assert.assertEquals("Total recorrido", total, leidos);
+        }
+    }
+
+    /**
+     * Test del recorrido completo de pacientes y controles
+     */
+    @Test
+    public void testForEach() {
+
+        final int total = 30;
+        for (int i = 1; i <= total; i++) {
+            Paciente.builder()
+                    .numero(i)
+                    .nombre("Paciente " + i)
+                    .build()
+                    .insert();
+
+            Control.builder()
+                    .diagnostico("Diagnostico " + i)
+                    .build()
+                    .insert();
+        }
+
+        final List<Integer> numeros = new ArrayList<>();
+        backendService.forEachPaciente(paciente -> numeros.add(paciente.getNumero()));
+        Assert.assertEquals("Pacientes recorridos", total, numeros.size());
+        Assert.assertEquals("Orden de recorrido", Integer.valueOf(1), numeros.get(0));
+
+        final int[] controles = new int[1];
+        backendService.forEachControl(control -> controles[0]++);
+        Assert.assertEquals("Controles recorridos", total, controles[0]);
+    }
+
+    /**
+     * Test de la insercion masiva de pacientes y controles, reporta filas por segundo
+     */
+    @Test
+    public void testInsercionMasiva() {
+
+        final int total = 2000;
+
+        final List<Paciente> pacientes = new ArrayList<>();
+        for (int i = 1; i <= total; i++) {
+            pacientes.add(Paciente.builder()
+                    .numero(i)
+                    .nombre("Paciente " + i)
+                    .build());
+        }
+
+        final Stopwatch cronometro = Stopwatch.createStarted();
+        backendService.insertPacientes(pacientes);
+        log.info("insertPacientes: {} filas en {} ({} filas/s)", total, cronometro, filasPorSegundo(total, cronometro));
+
+        Assert.assertEquals("Pacientes insertados", total, backendService.getPacientes().size());
+
+        final Map<Integer, List<Control>> controles = new HashMap<>();
+        for (int i = 1; i <= total; i++) {
+            final List<Control> lista = new ArrayList<>();
+            lista.add(Control.builder().diagnostico("Diagnostico " + i).build());
+            lista.add(Control.builder().diagnostico("Control " + i).build());
+            controles.put(i, lista);
+        }
+
+        cronometro.reset().start();
+        backendService.agregarControles(controles);
+        log.info("agregarControles: {} filas en {} ({} filas/s)", 2 * total, cronometro, filasPorSegundo(2 * total, cronometro));
+
+        Assert.assertEquals("Controles del paciente", 2, backendService.getPaciente(total).getControles().size());
+
+        final int[] contador = new int[1];
+        backendService.forEachControl(control -> contador[0]++);
+        Assert.assertEquals("Controles insertados", 2 * total, contador[0]);
+    }
+
+    /**
+     * Test de agregarControl: el costo de agregar un control no debe crecer con los controles previos
+     */
+    @Test
+    public void testAgregarControl() {
+
+        final Integer numero = 1;
+        Paciente.builder()
+                .numero(numero)
+                .nombre("Rinho")
+                .build()
+                .insert();
+
+        final int bloque = 50;
+        final int bloques = 6;
+        final Stopwatch cronometro = Stopwatch.createUnstarted();
+        for (int b = 1; b <= bloques; b++) {
+            cronometro.reset().start();
+            for (int i = 0; i < bloque; i++) {
+                backendService.agregarControl(Control.builder().diagnostico("Control " + i).build(), numero);
+            }
+            log.info("agregarControl: bloque {} ({} controles previos) en {}", b, (b - 1) * bloque, cronometro);
+        }
+
+        Assert.assertEquals("Controles del paciente", bloque * bloques,
+                backendService.getPaciente(numero).getControles().size());
+
+        // Paciente inexistente: no debe quedar el control insertado
+        try {
+            backendService.agregarControl(Control.builder().diagnostico("Huerfano").build(), -1);
+            Assert.fail("Se esperaba una excepcion por paciente inexistente");
+        } catch (RuntimeException ex) {
+            log.debug("Excepcion esperada: {}", ex.getMessage());
+        }
+
+        final int[] contador = new int[1];
+        backendService.forEachControl(control -> contador[0]++);
+        Assert.assertEquals("Controles insertados", bloque * bloques, contador[0]);
+    }
+
+    /**
+     * Test de la carga de asociaciones con {@link FetchSpec}
+     */
+    @Test
+    public void testFetchSpec() {
+
+        final String rut = "1-9";
+        final Persona veterinario = Persona.builder()
+                .nombre("Veterinario")
+                .rut(rut)
+                .password("vet123")
+                .tipo(Persona.Tipo.VETERINARIO)
+                .build();
+        veterinario.insert();
+
+        final Integer numero = 7;
+        Paciente.builder()
+                .numero(numero)
+                .nombre("Wolf")
+                .build()
+                .insert();
+
+        for (int i = 0; i < 3; i++) {
+            backendService.agregarControl(Control.builder()
+                    .diagnostico("Control " + i)
+                    .veterinario(veterinario)
+                    .build(), numero);
+        }
+
+        // Sin fetch el veterinario es una referencia (carga perezosa)
+        {
+            final List<Control> controles = backendService.getControlesVeterinario(rut);
+            Assert.assertEquals("Controles del veterinario", 3, controles.size());
+            Assert.assertTrue("Veterinario cargado", Ebean.getBeanState(controles.get(0).getVeterinario()).isReference());
+        }
+
+        // Con fetch el veterinario viene cargado
+        {
+            final List<Control> controles = backendService.getControlesVeterinario(rut, FetchSpec.VETERINARIO);
+            Assert.assertEquals("Controles del veterinario", 3, controles.size());
+            for (final Control control : controles) {
+                Assert.assertFalse("Veterinario no cargado", Ebean.getBeanState(control.getVeterinario()).isReference());
+                Assert.assertEquals("Nombre del veterinario", "Veterinario", control.getVeterinario().getNombre());
+            }
+        }
+
+        // Controles y su veterinario
+        {
+            final Paciente paciente = backendService.getPaciente(numero, FetchSpec.CONTROLES_VETERINARIO);
+            Assert.assertEquals("Controles del paciente", 3, paciente.getControles().size());
+            Assert.assertFalse("Veterinario no cargado",
+                    Ebean.getBeanState(paciente.getControles().get(0).getVeterinario()).isReference());
+        }
+
+        // FetchSpec de otra entidad
+        try {
+            backendService.getPersona(rut, FetchSpec.VETERINARIO);
+            Assert.fail("Se esperaba IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            log.debug("Excepcion esperada: {}", ex.getMessage());
+        }
+
+        Assert.assertNotNull("Pacientes null", backendService.getPersona(rut, FetchSpec.PACIENTES).getPacientes());
+    }
+
+    /**
+     * Test de los listados resumidos de pacientes y controles
+     */
+    @Test
+    public void testResumen() {
+
+        final Persona veterinario = Persona.builder()
+                .nombre("Veterinario")
+                .rut("1-9")
+                .password("vet123")
+                .tipo(Persona.Tipo.VETERINARIO)
+                .build();
+        veterinario.insert();
+
+        for (int i = 1; i <= 12; i++) {
+            Paciente.builder()
+                    .numero(i)
+                    .nombre("Paciente " + i)
+                    .raza("Quiltro")
+                    .sexo(Paciente.Sexo.HEMBRA)
+                    .build()
+                    .insert();
+        }
+
+        final List<PacienteResumen> pacientes = backendService.getPacientesResumen(1, 5);
+        Assert.assertEquals("Tamanio de pagina", 5, pacientes.size());
+        Assert.assertEquals("Numero", Integer.valueOf(6), pacientes.get(0).getNumero());
+        Assert.assertEquals("Nombre", "Paciente 6", pacientes.get(0).getNombre());
+        Assert.assertEquals("Sexo", Paciente.Sexo.HEMBRA, pacientes.get(0).getSexo());
+
+        final Date hoy = new Date();
+        final Date ayer = new Date(hoy.getTime() - TimeUnit.DAYS.toMillis(1));
+        backendService.agregarControl(Control.builder().fecha(hoy).diagnostico("Sano").veterinario(veterinario).build(), 6);
+        backendService.agregarControl(Control.builder().fecha(ayer).diagnostico("Tos").veterinario(veterinario).build(), 6);
+
+        final List<ControlResumen> controles = backendService.getControlesResumen(6);
+        Assert.assertEquals("Controles del paciente", 2, controles.size());
+        Assert.assertEquals("Orden por fecha", "Tos", controles.get(0).getDiagnostico());
+        Assert.assertEquals("Veterinario", "Veterinario", controles.get(0).getNombreVeterinario());
+        Assert.assertTrue("Controles de otro paciente", backendService.getControlesResumen(7).isEmpty());
+    }
+
+    /**
+     * Comparacion de la busqueda por substring (indice de trigramas) contra un LIKE '%texto%'
+     */
+    @Test
+    public void testBuscarPacientesPorNombreRendimiento() {
+
+        final int total = 5000;
+        final String[] silabas = {"pe", "pa", "lo", "ri", "wo", "ma", "ne", "to", "ca", "su"};
+        final Random random = new Random(42);
+
+        final List<Paciente> pacientes = new ArrayList<>();
+        for (int i = 1; i <= total; i++) {
+            final StringBuilder nombre = new StringBuilder();
+            for (int j = 0; j < 4; j++) {
+                nombre.append(silabas[random.nextInt(silabas.length)]);
+            }
+            pacientes.add(Paciente.builder().numero(i).nombre(nombre.toString()).build());
+        }
+        backendService.insertPacientes(pacientes);
+
+        final String[] textos = {"peri", "lowo", "masu", "neto", "capa"};
+        for (final String texto : textos) {
+
+            final Stopwatch cronometro = Stopwatch.createStarted();
+            final List<Paciente> porIndice = backendService.buscarPacientesPorNombre(texto);
+            final String tiempoIndice = cronometro.toString();
+
+            cronometro.reset().start();
+            final List<Paciente> porLike = Ebean.find(Paciente.class).where().icontains("nombre", texto).findList();
+            final String tiempoLike = cronometro.toString();
+
+            log.info("Busqueda '{}': indice {} ({} filas), like {} ({} filas)", texto, tiempoIndice, porIndice.size(), tiempoLike, porLike.size());
+            Assert.assertEquals("Resultados distintos para " + texto, porLike.size(), porIndice.size());
+        }
+    }
+
+    /**
+     * Test de la busqueda de texto completo en los controles
+     */
+    @Test
+    public void testBuscarControles() {
+
+        final Integer numero = 1;
+        Paciente.builder()
+                .numero(numero)
+                .nombre("Rinho")
+                .build()
+                .insert();
+
+        backendService.agregarControl(Control.builder()
+                .diagnostico("Fractura de la pata trasera")
+                .nota("Reposo y control en 2 semanas")
+                .build(), numero);
+        backendService.agregarControl(Control.builder()
+                .diagnostico("Otitis")
+                .nota("Fracturas antiguas sin complicaciones")
+                .build(), numero);
+        backendService.agregarControl(Control.builder()
+                .diagnostico("Vacunación anual")
+                .build(), numero);
+        backendService.agregarControl(Control.builder()
+                .diagnostico("Fiebre")
+                .build(), numero);
+        backendService.agregarControl(Control.builder()
+                .diagnostico("Control")
+                .nota("Sin fiebres ni dientes sueltos")
+                .build(), numero);
+
+        // Singular y plural terminados en e: la misma raiz
+        {
+            Assert.assertEquals("Fiebre", 2, backendService.buscarControles("fiebre", 10).size());
+            Assert.assertEquals("Fiebres", 2, backendService.buscarControles("fiebres", 10).size());
+            Assert.assertEquals("Diente", 1, backendService.buscarControles("diente", 10).size());
+        }
+
+        // Plural, tildes y ranking: ambos terminos en el primero
+        {
+            final List<Control> controles = backendService.buscarControles("fracturas PATA", 10);
+            Assert.assertEquals("Controles encontrados", 2, controles.size());
+            Assert.assertEquals("Mas relevante", "Fractura de la pata trasera", controles.get(0).getDiagnostico());
+            Assert.assertEquals("Vacunación anual", backendService.buscarControles("vacunacion", 10).get(0).getDiagnostico());
+            Assert.assertTrue("Palabras vacias", backendService.buscarControles("de la y", 10).isEmpty());
+            Assert.assertEquals("Maximo", 1, backendService.buscarControles("fractura", 1).size());
+        }
+
+        // Actualizacion y reconstruccion
+        {
+            final Control otitis = backendService.buscarControles("otitis", 10).get(0);
+            otitis.setDiagnostico("Dermatitis");
+            otitis.update();
+            Assert.assertTrue("Diagnostico anterior", backendService.buscarControles("otitis", 10).isEmpty());
+
+            backendService.initialize();
+            Assert.assertEquals("Indice reconstruido", 1, backendService.buscarControles("dermatitis", 10).size());
+        }
+
+        // Actualizacion, eliminacion e insercion revertidas: el indice no cambia
+        {
+            final Transaction transaction = Ebean.beginTransaction();
+            try {
+                final Control dermatitis = backendService.buscarControles("dermatitis", 10).get(0);
+                dermatitis.setNota("Alergia");
+                dermatitis.update();
+                backendService.buscarControles("vacunacion", 10).get(0).delete();
+                Control.builder().diagnostico("Moquillo").build().insert();
+                transaction.rollback();
+            } finally {
+                transaction.end();
+            }
+            Assert.assertEquals("Nota revertida", 1, backendService.buscarControles("antiguas", 10).size());
+            Assert.assertTrue("Nota no aplicada", backendService.buscarControles("alergia", 10).isEmpty());
+            Assert.assertEquals("Eliminacion revertida", 1, backendService.buscarControles("vacunacion", 10).size());
+            Assert.assertTrue("Insercion revertida", backendService.buscarControles("moquillo", 10).isEmpty());
+        }
+    }
+
+    /**
+     * Test de las claves unicas e indices de las busquedas por rut, mail y numero (H2)
+     */
+    @Test
+    public void testIndices() {
+
+        Persona.builder()
+                .nombre("Alfredo")
+                .rut("17725104-6")
+                .mail("ahenriquez@sodired.cl")
+                .password("123456")
+                .tipo(Persona.Tipo.VETERINARIO)
+                .build()
+                .insert();
+
+        Assert.assertEquals("Por mail", "17725104-6", backendService.getPersona("ahenriquez@sodired.cl").getRut());
+        Assert.assertEquals("Por rut", "ahenriquez@sodired.cl", backendService.getPersona("17725104-6").getMail());
+
+        // Rut duplicado
+        try {
+            Persona.builder()
+                    .nombre("Otro")
+                    .rut("17725104-6")
+                    .password("123456")
+                    .tipo(Persona.Tipo.CLIENTE)
+                    .build()
+                    .insert();
+            Assert.fail("Se esperaba una excepcion por rut duplicado");
+        } catch (PersistenceException ex) {
+            log.debug("Excepcion esperada: {}", ex.getMessage());
+        }
+
+        // Planes de ejecucion: deben usar los indices
+        Assert.assertTrue("Sin indice en rut", plan("select id from persona where rut = '1-1'").contains("_RUT"));
+        Assert.assertTrue("Sin indice en mail", plan("select id from persona where mail = 'a@b.cl'").contains("_MAIL"));
+        Assert.assertTrue("Sin indice en numero", plan("select id from paciente where numero = 1").contains("_NUMERO"));
+        Assert.assertTrue("Sin indice en veterinario",
+                plan("select id from control where veterinario_id = 1").contains("_VETERINARIO"));
+        Assert.assertTrue("Sin indice en nombre",
+                plan("select id from paciente where nombre_busqueda like 'pep%'").contains("_NOMBRE_BUSQUEDA"));
+    }
+
+    /**
+     * Test del cache de claves naturales de personas y pacientes
+     */
+    @Test
+    public void testCacheClavesNaturales() {
+
+        final EbeanBackendService ebeanBackendService = (EbeanBackendService) backendService;
+
+        Persona.builder()
+                .nombre("Alfredo")
+                .rut("17725104-6")
+                .mail("ahenriquez@sodired.cl")
+                .password("123456")
+                .tipo(Persona.Tipo.VETERINARIO)
+                .build()
+                .insert();
+
+        Paciente.builder()
+                .numero(1)
+                .nombre("Rinho")
+                .build()
+                .insert();
+
+        // Primera lectura: fallo, segunda: acierto
+        for (int i = 0; i < 2; i++) {
+            Assert.assertNotNull(backendService.getPersona("17725104-6"));
+            Assert.assertNotNull(backendService.getPersona("ahenriquez@sodired.cl"));
+            Assert.assertNotNull(backendService.getPaciente(1));
+        }
+        Assert.assertEquals("Aciertos personas", 2, ebeanBackendService.getEstadisticasCachePersonas().hitCount());
+        Assert.assertEquals("Fallos personas", 2, ebeanBackendService.getEstadisticasCachePersonas().missCount());
+        Assert.assertEquals("Aciertos pacientes", 1, ebeanBackendService.getEstadisticasCachePacientes().hitCount());
+
+        // Cambio de la clave: la anterior ya no debe encontrarse
+        final Persona persona = backendService.getPersona("ahenriquez@sodired.cl");
+        persona.setMail("alfredo@sodired.cl");
+        persona.update();
+        Assert.assertNull("Mail anterior", backendService.getPersona("ahenriquez@sodired.cl"));
+        Assert.assertEquals("Mail nuevo", "17725104-6", backendService.getPersona("alfredo@sodired.cl").getRut());
+
+        // Soft delete
+        backendService.getPaciente(1).delete();
+        Assert.assertNull("Paciente eliminado", backendService.getPaciente(1));
+        Assert.assertTrue("Sin invalidaciones", ebeanBackendService.getInvalidacionesCacheClaves() >= 2);
+    }
+
+    /**
+     * Test de la configuracion del pool de conexiones y sus metricas
+     */
+    @Test
+    public void testConfiguracionPool() {
+
+        backendService.shutdown();
+        backendService = new EbeanBackendService(ConfiguracionBackend.builder()
+                .database(DB)
+                .minConexiones(1)
+                .maxConexiones(4)
+                .esperaConexionMillis(500)
+                .cacheSentencias(20)
+                .build());
+        backendService.initialize();
+
+        final EbeanBackendService ebeanBackendService = (EbeanBackendService) backendService;
+
+        final PoolStatus estado = ebeanBackendService.getEstadoPool();
+        Assert.assertEquals("Minimo", 1, estado.getMinSize());
+        Assert.assertEquals("Maximo", 4, estado.getMaxSize());
+
+        // Conexion tomada fuera del backend: se refleja en la utilizacion
+        final Transaction transaction = Ebean.beginTransaction();
+        try {
+            Assert.assertEquals("Ocupadas", 1, ebeanBackendService.getEstadoPool().getBusy());
+            Assert.assertEquals("Utilizacion", 0.25, ebeanBackendService.getUtilizacionPool(), 0.001);
+        } finally {
+            transaction.end();
+        }
+        Assert.assertEquals("Libres", 0, ebeanBackendService.getEstadoPool().getBusy());
+
+        ebeanBackendService.getEstadisticasPool(true);
+        backendService.getPacientes();
+        Assert.assertTrue("Sin uso", ebeanBackendService.getEstadisticasPool(false).getCount() > 0);
+
+        try {
+            ConfiguracionBackend.builder().database(DB).minConexiones(5).maxConexiones(2).build().validar();
+            Assert.fail("Minimo mayor al maximo");
+        } catch (IllegalArgumentException ex) {
+            log.debug("Configuracion invalida: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * Test del filtro de consultas lentas del perfil de produccion
+     */
+    @Test
+    public void testFiltroConsultasLentas() {
+
+        Assert.assertEquals("exeMicros", 1234, FiltroConsultasLentas.micros("FindMany type[Paciente] exeMicros[1234] rows[10]"));
+        Assert.assertEquals("Sin exeMicros", -1, FiltroConsultasLentas.micros("Inserted [Paciente] [1]"));
+
+        final FiltroConsultasLentas filtro = new FiltroConsultasLentas();
+        filtro.setUmbralMillis(10);
+        filtro.start();
+
+        final ch.qos.logback.classic.Logger logger = new LoggerContext().getLogger("org.avaje.ebean.SUM");
+        final Function<String, FilterReply> decidir = mensaje ->
+                filtro.decide(new LoggingEvent(null, logger, Level.DEBUG, mensaje, null, null));
+
+        Assert.assertEquals("Lenta", FilterReply.ACCEPT, decidir.apply("FindMany exeMicros[10000] rows[1]"));
+        Assert.assertEquals("Rapida", FilterReply.DENY, decidir.apply("FindMany exeMicros[9999] rows[1]"));
+        Assert.assertEquals("Sin tiempo", FilterReply.DENY, decidir.apply("Inserted [Paciente] [1]"));
+
+        // Muestreo: una de cada 3
+        filtro.setMuestreo(3);
+        int aceptadas = 0;
+        for (int i = 0; i < 9; i++) {
+            if (decidir.apply("FindMany exeMicros[10] rows[1]") == FilterReply.ACCEPT) {
+                aceptadas++;
+            }
+        }
+        Assert.assertEquals("Muestreo", 3, aceptadas);
+    }
+
+    /**
+     * Test del gestor de claves de encriptacion: cache, keystore y rotacion
+     */
+    @Test
+    public void testGestorClaves() throws Exception {
+
+        // La clave derivada no se puede guardar: no se rota
+        try {
+            ((EbeanBackendService) backendService).rotarClave("persona", "password", "00");
+            Assert.fail("Rotacion sin fuente escribible");
+        } catch (IllegalStateException ex) {
+            log.debug("Error esperado: {}", ex.getMessage());
+        }
+
+        // Keystore con la clave de persona.password
+        final Path keystore = Files.createTempFile("fivet", ".jceks");
+        final char[] password = "fivet".toCharArray();
+        final byte[] clave = new byte[16];
+        new Random(7).nextBytes(clave);
+        try {
+            final KeyStore keyStore = KeyStore.getInstance("JCEKS");
+            keyStore.load(null, password);
+            keyStore.setEntry("persona.password", new KeyStore.SecretKeyEntry(new SecretKeySpec(clave, "AES")),
+                    new KeyStore.PasswordProtection(password));
+            try (final OutputStream outputStream = Files.newOutputStream(keystore)) {
+                keyStore.store(outputStream, password);
+            }
+
+            backendService.shutdown();
+            backendService = new EbeanBackendService(ConfiguracionBackend.builder()
+                    .database(DB)
+                    .fuenteClaves(FuenteClaves.keystore(keystore, password))
+                    .tamanioLote(3)
+                    .build());
+            backendService.initialize();
+
+            final EbeanBackendService ebeanBackendService = (EbeanBackendService) backendService;
+            final GestorClaves gestorClaves = ebeanBackendService.getGestorClaves();
+            Assert.assertEquals("Clave del keystore", BaseEncoding.base16().encode(clave),
+                    gestorClaves.getEncryptKey("persona", "password").getStringValue());
+
+            for (int i = 0; i < 10; i++) {
+                Persona.builder()
+                        .nombre("Persona " + i)
+                        .rut(i + "-" + i)
+                        .password("secreto" + i)
+                        .tipo(Persona.Tipo.CLIENTE)
+                        .build()
+                        .insert();
+            }
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals("Password", "secreto" + i, backendService.getPersona(i + "-" + i).getPassword());
+            }
+            Assert.assertEquals("Claves en cache", 1, gestorClaves.getConsultasFuente());
+
+            // Rotacion: la nueva clave queda en el keystore y los valores se leen (desde la base de datos) con ella
+            final byte[] nueva = new byte[16];
+            new Random(8).nextBytes(nueva);
+            final String nuevaClave = BaseEncoding.base16().encode(nueva);
+
+            // No se rota con escrituras en curso
+            final Transaction transaction = Ebean.beginTransaction();
+            try {
+                Persona.builder().nombre("En curso").rut("11-1").password("secreto").tipo(Persona.Tipo.CLIENTE).build()
+                        .insert();
+                ebeanBackendService.rotarClave("persona", "password", nuevaClave);
+                Assert.fail("Rotacion con escrituras en curso");
+            } catch (IllegalStateException ex) {
+                log.debug("Excepcion esperada: {}", ex.getMessage());
+            } finally {
+                transaction.end();
+            }
+
+            // Por bloques de 3 ids
+            Assert.assertEquals("Filas rotadas", 10, ebeanBackendService.rotarClave("persona", "password", nuevaClave));
+            Assert.assertEquals("Nueva clave", nuevaClave, gestorClaves.getEncryptKey("persona", "password").getStringValue());
+            Assert.assertEquals("Clave guardada", nuevaClave,
+                    FuenteClaves.keystore(keystore, password).getClave("persona", "password"));
+
+            gestorClaves.limpiar();
+            for (int i = 0; i < 10; i++) {
+                final Persona persona = Ebean.find(Persona.class).setUseCache(false)
+                        .where().eq("rut", i + "-" + i).findUnique();
+                Assert.assertEquals("Password rotada", "secreto" + i, persona.getPassword());
+            }
+            Assert.assertEquals("Clave desde el keystore", 2, gestorClaves.getConsultasFuente());
+
+            // Terminada la rotacion se reanudan las escrituras
+            Persona.builder().nombre("Despues").rut("12-2").password("nuevo").tipo(Persona.Tipo.CLIENTE).build().insert();
+            Assert.assertEquals("Password nueva", "nuevo", backendService.getPersona("12-2").getPassword());
+
+        } finally {
+            Files.delete(keystore);
+        }
+    }
+
+    /**
+     * Test de la serializacion JSON de los modelos
+     */
+    @Test
+    public void testModelConverter() {
 
+        final Persona veterinario = Persona.builder()
+                .nombre("Alfredo")
+                .rut("17725104-6")
+                .mail("ahenriquez@sodired.cl")
+                .password("123456")
+                .tipo(Persona.Tipo.VETERINARIO)
+                .build();
+        veterinario.insert();
+
+        Paciente.builder()
+                .numero(1)
+                .nombre("Rinho \"el \\ perro\"")
+                .sexo(Paciente.Sexo.MACHO)
+                .build()
+                .insert();
+
+        backendService.agregarControl(Control.builder()
+                .fecha(new Date(1477958400000L))
+                .diagnostico("Control sano")
+                .veterinario(veterinario)
+                .build(), 1);
+
+        // Sin cargar los controles: se omiten (no se consultan)
+        final String json = ModelConverter.toJson(backendService.getPaciente(1));
+        log.debug("Paciente: {}", json);
+        Assert.assertTrue("Nombre escapado", json.contains("\"nombre\":\"Rinho \\\"el \\\\ perro\\\"\""));
+        Assert.assertTrue("Sexo", json.contains("\"sexo\":\"MACHO\""));
+        Assert.assertFalse("Controles no cargados", json.contains("Controles"));
+
+        // Con los controles: se serializan completos, el veterinario solo con su id
+        final JsonObject paciente = new JsonParser().parse(
+                ModelConverter.toJson(backendService.getPaciente(1, FetchSpec.CONTROLES))).getAsJsonObject();
+        final JsonObject control = paciente.getAsJsonArray("Controles").get(0).getAsJsonObject();
+        Assert.assertEquals("Diagnostico", "Control sano", control.get("diagnostico").getAsString());
+        Assert.assertEquals("Fecha", 1477958400000L, control.get("fecha").getAsLong());
+        Assert.assertEquals("Veterinario", veterinario.getId().longValue(), control.get("veterinario").getAsLong());
+
+        // Password enmascarada
+        final String persona = backendService.getPersona("17725104-6").toString();
+        Assert.assertFalse("Password visible", persona.contains("123456"));
+        Assert.assertTrue("Password", persona.contains("\"password\":\"***\""));
+    }
+
+    /**
+     * Test del generador de datos: determinismo, carga y exportacion / importacion
+     */
+    @Test
+    public void testGeneradorDatos() throws IOException {
+
+        final int total = 1000;
+        final GeneradorDatos generador = new GeneradorDatos(42, total);
+
+        // Misma semilla, mismos datos
+        {
+            final GeneradorDatos otro = new GeneradorDatos(42, total);
+            Assert.assertEquals("Veterinario", generador.veterinario(3).getRut(), otro.veterinario(3).getRut());
+            Assert.assertEquals("Cliente", generador.cliente(7).getNombre(), otro.cliente(7).getNombre());
+            Assert.assertEquals("Paciente", generador.paciente(99).getNombre(), otro.paciente(99).getNombre());
+            Assert.assertNotEquals("Otra semilla", generador.cliente(7).getPassword(),
+                    new GeneradorDatos(43, total).cliente(7).getPassword());
+        }
+
+        final List<Persona> veterinarios = new ArrayList<>();
+        for (int i = 0; i < generador.getVeterinarios(); i++) {
+            veterinarios.add(generador.veterinario(i));
+        }
+        int controles = 0;
+        for (int numero = 1; numero <= total; numero++) {
+            controles += generador.controles(numero, veterinarios).size();
+        }
+
+        final Stopwatch cronometro = Stopwatch.createStarted();
+        generador.cargar(backendService);
+        log.info("cargar: {} pacientes en {}", total, cronometro);
+
+        final Path archivo = Files.createTempFile("fivet", ".tsv.gz");
+        try {
+            generador.exportar(archivo);
+
+            // Base de datos nueva, cargada desde el archivo
+            backendService.shutdown();
+            backendService = new EbeanBackendService(DB);
+            backendService.initialize();
+
+            cronometro.reset().start();
+            GeneradorDatos.importar(archivo, backendService);
+            log.info("importar: {} pacientes en {} ({} bytes)", total, cronometro, Files.size(archivo));
+
+        } finally {
+            Files.delete(archivo);
+        }
+
+        Assert.assertEquals("Pacientes", total, backendService.getPacientes().size());
+
+        final int[] contador = new int[1];
+        backendService.forEachControl(control -> contador[0]++);
+        Assert.assertEquals("Controles", controles, contador[0]);
+
+        final Paciente paciente = backendService.getPaciente(500, FetchSpec.CONTROLES);
+        Assert.assertEquals("Nombre paciente", generador.paciente(500).getNombre(), paciente.getNombre());
+        Assert.assertEquals("Controles paciente", generador.controles(500, veterinarios).size(),
+                paciente.getControles().size());
+
+        final Persona cliente = backendService.getPersona(generador.cliente(10).getMail());
+        Assert.assertEquals("Rut cliente", generador.cliente(10).getRut(), cliente.getRut());
+        Assert.assertEquals("Pacientes cliente", GeneradorDatos.PACIENTES_POR_CLIENTE, cliente.getPacientes().size());
+        Assert.assertEquals("Password cliente", generador.cliente(10).getPassword(), cliente.getPassword());
+        Assert.assertEquals("Duenios", total, Ebean.createSqlQuery(
+                "select count(*) as total from persona_paciente").findUnique().getInteger("total").intValue());
+    }
+
+    /**
+     * Test del backend asincrono: operaciones en paralelo y rechazo al saturarse
+     */
+    @Test
+    public void testAsyncBackendService() throws Exception {
+
+        new GeneradorDatos(7, 100).cargar(backendService);
+
+        final int concurrencia = ((EbeanBackendService) backendService).getEstadoPool().getMaxSize();
+        try (final AsyncBackendService async = ExecutorAsyncBackendService.of(backendService, concurrencia, 100)) {
+
+            final CompletableFuture<Persona> persona = async.getPersona(new GeneradorDatos(7, 100).veterinario(0).getRut());
+            final CompletableFuture<Paciente> paciente = async.getPaciente(50, FetchSpec.CONTROLES);
+            final CompletableFuture<List<Paciente>> pacientes = async.getPacientes(0, 10);
+
+            CompletableFuture.allOf(persona, paciente, pacientes).get(10, TimeUnit.SECONDS);
+            Assert.assertNotNull("Persona", persona.join());
+            Assert.assertEquals("Paciente", 50, paciente.join().getNumero().intValue());
+            Assert.assertEquals("Pacientes", 10, pacientes.join().size());
+
+            // Los errores del backend se reportan en el future
+            final CompletableFuture<Void> error = async.agregarControl(Control.builder().build(), 9999);
+            try {
+                error.get(10, TimeUnit.SECONDS);
+                Assert.fail("Paciente inexistente");
+            } catch (ExecutionException ex) {
+                log.debug("Error esperado: {}", ex.getCause().getMessage());
+            }
+        }
+
+        // Un hilo y una operacion en espera: la tercera se rechaza sin bloquear
+        final CountDownLatch bloqueo = new CountDownLatch(1);
+        final CountDownLatch iniciado = new CountDownLatch(1);
+        try (final AsyncBackendService async = new ExecutorAsyncBackendService(backendService, 1, 1)) {
+
+            final CompletableFuture<Void> primera = async.forEachPaciente(p -> {
+                iniciado.countDown();
+                try {
+                    bloqueo.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Assert.assertTrue("Sin iniciar", iniciado.await(10, TimeUnit.SECONDS));
+
+            final CompletableFuture<Paciente> segunda = async.getPaciente(1);
+            final CompletableFuture<Paciente> tercera = async.getPaciente(2);
+            Assert.assertTrue("No rechazada", tercera.isCompletedExceptionally());
+
+            bloqueo.countDown();
+            primera.get(10, TimeUnit.SECONDS);
+            Assert.assertNotNull("Segunda", segunda.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Test del agrupamiento de lecturas concurrentes identicas
+     */
+    @Test
+    public void testSingleFlight() throws Exception {
+
+        // Backend cuya lectura de pacientes espera hasta ser liberada
+        final CountDownLatch liberar = new CountDownLatch(1);
+        final AtomicInteger consultas = new AtomicInteger();
+        backendService.shutdown();
+        backendService = new EbeanBackendService(DB) {
+            @Override
+            public Paciente getPaciente(final Integer numeroPaciente, final FetchSpec... fetch) {
+                consultas.incrementAndGet();
+                try {
+                    liberar.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getPaciente(numeroPaciente, fetch);
+            }
+        };
+        backendService.initialize();
+
+        Paciente.builder().numero(1).nombre("Rinho").build().insert();
+
+        final SingleFlightBackendService singleFlight = new SingleFlightBackendService(backendService);
+        final int lectores = 8;
+        try (final AsyncBackendService async = new ExecutorAsyncBackendService(singleFlight, lectores, 0)) {
+
+            final List<CompletableFuture<Paciente>> lecturas = new ArrayList<>();
+            for (int i = 0; i < lectores; i++) {
+                lecturas.add(async.getPaciente(1));
+            }
+
+            // Todos esperan la primera consulta
+            while (singleFlight.getLlamadasAgrupadas() < lectores - 1) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals("En curso", 1, singleFlight.getConsultasEnCurso());
+            liberar.countDown();
+
+            // Cada llamada recibe su propio bean del mismo paciente
+            final Set<Paciente> beans = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (final CompletableFuture<Paciente> lectura : lecturas) {
+                final Paciente paciente = lectura.get(10, TimeUnit.SECONDS);
+                Assert.assertEquals("Mismo paciente", lecturas.get(0).get().getId(), paciente.getId());
+                Assert.assertEquals("Nombre", "Rinho", paciente.getNombre());
+                beans.add(paciente);
+            }
+            Assert.assertEquals("Beans propios", lectores, beans.size());
+            lecturas.get(0).get().setNombre("Modificado");
+            Assert.assertEquals("Sin modificar", "Rinho", lecturas.get(1).get().getNombre());
+        }
+        Assert.assertEquals("Consultas", 1, consultas.get());
+        Assert.assertEquals("Tasa", (lectores - 1.0) / lectores, singleFlight.getTasaAgrupamiento(), 0.001);
+        Assert.assertEquals("Sin consultas en curso", 0, singleFlight.getConsultasEnCurso());
+
+        // Terminada la consulta nada queda guardado; otras asociaciones son otra consulta
+        Assert.assertEquals("Nombre", "Rinho", singleFlight.getPaciente(1).getNombre());
+        Assert.assertNotNull("Con controles", singleFlight.getPaciente(1, FetchSpec.CONTROLES));
+        Assert.assertEquals("Consultas", 3, consultas.get());
+        Assert.assertEquals("Agrupadas", lectores - 1, singleFlight.getLlamadasAgrupadas());
+
+        // Dentro de una transaccion se lee directamente del backend
+        final long llamadas = singleFlight.getLlamadas();
+        final Transaction transaction = Ebean.beginTransaction();
+        try {
+            Assert.assertEquals("En transaccion", "Rinho", singleFlight.getPaciente(1).getNombre());
+            transaction.commit();
+        } finally {
+            transaction.end();
+        }
+        Assert.assertEquals("Consultas", 4, consultas.get());
+        Assert.assertEquals("Sin agrupar", llamadas, singleFlight.getLlamadas());
+    }
+
+    /**
+     * Test de las politicas del cache L2 por entidad
+     */
+    @Test
+    public void testPoliticaCache() {
+
+        backendService.shutdown();
+        backendService = new EbeanBackendService(ConfiguracionBackend.builder()
+                .database(DB)
+                .politicaCache(Paciente.class, PoliticaCache.builder().maxBeans(10).maxConsultas(5).build())
+                .build());
+        backendService.initialize();
+
+        final EbeanBackendService ebeanBackendService = (EbeanBackendService) backendService;
+
+        final Persona veterinario = Persona.builder()
+                .nombre("Alfredo")
+                .rut("17725104-6")
+                .password("123456")
+                .tipo(Persona.Tipo.VETERINARIO)
+                .build();
+        veterinario.insert();
+        Paciente.builder().numero(1).nombre("Rinho").build().insert();
+
+        // Pacientes: cache de consultas habilitado, con el tamanio de la politica
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(1, Ebean.find(Paciente.class).setUseQueryCache(true).findList().size());
+        }
+        final ServerCacheStatistics consultasPacientes = ebeanBackendService.getEstadisticasCacheConsultas(Paciente.class);
+        Assert.assertEquals("Aciertos consultas pacientes", 1, consultasPacientes.getHitCount());
+        Assert.assertEquals("Maximo consultas pacientes", 5, consultasPacientes.getMaxSize());
+        Assert.assertEquals("Maximo beans pacientes", 10,
+                ebeanBackendService.getEstadisticasCacheBeans(Paciente.class).getMaxSize());
+
+        // Controles (por defecto): sin cache de consultas, con cache de beans
+        for (int i = 0; i < 2; i++) {
+            backendService.agregarControl(Control.builder()
+                    .fecha(new Date())
+                    .diagnostico("Control " + i)
+                    .veterinario(veterinario)
+                    .build(), 1);
+            Assert.assertEquals(i + 1, Ebean.find(Control.class).setUseQueryCache(true).findList().size());
+        }
+        final ServerCacheStatistics consultasControles = ebeanBackendService.getEstadisticasCacheConsultas(Control.class);
+        Assert.assertEquals("Aciertos consultas controles", 0, consultasControles.getHitCount());
+        Assert.assertEquals("Fallos consultas controles", 2, consultasControles.getMissCount());
+        Assert.assertTrue("Invalidaciones consultas controles", consultasControles.getClearCount() > 0);
+        log.debug("Cache consultas controles: {}", consultasControles);
+
+        final Long id = Ebean.find(Control.class).findList().get(0).getId();
+        for (int i = 0; i < 2; i++) {
+            Assert.assertNotNull(Ebean.find(Control.class, id));
+        }
+        Assert.assertTrue("Aciertos beans controles",
+                ebeanBackendService.getEstadisticasCacheBeans(Control.class).getHitCount() > 0);
+    }
+
+    /**
+     * Test del cache de los controles de un paciente: agregar controles debe invalidar la coleccion cacheada
+     */
+    @Test
+    public void testCacheControlesPaciente() {
+
+        Paciente.builder().numero(1).nombre("Rinho").build().insert();
+        Paciente.builder().numero(2).nombre("Bobby").build().insert();
+        backendService.agregarControl(Control.builder().fecha(new Date()).diagnostico("Control 1").build(), 1);
+
+        // Lectura (y cache) de los controles: con fetch y lazy
+        Assert.assertEquals(1, backendService.getPaciente(1, FetchSpec.CONTROLES).getControles().size());
+        Assert.assertEquals(1, backendService.getPaciente(1).getControles().size());
+
+        backendService.agregarControl(Control.builder().fecha(new Date()).diagnostico("Control 2").build(), 1);
+        Assert.assertEquals("Con fetch", 2, backendService.getPaciente(1, FetchSpec.CONTROLES).getControles().size());
+        Assert.assertEquals("Lazy", 2, backendService.getPaciente(1).getControles().size());
+
+        // Agregar masivo
+        Assert.assertEquals(0, backendService.getPaciente(2).getControles().size());
+        final Map<Integer, List<Control>> controles = new HashMap<>();
+        controles.put(1, Collections.singletonList(Control.builder().fecha(new Date()).diagnostico("Control 3").build()));
+        controles.put(2, Collections.singletonList(Control.builder().fecha(new Date()).diagnostico("Control 4").build()));
+        backendService.agregarControles(controles);
+        Assert.assertEquals("Masivo con fetch", 3,
+                backendService.getPaciente(1, FetchSpec.CONTROLES).getControles().size());
+        Assert.assertEquals("Masivo lazy", 3, backendService.getPaciente(1).getControles().size());
+        Assert.assertEquals("Masivo lazy otro paciente", 1, backendService.getPaciente(2).getControles().size());
+    }
+
+    /**
+     * Test del reintento de las escrituras en conflicto
+     */
+    @Test
+    public void testReintentos() {
+
+        final EbeanBackendService ebeanBackendService = (EbeanBackendService) backendService;
+
+        // Conflicto real: dos copias del mismo paciente
+        Paciente.builder().numero(1).nombre("Rinho").build().insert();
+        final Paciente primera = Ebean.find(Paciente.class).setUseCache(false).where().eq("numero", 1).findUnique();
+        final Paciente segunda = Ebean.find(Paciente.class).setUseCache(false).where().eq("numero", 1).findUnique();
+        primera.setNombre("Rinho I");
+        primera.update();
+        segunda.setNombre("Rinho II");
+        try {
+            segunda.update();
+            Assert.fail("Sin conflicto");
+        } catch (PersistenceException ex) {
+            Assert.assertTrue("Conflicto no detectado", Reintentos.isConflicto(ex));
+        }
+
+        final Reintentos reintentos = new Reintentos(3, 1, 4);
+
+        // Dos conflictos y luego exito
+        final int[] intentos = new int[1];
+        final String resultado = reintentos.ejecutar("test", () -> {
+            if (++intentos[0] < 3) {
+                throw new OptimisticLockException("Conflicto " + intentos[0]);
+            }
+            return "ok";
+        });
+        Assert.assertEquals("Resultado", "ok", resultado);
+        Assert.assertEquals("Reintentos", 2, reintentos.getReintentos());
+
+        // Intentos agotados
+        try {
+            reintentos.ejecutar("test", () -> {
+                throw new OptimisticLockException("Conflicto");
+            });
+            Assert.fail("Sin agotar");
+        } catch (OptimisticLockException ex) {
+            Assert.assertEquals("Agotadas", 1, reintentos.getAgotadas());
+            Assert.assertEquals("Conflictos", 5, reintentos.getConflictos());
+        }
+
+        // Otros errores no se reintentan
+        try {
+            backendService.agregarControl(Control.builder().fecha(new Date()).diagnostico("Control").build(), 9999);
+            Assert.fail("Paciente inexistente");
+        } catch (RuntimeException ex) {
+            Assert.assertEquals("Conflictos backend", 0, ebeanBackendService.getConflictosEscritura());
+            Assert.assertEquals("Reintentos backend", 0, ebeanBackendService.getReintentosEscritura());
+        }
+    }
+
+    /**
+     * Test del reintento de una escritura del backend en conflicto real con otra transaccion
+     */
+    @Test
+    public void testReintentoConflicto() throws InterruptedException {
+
+        // Espera antes del reintento mayor que la de este test en revertir la transaccion en conflicto
+        backendService.shutdown();
+        backendService = new EbeanBackendService(ConfiguracionBackend.builder()
+                .database(DB)
+                .esperaReintentoMillis(400L)
+                .esperaReintentoMaximaMillis(400L)
+                .build());
+        backendService.initialize();
+
+        final EbeanBackendService ebeanBackendService = (EbeanBackendService) backendService;
+
+        // Otra transaccion inserta (sin commit) el mismo numero de paciente: el primer intento espera su lock hasta
+        // fallar y el reintento (con el estado inicial de los beans) se completa tras revertirla
+        final Transaction bloqueo = Ebean.getServer(null).createTransaction();
+        Ebean.getServer(null).insert(Paciente.builder().numero(7).nombre("Bloqueo").build(), bloqueo);
+
+        final Paciente paciente = Paciente.builder().numero(7).nombre("Firulais").build();
+        final CompletableFuture<Void> insercion = CompletableFuture.runAsync(
+                () -> backendService.insertPacientes(Collections.singletonList(paciente)));
+        final long liberacion;
+        try {
+            final Stopwatch espera = Stopwatch.createStarted();
+            while (ebeanBackendService.getConflictosEscritura() == 0 && !insercion.isDone()) {
+                Assert.assertTrue("Sin conflicto", espera.elapsed(TimeUnit.SECONDS) < 10);
+                Thread.sleep(5);
+            }
+        } finally {
+            liberacion = System.currentTimeMillis();
+            bloqueo.rollback();
+        }
+        insercion.join();
+
+        Assert.assertEquals("Conflictos", 1, ebeanBackendService.getConflictosEscritura());
+        Assert.assertEquals("Reintentos", 1, ebeanBackendService.getReintentosEscritura());
+        Assert.assertEquals("Filas", 1, Ebean.find(Paciente.class).setUseCache(false).where().eq("numero", 7).findCount());
+        Assert.assertEquals("Fila", "Firulais", backendService.getPaciente(7).getNombre());
+        Assert.assertEquals("Indice", 1, backendService.buscarPacientesPorNombre("irula").size());
+
+        // La fila guardada es la del reintento, sin el estado del intento revertido
+        final SqlRow fila = Ebean.createSqlQuery("select id, version, when_created, when_modified from paciente "
+                + "where numero = 7").findUnique();
+        Assert.assertEquals("Version", 1L, (long) fila.getLong("version"));
+        Assert.assertTrue("Creado en el reintento", fila.getTimestamp("when_created").getTime() >= liberacion);
+        Assert.assertTrue("Modificado en el reintento", fila.getTimestamp("when_modified").getTime() >= liberacion);
+        Assert.assertEquals("Id del bean", fila.getLong("id"), paciente.getId());
+        Assert.assertEquals("Version del bean", 1L, (long) paciente.getVersion());
+
+        // Otra transaccion actualiza (sin commit) el paciente: el control ya insertado se revierte con el primer
+        // intento y el reintento lo inserta de nuevo
+        final Transaction edicion = Ebean.getServer(null).createTransaction();
+        final Paciente editado = Ebean.getServer(null).find(Paciente.class).setUseCache(false)
+                .where().eq("numero", 7).findUnique();
+        editado.setNombre("Firulais II");
+        Ebean.getServer(null).update(editado, edicion);
+
+        final Control control = Control.builder().fecha(new Date()).diagnostico("Reintento").build();
+        final CompletableFuture<Void> agregar = CompletableFuture.runAsync(
+                () -> backendService.agregarControl(control, 7));
+        final long liberacionControl;
+        Long idRevertido = null;
+        try {
+            final Stopwatch espera = Stopwatch.createStarted();
+            while (ebeanBackendService.getConflictosEscritura() == 1 && !agregar.isDone()) {
+                Assert.assertTrue("Sin conflicto", espera.elapsed(TimeUnit.SECONDS) < 10);
+                if (idRevertido == null) {
+                    idRevertido = control.getId();
+                }
+                Thread.sleep(5);
+            }
+        } finally {
+            liberacionControl = System.currentTimeMillis();
+            edicion.rollback();
+        }
+        agregar.join();
+
+        Assert.assertEquals("Conflictos control", 2, ebeanBackendService.getConflictosEscritura());
+        final List<SqlRow> controles = Ebean.createSqlQuery("select c.id, c.version, c.when_created "
+                + "from control c join paciente_control pc on pc.control_id = c.id").findList();
+        Assert.assertEquals("Controles", 1, controles.size());
+        Assert.assertEquals("Version control", 1L, (long) controles.get(0).getLong("version"));
+        Assert.assertTrue("Control creado en el reintento",
+                controles.get(0).getTimestamp("when_created").getTime() >= liberacionControl);
+        Assert.assertEquals("Id del control", controles.get(0).getLong("id"), control.getId());
+        Assert.assertNotNull("Id del intento revertido", idRevertido);
+        Assert.assertNotEquals("Id nuevo en el reintento", idRevertido, control.getId());
+        Assert.assertEquals("Controles del paciente", 1, backendService.getPaciente(7).getControles().size());
+        Assert.assertTrue("Indice bloqueo", backendService.buscarPacientesPorNombre("bloqueo").isEmpty());
     }
 
+    /**
+     * Test del backend instrumentado: metricas por operacion, histograma y exportacion (CSV y JMX)
+     */
+    @Test
+    public void testInstrumentedBackendService() throws Exception {
+
+        // Histograma: error relativo menor al 3%
+        {
+            final Histograma histograma = new Histograma();
+            for (long micros = 1; micros <= 10000; micros++) {
+                histograma.registrar(micros * 1000);
+            }
+            Assert.assertEquals("Cantidad", 10000, histograma.getCantidad());
+            Assert.assertEquals("p50", 5000000, histograma.getPercentil(50), 5000000 * 0.03);
+            Assert.assertEquals("p99", 9900000, histograma.getPercentil(99), 9900000 * 0.03);
+            Assert.assertEquals("Maximo", 10000000, histograma.getMaximo(), 10000000 * 0.03);
+        }
+
+        final InstrumentedBackendService instrumentado = new InstrumentedBackendService(backendService);
+        new GeneradorDatos(3, 100).cargar(instrumentado, ((EbeanBackendService) backendService).getEbeanServer());
+
+        for (int numero = 1; numero <= 50; numero++) {
+            Assert.assertNotNull(instrumentado.getPaciente(numero));
+        }
+        Assert.assertEquals(10, instrumentado.getPacientes(0, 10).size());
+        instrumentado.forEachPaciente(paciente -> { });
+        try {
+            instrumentado.agregarControl(Control.builder().fecha(new Date()).diagnostico("Control").build(), 9999);
+            Assert.fail("Paciente inexistente");
+        } catch (RuntimeException ex) {
+            log.debug("Error esperado: {}", ex.getMessage());
+        }
 
+        final RegistroMetricas registro = instrumentado.getRegistro();
+        final MetricaOperacion getPaciente = registro.get("getPaciente");
+        Assert.assertEquals("Llamadas", 50, getPaciente.getLlamadas());
+        Assert.assertEquals("Filas", 50, getPaciente.getFilas());
+        Assert.assertTrue("p50 > p99", getPaciente.getLatenciaP50Micros() <= getPaciente.getLatenciaP99Micros());
+        Assert.assertTrue("p99 > p999", getPaciente.getLatenciaP99Micros() <= getPaciente.getLatenciaP999Micros());
+        Assert.assertTrue("p999 > max", getPaciente.getLatenciaP999Micros() <= getPaciente.getLatenciaMaximaMicros());
+        Assert.assertEquals("Filas pagina", 10, registro.get("getPacientesPagina").getFilas());
+        Assert.assertEquals("Filas recorrido", 100, registro.get("forEachPaciente").getFilas());
+        Assert.assertEquals("Filas insertPacientes", 100, registro.get("insertPacientes").getFilas());
+        Assert.assertEquals("Errores", 1, registro.get("agregarControl").getErrores());
 
+        // CSV: encabezado y una linea por operacion en cada exportacion
+        final Path archivo = Files.createTempFile("fivet", ".csv");
+        try {
+            registro.exportar(ExportadorMetricas.csv(archivo));
+            registro.exportar(ExportadorMetricas.csv(archivo));
+            final List<String> lineas = Files.readAllLines(archivo);
+            Assert.assertEquals("Encabezado", ExportadorMetricas.ENCABEZADO_CSV, lineas.get(0));
+            Assert.assertEquals("Lineas", 1 + 2 * registro.getMetricas().size(), lineas.size());
+            Assert.assertTrue("getPaciente", lineas.stream().anyMatch(linea -> linea.contains(",getPaciente,50,0,50,")));
+        } finally {
+            Files.delete(archivo);
+        }
+
+        // JMX
+        final String dominio = "cl.ucn.disc.isof.fivet.test";
+        Assert.assertEquals("Registradas", registro.getMetricas().size(), registro.registrarJmx(dominio));
+        try {
+            Assert.assertEquals("Llamadas JMX", 50L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    RegistroMetricas.nombreJmx(dominio, "getPaciente"), "Llamadas"));
+        } finally {
+            registro.eliminarJmx(dominio);
+        }
+    }
+
+    /**
+     * Test del registro de consultas lentas: parametros enmascarados, plan y buffer acotado
+     */
+    @Test
+    public void testConsultasLentas() {
+
+        backendService.shutdown();
+        backendService = new EbeanBackendService(ConfiguracionBackend.builder()
+                .database(DB)
+                .umbralConsultaLentaMillis(0)
+                .capacidadConsultasLentas(5)
+                .build());
+        backendService.initialize();
+
+        final EbeanBackendService ebeanBackendService = (EbeanBackendService) backendService;
+
+        Persona.builder()
+                .nombre("Alfredo")
+                .rut("17725104-6")
+                .password("secreto123")
+                .tipo(Persona.Tipo.VETERINARIO)
+                .build()
+                .insert();
+        final List<ConsultaLenta> insercion = ebeanBackendService.getConsultasLentas();
+        Assert.assertFalse("Sin insercion", insercion.isEmpty());
+        Assert.assertTrue("Insercion", insercion.get(0).getSql().toLowerCase().startsWith("insert"));
+
+        ebeanBackendService.limpiarConsultasLentas();
+        Assert.assertTrue("Limpiar", ebeanBackendService.getConsultasLentas().isEmpty());
+        Assert.assertNotNull(backendService.getPersona("17725104-6"));
+
+        // La password (y la clave de la columna) nunca quedan registradas
+        final List<ConsultaLenta> consultas = ebeanBackendService.getConsultasLentas();
+        Assert.assertFalse("Sin consultas", consultas.isEmpty());
+        for (final ConsultaLenta consulta : Iterables.concat(insercion, consultas)) {
+            log.debug("Consulta lenta: {}", consulta);
+            Assert.assertFalse("Password registrada", consulta.getParametros().contains("secreto123"));
+        }
+        final ConsultaLenta select = consultas.get(0);
+        Assert.assertTrue("Select", select.getSql().toLowerCase().startsWith("select"));
+        Assert.assertTrue("Clave enmascarada", select.getParametros().contains(DataSourceConsultasLentas.MASCARA));
+        Assert.assertTrue("Rut", select.getParametros().contains("17725104-6"));
+        Assert.assertNotNull("Sin plan", select.getPlan());
+        Assert.assertTrue("Plan", select.getPlan().toUpperCase().contains("PERSONA"));
+
+        // Buffer acotado a las mas recientes
+        for (int i = 0; i < 10; i++) {
+            backendService.getPacientesPorNombre("pep" + i);
+        }
+        Assert.assertEquals("Capacidad", 5, ebeanBackendService.getConsultasLentas().size());
+        Assert.assertTrue("Total", ebeanBackendService.getTotalConsultasLentas() > 10);
+        Assert.assertTrue("Parametro", ebeanBackendService.getConsultasLentas().get(0).getParametros().stream()
+                .anyMatch(parametro -> parametro.contains("pep9")));
+    }
+
+    /**
+     * Test de las consultas por rango de fecha y proximo control, paginadas y sobre sus indices
+     */
+    @Test
+    public void testControlesPorFecha() {
+
+        final Persona veterinario = Persona.builder()
+                .nombre("Alfredo")
+                .rut("17725104-6")
+                .password("123456")
+                .tipo(Persona.Tipo.VETERINARIO)
+                .build();
+        veterinario.insert();
+        final Persona otro = Persona.builder()
+                .nombre("Otro")
+                .rut("1-9")
+                .password("123456")
+                .tipo(Persona.Tipo.VETERINARIO)
+                .build();
+        otro.insert();
+        Paciente.builder().numero(1).nombre("Rinho").build().insert();
+
+        // Un control por dia (en orden inverso), con el proximo control 7 dias despues
+        final long dia = TimeUnit.DAYS.toMillis(1);
+        final long inicio = 1_480_000_000_000L;
+        for (int i = 19; i >= 0; i--) {
+            backendService.agregarControl(Control.builder()
+                    .fecha(new Date(inicio + i * dia))
+                    .proxControl(new Date(inicio + (i + 7) * dia))
+                    .diagnostico("Control " + i)
+                    .veterinario(i % 2 == 0 ? veterinario : otro)
+                    .build(), 1);
+        }
+
+        // Dias 0 a 9 del veterinario: 0, 2, 4, 6, 8
+        final Date desde = new Date(inicio);
+        final Date hasta = new Date(inicio + 10 * dia);
+        final List<Control> primera = backendService.getControlesVeterinario("17725104-6", desde, hasta, 0, 3);
+        final List<Control> segunda = backendService.getControlesVeterinario("17725104-6", desde, hasta, 1, 3);
+        Assert.assertEquals("Primera pagina", 3, primera.size());
+        Assert.assertEquals("Segunda pagina", 2, segunda.size());
+        Assert.assertEquals("Orden", "Control 0", primera.get(0).getDiagnostico());
+        Assert.assertEquals("Orden", "Control 4", primera.get(2).getDiagnostico());
+        Assert.assertEquals("Orden", "Control 8", segunda.get(1).getDiagnostico());
+
+        // Citas de la semana 2 (proximo control en los dias 14 a 20): controles 7 a 13
+        final Date semana = new Date(inicio + 14 * dia);
+        final Date finSemana = new Date(inicio + 21 * dia);
+        final List<Control> citas = backendService.getProximosControles(null, semana, finSemana, 0, 100);
+        Assert.assertEquals("Citas", 7, citas.size());
+        for (int i = 0; i < citas.size(); i++) {
+            Assert.assertEquals("Orden citas", "Control " + (i + 7), citas.get(i).getDiagnostico());
+        }
+        Assert.assertEquals("Citas del veterinario", 3,
+                backendService.getProximosControles("17725104-6", semana, finSemana, 0, 100).size());
+        Assert.assertEquals("Pagina de citas", "Control 9",
+                backendService.getProximosControles(null, semana, finSemana, 1, 2).get(0).getDiagnostico());
+
+        try {
+            backendService.getProximosControles(null, finSemana, semana, 0, 10);
+            Assert.fail("Rango invertido");
+        } catch (IllegalArgumentException ex) {
+            log.debug("Excepcion esperada: {}", ex.getMessage());
+        }
+
+        // Indices (el optimizador de H2 prefiere el indice de la clave foranea ante un rango en la segunda columna)
+        Assert.assertEquals("Sin indice en veterinario, fecha", "VETERINARIO_ID,FECHA", Ebean.createSqlQuery(
+                "select group_concat(column_name order by ordinal_position) as columnas "
+                        + "from information_schema.indexes where index_name = 'IX_CONTROL_VETERINARIO_ID_FECHA'")
+                .findUnique().getString("columnas"));
+        Assert.assertTrue("Sin indice en proxControl",
+                plan("select id from control where prox_control >= '2016-01-01' order by prox_control").contains("_PROX_CONTROL"));
+    }
+
+    /**
+     * Test del feed de cambios: paginado por cursor, actualizaciones y eliminaciones
+     */
+    @Test
+    public void testCambios() throws InterruptedException {
+
+        backendService.shutdown();
+        backendService = new EbeanBackendService(ConfiguracionBackend.builder()
+                .database(DB)
+                .retrasoCambiosMillis(0L)
+                .build());
+        backendService.initialize();
+
+        final Persona veterinario = Persona.builder()
+                .nombre("Alfredo")
+                .rut("17725104-6")
+                .password("123456")
+                .tipo(Persona.Tipo.VETERINARIO)
+                .build();
+        veterinario.insert();
+        final Paciente paciente = Paciente.builder().numero(1).nombre("Rinho").build();
+        paciente.insert();
+        for (int i = 0; i < 5; i++) {
+            backendService.agregarControl(Control.builder()
+                    .fecha(new Date())
+                    .diagnostico("Control " + i)
+                    .veterinario(veterinario)
+                    .build(), 1);
+        }
+        Thread.sleep(5);
+
+        // Feed completo, de a 2, retomando desde el cursor en texto
+        final List<Control> controles = new ArrayList<>();
+        CursorCambios cursor = null;
+        PaginaCambios<Control> pagina;
+        do {
+            pagina = backendService.getCambios(Control.class, cursor, 2);
+            controles.addAll(pagina.getCambios());
+            cursor = CursorCambios.of(pagina.getSiguiente().toString());
+        } while (pagina.isPendientes());
+        Assert.assertEquals("Controles", 5, controles.size());
+        for (int i = 0; i < controles.size(); i++) {
+            Assert.assertEquals("Orden", "Control " + i, controles.get(i).getDiagnostico());
+            Assert.assertEquals("Insertado", PaginaCambios.Tipo.INSERTADO, PaginaCambios.tipo(controles.get(i)));
+        }
+        Assert.assertTrue("Sin cambios", backendService.getCambios(Control.class, cursor, 10).getCambios().isEmpty());
+        Assert.assertEquals("Mismo cursor", cursor, backendService.getCambios(Control.class, cursor, 10).getSiguiente());
+
+        // Solo los modificados despues del cursor: una actualizacion y una eliminacion (soft delete)
+        final CursorCambios cursorPacientes = backendService.getCambios(Paciente.class, null, 10).getSiguiente();
+        paciente.setNombre("Rinho II");
+        paciente.update();
+        controles.get(2).delete();
+        Thread.sleep(5);
+
+        final List<Paciente> pacientes = backendService.getCambios(Paciente.class, cursorPacientes, 10).getCambios();
+        Assert.assertEquals("Pacientes", 1, pacientes.size());
+        Assert.assertEquals("Actualizado", PaginaCambios.Tipo.ACTUALIZADO, PaginaCambios.tipo(pacientes.get(0)));
+
+        final List<Control> eliminados = backendService.getCambios(Control.class, cursor, 10).getCambios();
+        Assert.assertEquals("Eliminados", 1, eliminados.size());
+        Assert.assertEquals("Eliminado", PaginaCambios.Tipo.ELIMINADO, PaginaCambios.tipo(eliminados.get(0)));
+        Assert.assertEquals("Control 2", eliminados.get(0).getDiagnostico());
+
+        // Un control agregado modifica a su paciente: la tabla intermedia no esta en el feed
+        {
+            final CursorCambios cursorControl =
+                    backendService.getCambios(Paciente.class, cursorPacientes, 10).getSiguiente();
+            backendService.agregarControl(Control.builder()
+                    .fecha(new Date())
+                    .diagnostico("Control 5")
+                    .veterinario(veterinario)
+                    .build(), 1);
+            Thread.sleep(5);
+
+            final List<Paciente> modificados =
+                    backendService.getCambios(Paciente.class, cursorControl, 10).getCambios();
+            Assert.assertEquals("Paciente del control", 1, modificados.size());
+            Assert.assertEquals("Controles del paciente", 5,
+                    backendService.getPaciente(1, FetchSpec.CONTROLES).getControles().size());
+        }
+
+        // Una transaccion que hace commit despues de otra posterior (y del retraso) no queda detras del cursor
+        final CursorCambios cursorTardio = backendService.getCambios(Paciente.class, cursorPacientes, 10).getSiguiente();
+        final Transaction tardia = Ebean.getServer(null).createTransaction();
+        try {
+            Ebean.getServer(null).insert(Paciente.builder().numero(2).nombre("Tardio").build(), tardia);
+            Thread.sleep(5);
+            Paciente.builder().numero(3).nombre("Rapido").build().insert();
+            Thread.sleep(5);
+            Assert.assertTrue("Antes del commit",
+                    backendService.getCambios(Paciente.class, cursorTardio, 10).getCambios().isEmpty());
+            tardia.commit();
+        } finally {
+            tardia.end();
+        }
+        final List<Paciente> tardios = backendService.getCambios(Paciente.class, cursorTardio, 10).getCambios();
+        Assert.assertEquals("Tardios", 2, tardios.size());
+        Assert.assertEquals("Tardio", tardios.get(0).getNombre());
+        Assert.assertEquals("Rapido", tardios.get(1).getNombre());
+
+        Assert.assertTrue("Sin indice en whenModified",
+                plan("select id from control where when_modified >= '2016-01-01'").contains("_WHEN_MODIFIED"));
+    }
+
+    /**
+     * Archivo de las filas eliminadas: salen de sus tablas, se leen desde el archivo y sin sus columnas encriptadas.
+     */
+    @Test
+    public void testArchivoEliminados() throws IOException, InterruptedException {
+
+        final Path directorio = Files.createTempDirectory("archivo");
+        backendService.shutdown();
+        backendService = new EbeanBackendService(ConfiguracionBackend.builder()
+                .database(DB)
+                .directorioArchivo(directorio)
+                .build());
+        backendService.initialize();
+
+        final EbeanBackendService ebeanBackendService = (EbeanBackendService) backendService;
+
+        final Persona veterinario = Persona.builder()
+                .nombre("Alfredo")
+                .rut("17725104-6")
+                .password("123456")
+                .tipo(Persona.Tipo.VETERINARIO)
+                .build();
+        veterinario.insert();
+        final Paciente paciente = Paciente.builder().numero(1).nombre("Rinho").build();
+        paciente.insert();
+        final Persona cliente = Persona.builder()
+                .nombre("Diego")
+                .rut("1-9")
+                .password("secreta")
+                .tipo(Persona.Tipo.CLIENTE)
+                .pacientes(Lists.newArrayList(paciente))
+                .build();
+        cliente.insert();
+        for (int i = 0; i < 3; i++) {
+            backendService.agregarControl(Control.builder()
+                    .fecha(new Date())
+                    .diagnostico("Control " + i)
+                    .veterinario(veterinario)
+                    .build(), 1);
+        }
+
+        // En cache: los ids de los controles del paciente
+        final ServerCache controlesPaciente = Ebean.getServerCacheManager()
+                .getCollectionIdsCache(Paciente.class, "Controles");
+        Assert.assertEquals("Controles", 3, Ebean.find(Paciente.class, paciente.getId()).getControles().size());
+        Assert.assertNotNull("Controles en cache", controlesPaciente.get(paciente.getId()));
+
+        // Eliminados: dos controles y el cliente (con su relacion al paciente)
+        final List<Control> controles = Ebean.find(Control.class).where().orderBy("diagnostico").findList();
+        final CursorCambios cursor = CursorCambios.of(controles.get(2));
+        controles.get(0).delete();
+        controles.get(2).delete();
+        cliente.delete();
+
+        // La retencion excluye a los recien eliminados
+        Assert.assertEquals("Retencion", 0, ebeanBackendService.archivarEliminados(TimeUnit.HOURS.toMillis(1))
+                .values().stream().mapToInt(Integer::intValue).sum());
+        Assert.assertNotNull("Cursor sin archivo", backendService.getCambios(Control.class, cursor, 10));
+
+        Thread.sleep(5);
+        final Map<Class<? extends BaseModel>, Integer> archivadas = ebeanBackendService.archivarEliminados(0);
+        Assert.assertEquals("Controles archivados", 2, archivadas.get(Control.class).intValue());
+        Assert.assertEquals("Pacientes archivados", 0, archivadas.get(Paciente.class).intValue());
+        Assert.assertEquals("Personas archivadas", 1, archivadas.get(Persona.class).intValue());
+        Assert.assertNull("Controles fuera del cache", controlesPaciente.get(paciente.getId()));
+        Assert.assertEquals("Controles", 1, Ebean.find(Paciente.class, paciente.getId()).getControles().size());
+
+        // Los eliminados archivados ya no estan en el feed: un cursor anterior al archivo se rechaza
+        try {
+            backendService.getCambios(Control.class, cursor, 10);
+            Assert.fail("Cursor anterior al archivo");
+        } catch (IllegalArgumentException ex) {
+            log.debug("Cursor rechazado: {}", ex.getMessage());
+        }
+        Assert.assertNotNull("Desde el inicio", backendService.getCambios(Control.class, null, 10));
+        Assert.assertNotNull("Cursor posterior", backendService.getCambios(Control.class,
+                new CursorCambios(System.currentTimeMillis(), 0), 10));
+        Assert.assertNotNull("Otra entidad", backendService.getCambios(Paciente.class, cursor, 10));
+
+        // Fuera de las tablas, las vigentes intactas
+        Assert.assertEquals("Controles en la tabla", 1, Ebean.find(Control.class).setIncludeSoftDeletes().findCount());
+        Assert.assertEquals("Personas en la tabla", 1, Ebean.find(Persona.class).setIncludeSoftDeletes().findCount());
+        Assert.assertEquals("Control vigente", "Control 1",
+                backendService.getPaciente(1, FetchSpec.CONTROLES).getControles().get(0).getDiagnostico());
+        Assert.assertEquals("Relaciones del paciente", 0, Ebean.createSqlQuery(
+                "select count(*) as total from persona_paciente").findUnique().getInteger("total").intValue());
+
+        // Lectura del archivo
+        final List<Control> archivados = new ArrayList<>();
+        ebeanBackendService.forEachArchivado(Control.class, archivados::add);
+        Assert.assertEquals("Controles leidos", 2, archivados.size());
+        Assert.assertEquals("Control 0", archivados.get(0).getDiagnostico());
+        Assert.assertEquals("Control 2", archivados.get(1).getDiagnostico());
+        Assert.assertTrue("Eliminado", archivados.get(0).isDeleted());
+        Assert.assertEquals("Veterinario", veterinario.getId(), archivados.get(0).getVeterinario().getId());
+
+        final List<Persona> personas = new ArrayList<>();
+        ebeanBackendService.forEachArchivado(Persona.class, personas::add);
+        Assert.assertEquals("Personas leidas", 1, personas.size());
+        Assert.assertEquals("Diego", personas.get(0).getNombre());
+        Assert.assertNull("Password archivada", personas.get(0).getPassword());
+
+        // Las relaciones archivadas: el paciente de cada control y los pacientes del cliente
+        final List<Map<String, Object>> pacienteControl = new ArrayList<>();
+        ebeanBackendService.forEachRelacionArchivada("paciente_control", pacienteControl::add);
+        Assert.assertEquals("Relaciones paciente - control", 2, pacienteControl.size());
+        for (int i = 0; i < pacienteControl.size(); i++) {
+            Assert.assertEquals("Paciente del control", paciente.getId(), pacienteControl.get(i).get("paciente_id"));
+            Assert.assertEquals("Control", archivados.get(i).getId(), pacienteControl.get(i).get("control_id"));
+        }
+
+        final List<Map<String, Object>> personaPaciente = new ArrayList<>();
+        ebeanBackendService.forEachRelacionArchivada("persona_paciente", personaPaciente::add);
+        Assert.assertEquals("Relaciones persona - paciente", 1, personaPaciente.size());
+        Assert.assertEquals("Persona", cliente.getId(), personaPaciente.get(0).get("persona_id"));
+        Assert.assertEquals("Paciente de la persona", paciente.getId(), personaPaciente.get(0).get("paciente_id"));
+
+        // Una segunda ejecucion agrega al archivo
+        Ebean.find(Control.class).where().eq("diagnostico", "Control 1").findUnique().delete();
+        Thread.sleep(5);
+        Assert.assertEquals("Segundo archivo", 1, ebeanBackendService.archivarEliminados(0).get(Control.class).intValue());
+        archivados.clear();
+        ebeanBackendService.forEachArchivado(Control.class, archivados::add);
+        Assert.assertEquals("Controles leidos", 3, archivados.size());
+    }
+
+    /**
+     * @return el plan de ejecucion de la consulta (H2).
+     */
+    private static String plan(final String sql) {
+
+        final String plan = Ebean.createSqlQuery("explain " + sql).findUnique().getString("plan");
+        log.debug("Plan de {}: {}", sql, plan);
+        return plan.toUpperCase();
+    }
+
+    /**
+     * @return filas por segundo medidas por el cronometro.
+     */
+    private static long filasPorSegundo(final int filas, final Stopwatch cronometro) {
+        return filas * 1000L / Math.max(1, cronometro.elapsed(TimeUnit.MILLISECONDS));
+    }
 
 }